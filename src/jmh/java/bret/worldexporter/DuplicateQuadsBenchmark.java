@@ -0,0 +1,68 @@
+package bret.worldexporter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Exporter.removeDuplicateQuads over the quads of every block, where a quarter of the quads were rendered twice
+// (with their vertices in a different order)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DuplicateQuadsBenchmark {
+    @Param({"FLAT", "ENTITY"})
+    public QuadWorkloads.Workload workload;
+    @Param({"16", "64"})
+    public int size;
+    private final List<List<Quad>> template = new ArrayList<>();
+    private List<ArrayList<Quad>> blockQuads;
+
+    @Setup(Level.Trial)
+    public void createWorkload() {
+        Random random = new Random(42L);
+        Map<Long, List<Quad>> quadsByBlock = new LinkedHashMap<>();
+        for (Quad quad : QuadWorkloads.create(workload, size)) {
+            List<Quad> quads = quadsByBlock.computeIfAbsent(blockKey(quad), k -> new ArrayList<>());
+            quads.add(quad);
+            if (random.nextInt(4) == 0) {
+                quads.add(rotateVertices(quad));
+            }
+        }
+        template.clear();
+        template.addAll(quadsByBlock.values());
+    }
+
+    // removing duplicates changes the lists, so every invocation starts from fresh lists of the same quads
+    @Setup(Level.Invocation)
+    public void copyLists() {
+        blockQuads = new ArrayList<>(template.size());
+        for (List<Quad> quads : template) {
+            blockQuads.add(new ArrayList<>(quads));
+        }
+    }
+
+    @Benchmark
+    public List<ArrayList<Quad>> removeDuplicates() {
+        Exporter.removeDuplicateQuads(blockQuads);
+        return blockQuads;
+    }
+
+    private static long blockKey(Quad quad) {
+        Vertex vertex = quad.getVertices()[0];
+        return ExportCheckpoint.chunkKey((int) Math.floor(vertex.getPosition().x), (int) Math.floor(vertex.getPosition().z));
+    }
+
+    // an equivalent quad with its vertices starting at the third one
+    private static Quad rotateVertices(Quad quad) {
+        Quad copy = new Quad(quad.getType(), quad.getResource());
+        for (int i = 0; i < 4; ++i) {
+            copy.addVertex(new Vertex(quad.getVertices()[(i + 2) % 4]));
+        }
+        copy.setTexture(quad.getTexture());
+        return copy;
+    }
+}
@@ -0,0 +1,39 @@
+package bret.worldexporter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeshOptimizerBenchmark {
+    @Param({"FLAT", "STAIRS", "ENTITY"})
+    public QuadWorkloads.Workload workload;
+    @Param({"16", "64"})
+    public int size;
+    @Param({"true", "false"})
+    public boolean greedyMeshing;
+    private List<Quad> template;
+    private List<Quad> quads;
+
+    @Setup(Level.Trial)
+    public void createWorkload() {
+        template = QuadWorkloads.create(workload, size);
+    }
+
+    // the optimizer merges quads in place, so every invocation starts from fresh copies
+    @Setup(Level.Invocation)
+    public void copyQuads() {
+        quads = QuadWorkloads.copy(template);
+    }
+
+    @Benchmark
+    public List<Quad> optimize() {
+        return new MeshOptimizer(greedyMeshing).optimize(quads);
+    }
+}
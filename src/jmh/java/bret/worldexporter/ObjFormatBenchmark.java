@@ -0,0 +1,89 @@
+package bret.worldexporter;
+
+import bret.worldexporter.config.WorldExporterConfig;
+import bret.worldexporter.util.AsciiBuffer;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Writing .obj output: formatting single floats with AsciiBuffer against Float.toString, and a whole chunk through
+// ObjChunkSerializer into a temporary directory
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjFormatBenchmark {
+    private static final int DECIMALS = 6;
+    private final float[] values = new float[4096];
+    private final AsciiBuffer asciiBuffer = new AsciiBuffer(1 << 16);
+    private final StringBuilder stringBuilder = new StringBuilder(1 << 16);
+    private ExportChunk chunk;
+    private final List<String> materialNames = new ArrayList<>();
+    private final List<IntArrayList> materialQuads = new ArrayList<>();
+    private File baseDir;
+
+    @Setup(Level.Trial)
+    public void createWorkload() throws IOException {
+        Random random = new Random(42L);
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = (random.nextFloat() - 0.5f) * 1024;
+        }
+
+        chunk = new ExportChunk(QuadBuffer.of(QuadWorkloads.create(QuadWorkloads.Workload.FLAT, 16)), 0, 0);
+        for (int material = 0; material < chunk.quads.getMaterialCount(); ++material) {
+            materialNames.add("material" + material);
+            materialQuads.add(new IntArrayList());
+        }
+        for (int quad = 0; quad < chunk.quads.size(); ++quad) {
+            materialQuads.get(chunk.quads.getMaterial(quad)).add(quad);
+        }
+        baseDir = Files.createTempDirectory("worldexporter-jmh").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteOutput() {
+        File[] files = baseDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        baseDir.delete();
+    }
+
+    @Benchmark
+    public int asciiBuffer() {
+        asciiBuffer.clear();
+        for (float value : values) {
+            asciiBuffer.put(value, DECIMALS).put(' ');
+        }
+        return asciiBuffer.size();
+    }
+
+    @Benchmark
+    public int floatToString() {
+        stringBuilder.setLength(0);
+        for (float value : values) {
+            stringBuilder.append(Float.toString(value)).append(' ');
+        }
+        return stringBuilder.length();
+    }
+
+    @Benchmark
+    public boolean serializeChunk() throws IOException, InterruptedException {
+        ObjChunkSerializer serializer = new ObjChunkSerializer(baseDir, "bench", "bench.mtl",
+                WorldExporterConfig.ChunkExportType.SINGLE_FILE_MULTIPLE_OBJECTS, DECIMALS, WorldExporterConfig.VertexDeduplication.GLOBAL,
+                Long.MAX_VALUE);
+        serializer.submit(chunk, materialNames, materialQuads);
+        return serializer.close();
+    }
+}
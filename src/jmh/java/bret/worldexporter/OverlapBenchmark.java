@@ -0,0 +1,59 @@
+package bret.worldexporter;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Finding the overlapping quads of one block or entity, which fixOverlaps does before every round of translations:
+// comparing all pairs with Quad.overlaps against looking them up in a QuadOverlapIndex
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OverlapBenchmark {
+    private static final float OVERLAP_DISTANCE = 0.0005f;
+    @Param({"STAIRS", "ENTITY"})
+    public QuadWorkloads.Workload workload;
+    @Param({"4", "16"})
+    public int size;
+    private List<Quad> quads;
+    private final IntArrayList overlapIndices = new IntArrayList();
+    private final FloatArrayList overlapDistances = new FloatArrayList();
+
+    @Setup(Level.Trial)
+    public void createWorkload() {
+        quads = QuadWorkloads.create(workload, size);
+    }
+
+    @Benchmark
+    public int allPairs() {
+        int overlaps = 0;
+        for (int i = 0; i < quads.size(); ++i) {
+            Quad quad = quads.get(i);
+            for (int j = i + 1; j < quads.size(); ++j) {
+                if (quad.overlaps(quads.get(j), OVERLAP_DISTANCE) != Float.POSITIVE_INFINITY) {
+                    ++overlaps;
+                }
+            }
+        }
+        return overlaps;
+    }
+
+    @Benchmark
+    public int overlapIndex() {
+        QuadOverlapIndex index = new QuadOverlapIndex(quads, OVERLAP_DISTANCE);
+        int overlaps = 0;
+        for (int i = 0; i < quads.size(); ++i) {
+            overlapIndices.clear();
+            overlapDistances.clear();
+            index.findOverlaps(i, overlapIndices, overlapDistances);
+            overlaps += overlapIndices.size();
+        }
+        return overlaps;
+    }
+}
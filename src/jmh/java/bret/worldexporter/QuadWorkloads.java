@@ -0,0 +1,171 @@
+package bret.worldexporter;
+
+import bret.worldexporter.legacylwjgl.Vector2f;
+import bret.worldexporter.legacylwjgl.Vector3f;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.texture.SimpleTexture;
+import net.minecraft.client.renderer.texture.Texture;
+import net.minecraft.util.ResourceLocation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic quads shaped like the ones an export produces, with a fixed seed so that every run gets the same ones.
+// Quads are in the state they are in after updateQuadTextures: uvs relative to their sprite (0 to 1 for a full face).
+public class QuadWorkloads {
+    private static final long SEED = 42L;
+    // the corners of each face of a box as offsets to its min (0) or max (1) corner, in Minecraft's order
+    private static final int[][][] FACE_CORNERS = {
+            {{0, 0, 1}, {0, 0, 0}, {1, 0, 0}, {1, 0, 1}},  // DOWN
+            {{0, 1, 0}, {0, 1, 1}, {1, 1, 1}, {1, 1, 0}},  // UP
+            {{1, 1, 0}, {1, 0, 0}, {0, 0, 0}, {0, 1, 0}},  // NORTH
+            {{0, 1, 1}, {0, 0, 1}, {1, 0, 1}, {1, 1, 1}},  // SOUTH
+            {{0, 1, 0}, {0, 0, 0}, {0, 0, 1}, {0, 1, 1}},  // WEST
+            {{1, 1, 1}, {1, 0, 1}, {1, 0, 0}, {1, 1, 0}}   // EAST
+    };
+    private static final int UP = 1;
+
+    public enum Workload {
+        // size by size columns of terrain with a few steps, all full block faces of a handful of textures
+        FLAT,
+        // size by size stairs, made of half block faces that only tile in one direction
+        STAIRS,
+        // size mob-like models: boxes with cropped uvs, an overlapping outer layer and arbitrary rotations
+        ENTITY
+    }
+
+    public static List<Quad> create(Workload workload, int size) {
+        Random random = new Random(SEED);
+        List<Quad> quads = new ArrayList<>();
+        switch (workload) {
+            case FLAT:
+                createTerrain(quads, random, size);
+                break;
+            case STAIRS:
+                createStairs(quads, size);
+                break;
+            default:
+                createEntities(quads, random, size);
+                break;
+        }
+        return quads;
+    }
+
+    public static List<Quad> copy(List<Quad> quads) {
+        List<Quad> copies = new ArrayList<>(quads.size());
+        for (Quad quad : quads) {
+            copies.add(new Quad(quad));
+        }
+        return copies;
+    }
+
+    private static void createTerrain(List<Quad> quads, Random random, int size) {
+        Material[] materials = {new Material("block/grass_block_top"), new Material("block/stone"), new Material("block/dirt")};
+        int[][] heights = new int[size][size];
+        for (int x = 0; x < size; ++x) {
+            for (int z = 0; z < size; ++z) {
+                heights[x][z] = 64 + (random.nextInt(10) == 0 ? 1 : 0);
+            }
+        }
+        for (int x = 0; x < size; ++x) {
+            for (int z = 0; z < size; ++z) {
+                int height = heights[x][z];
+                Material top = random.nextInt(8) == 0 ? materials[1 + random.nextInt(2)] : materials[0];
+                addFace(quads, top, UP, x, height - 1, z, x + 1, height, z + 1, 0, 0, 1, 1, 0);
+                // the sides of a column that is higher than its neighbor
+                for (int face = 2; face < 6; ++face) {
+                    int nx = x + (face == 4 ? -1 : face == 5 ? 1 : 0), nz = z + (face == 2 ? -1 : face == 3 ? 1 : 0);
+                    int neighborHeight = nx >= 0 && nx < size && nz >= 0 && nz < size ? heights[nx][nz] : height - 1;
+                    if (neighborHeight < height) {
+                        addFace(quads, materials[2], face, x, height - 1, z, x + 1, height, z + 1, 0, 0, 1, 1, 0);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void createStairs(List<Quad> quads, int size) {
+        Material planks = new Material("block/oak_planks");
+        for (int x = 0; x < size; ++x) {
+            for (int z = 0; z < size; ++z) {
+                int y = 64 + z;
+                // the bottom slab and the back half of the top step
+                addBox(quads, planks, x, y, z, x + 1, y + 0.5f, z + 1, 0, 0.5f, 1, 1, 0);
+                addBox(quads, planks, x, y + 0.5f, z + 0.5f, x + 1, y + 1, z + 1, 0, 0, 1, 0.5f, 0);
+            }
+        }
+    }
+
+    private static void createEntities(List<Quad> quads, Random random, int count) {
+        Material skin = new Material("entity/zombie/zombie");
+        for (int i = 0; i < count; ++i) {
+            float x = random.nextInt(64), y = 64, z = random.nextInt(64);
+            double yaw = random.nextInt(4) == 0 ? 0 : random.nextDouble() * Math.PI * 2;
+            float pixel = 1 / 16f;
+            // legs, body, arms and head with their own part of the texture
+            addModelBox(quads, skin, x, y, z, 0, 0, 0, 4, 12, 4, 0, 16, yaw);
+            addModelBox(quads, skin, x, y, z, 4, 0, 0, 8, 12, 4, 0, 16, yaw);
+            addModelBox(quads, skin, x, y, z, 0, 12, 0, 8, 24, 4, 16, 16, yaw);
+            addModelBox(quads, skin, x, y, z, -4, 12, 0, 0, 24, 4, 40, 16, yaw);
+            addModelBox(quads, skin, x, y, z, 8, 12, 0, 12, 24, 4, 40, 16, yaw);
+            addModelBox(quads, skin, x, y, z, 0, 24, -2, 8, 32, 6, 0, 0, yaw);
+            // the hat layer is the head inflated by half a pixel, so its faces nearly overlap the head's
+            addModelBox(quads, skin, x - pixel / 2, y - pixel / 2, z - pixel / 2, 0, 24, -2, 9, 33, 7, 32, 0, yaw);
+            // and an exact duplicate of the body, like an armor layer with the same texture
+            addModelBox(quads, skin, x, y, z, 0, 12, 0, 8, 24, 4, 16, 16, yaw);
+        }
+    }
+
+    // a box of a model at (x, y, z), from and to in pixels, using the pixel area at (textureX, textureY) of a 64x64 texture
+    private static void addModelBox(List<Quad> quads, Material material, float x, float y, float z, float fromX, float fromY, float fromZ,
+                                    float toX, float toY, float toZ, int textureX, int textureY, double yaw) {
+        float pixel = 1 / 16f;
+        float u0 = textureX / 64f, v0 = textureY / 64f;
+        float u1 = u0 + (toX - fromX) / 64f, v1 = v0 + (toY - fromY) / 64f;
+        addBox(quads, material, x + fromX * pixel, y + fromY * pixel, z + fromZ * pixel, x + toX * pixel, y + toY * pixel, z + toZ * pixel,
+                u0, v0, u1, v1, yaw);
+    }
+
+    private static void addBox(List<Quad> quads, Material material, float x0, float y0, float z0, float x1, float y1, float z1,
+                               float u0, float v0, float u1, float v1, double yaw) {
+        for (int face = 0; face < 6; ++face) {
+            addFace(quads, material, face, x0, y0, z0, x1, y1, z1, u0, v0, u1, v1, yaw);
+        }
+    }
+
+    // adds one face of the box, rotated by yaw around the vertical axis through the box's center
+    private static void addFace(List<Quad> quads, Material material, int face, float x0, float y0, float z0, float x1, float y1, float z1,
+                                float u0, float v0, float u1, float v1, double yaw) {
+        float centerX = (x0 + x1) / 2, centerZ = (z0 + z1) / 2;
+        float cos = (float) Math.cos(yaw), sin = (float) Math.sin(yaw);
+        Quad quad = new Quad(RenderType.solid(), material.resource);
+        int[][] corners = FACE_CORNERS[face];
+        for (int i = 0; i < 4; ++i) {
+            int[] corner = corners[i];
+            float x = corner[0] == 0 ? x0 : x1, y = corner[1] == 0 ? y0 : y1, z = corner[2] == 0 ? z0 : z1;
+            if (yaw != 0) {
+                float dx = x - centerX, dz = z - centerZ;
+                x = centerX + dx * cos - dz * sin;
+                z = centerZ + dx * sin + dz * cos;
+            }
+            Vertex vertex = new Vertex();
+            vertex.setPosition(new Vector3f(x, y, z));
+            vertex.setUv(new Vector2f(i < 2 ? u0 : u1, i == 0 || i == 3 ? v0 : v1));
+            vertex.setColor(-1);
+            quad.addVertex(vertex);
+        }
+        quad.setTexture(material.texture);
+        quads.add(quad);
+    }
+
+    private static class Material {
+        private final ResourceLocation resource;
+        private final Texture texture;
+
+        private Material(String path) {
+            resource = new ResourceLocation("minecraft", "textures/" + path + ".png");
+            texture = new SimpleTexture(resource);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package bret.worldexporter;
+
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+import net.minecraft.client.renderer.vertex.VertexFormat;
+import net.minecraft.client.renderer.vertex.VertexFormatElement;
+import net.minecraft.util.ResourceLocation;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Decoding the quads of a filled BufferBuilder buffer the way ExporterRunnable.addVertices does, for the vertex formats
+// of blocks, entities and simple textured geometry
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VertexDecoderBenchmark {
+    @Param({"BLOCK", "NEW_ENTITY", "POSITION_COLOR_TEX"})
+    public String format;
+    @Param({"4096"})
+    public int quadCount;
+    private final ResourceLocation resource = new ResourceLocation("minecraft", "textures/atlas/blocks.png");
+    private VertexFormat vertexFormat;
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void fillBuffer() {
+        switch (format) {
+            case "BLOCK":
+                vertexFormat = DefaultVertexFormats.BLOCK;
+                break;
+            case "NEW_ENTITY":
+                vertexFormat = DefaultVertexFormats.NEW_ENTITY;
+                break;
+            default:
+                vertexFormat = DefaultVertexFormats.POSITION_COLOR_TEX;
+                break;
+        }
+
+        Random random = new Random(42L);
+        // BufferBuilder buffers are in native order
+        buffer = ByteBuffer.allocateDirect(quadCount * 4 * vertexFormat.getVertexSize()).order(ByteOrder.nativeOrder());
+        for (int vertex = 0; vertex < quadCount * 4; ++vertex) {
+            for (VertexFormatElement element : vertexFormat.getElements()) {
+                if (element.getType() == VertexFormatElement.Type.FLOAT) {
+                    float scale = element.getUsage() == VertexFormatElement.Usage.POSITION ? 16 : 1;
+                    for (int i = 0; i < element.getByteSize() / Float.BYTES; ++i) {
+                        buffer.putFloat(random.nextFloat() * scale);
+                    }
+                } else {
+                    for (int i = 0; i < element.getByteSize(); ++i) {
+                        buffer.put((byte) random.nextInt(256));
+                    }
+                }
+            }
+        }
+        buffer.flip();
+    }
+
+    @Benchmark
+    public ArrayList<Quad> decode() {
+        VertexDecoder decoder = VertexDecoder.of(vertexFormat);
+        int vertexSize = decoder.getVertexSize();
+        ArrayList<Quad> quads = new ArrayList<>(quadCount);
+        for (int quadNum = 0; quadNum < quadCount; ++quadNum) {
+            int quadStart = quadNum * 4 * vertexSize;
+            if (decoder.hasNaNUv(buffer, quadStart, 4)) continue;
+
+            Quad quad = new Quad(RenderType.solid(), resource);
+            for (int i = 0; i < 4; ++i) {
+                quad.addVertex(decoder.decode(buffer, quadStart + i * vertexSize));
+            }
+            quads.add(quad);
+        }
+        return quads;
+    }
+}
@@ -0,0 +1,202 @@
+package bret.worldexporter;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.LivingEntity;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static bret.worldexporter.Exporter.LOGGER;
+
+// Fingerprints of the world content each exported chunk was rendered from, saved next to the output of an incremental
+// export. The next export into the same directory only renders the chunks whose fingerprint changed.
+// Fingerprints from a previous export are only used if it was made with the same settings, since those change the
+// output of every chunk.
+public class ChunkFingerprints {
+    private static final String FILENAME = "chunk_fingerprints.json";
+    private final File file;
+    private final String settings;
+    // keyed by the chunk position the chunk is exported with (see Exporter.getChunkX), which is also the one in the
+    // chunk's file name, see chunkKey
+    private final Map<Long, Long> fingerprints = new HashMap<>();
+    // the chunks that were part of this export
+    private final Set<Long> updated = new HashSet<>();
+
+    private ChunkFingerprints(File file, String settings) {
+        this.file = file;
+        this.settings = settings;
+    }
+
+    // Loads the fingerprints saved in directory, or starts with none if they are missing, unreadable, or were saved
+    // with different settings
+    public static ChunkFingerprints load(File directory, String settings) {
+        ChunkFingerprints loaded = new ChunkFingerprints(new File(directory, FILENAME), settings);
+        if (!loaded.file.isFile()) return loaded;
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(loaded.file), StandardCharsets.UTF_8)) {
+            JsonObject root = new JsonParser().parse(reader).getAsJsonObject();
+            if (!settings.equals(root.get("settings").getAsString())) {
+                LOGGER.info("Export settings changed since the last incremental export, every chunk will be exported again.");
+                return loaded;
+            }
+            for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject("chunks").entrySet()) {
+                loaded.fingerprints.put(Long.parseLong(entry.getKey()), Long.parseUnsignedLong(entry.getValue().getAsString(), 16));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Could not read chunk fingerprints, every chunk will be exported again: ", e);
+            loaded.fingerprints.clear();
+        }
+        return loaded;
+    }
+
+    public void save() throws IOException {
+        JsonObject chunks = new JsonObject();
+        for (Map.Entry<Long, Long> entry : fingerprints.entrySet()) {
+            chunks.addProperty(Long.toString(entry.getKey()), Long.toHexString(entry.getValue()));
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("settings", settings);
+        root.add("chunks", chunks);
+        Files.write(file.toPath(), new Gson().toJson(root).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean isEmpty() {
+        return fingerprints.isEmpty();
+    }
+
+    // forgets all saved fingerprints, so that every chunk is exported
+    public void clear() {
+        fingerprints.clear();
+    }
+
+    // Records the fingerprint of the chunk and returns true if it differs from the saved one (or there was none)
+    public boolean update(int chunkX, int chunkZ, long fingerprint) {
+        long key = chunkKey(chunkX, chunkZ);
+        updated.add(key);
+        Long previous = fingerprints.put(key, fingerprint);
+        return previous == null || previous != fingerprint;
+    }
+
+    // forgets the fingerprints of the chunks that were not part of this export, e.g. after the radius shrank
+    public void retainUpdated() {
+        fingerprints.keySet().retainAll(updated);
+    }
+
+    public boolean contains(int chunkX, int chunkZ) {
+        return fingerprints.containsKey(chunkKey(chunkX, chunkZ));
+    }
+
+    // Deletes the .obj files of the chunks that have no fingerprint, e.g. because they were outside of the last export's
+    // radius (see retainUpdated). Files with a level of detail in their name are from before the file name stopped
+    // including it and are always deleted. Returns the number of deleted files.
+    public int deleteStaleChunkFiles(String objBaseFilename) {
+        File[] files = file.getParentFile().listFiles();
+        if (files == null) return 0;
+
+        Pattern chunkFile = Pattern.compile(Pattern.quote(objBaseFilename) + "_chunk_(-?\\d+)_(-?\\d+)(_lod\\d+)?\\.obj");
+        int deleted = 0;
+        for (File chunk : files) {
+            Matcher matcher = chunkFile.matcher(chunk.getName());
+            if (!matcher.matches()) continue;
+
+            int chunkX = Integer.parseInt(matcher.group(1));
+            int chunkZ = Integer.parseInt(matcher.group(2));
+            if (contains(chunkX, chunkZ) && matcher.group(3) == null) continue;
+
+            if (chunk.delete()) {
+                ++deleted;
+            } else {
+                LOGGER.warn("Unable to delete the stale chunk file " + chunk.getName());
+            }
+        }
+        if (deleted > 0) {
+            LOGGER.info("Incremental export deleted " + deleted + " stale chunk files.");
+        }
+        return deleted;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    // A hash of everything the export of the blocks from start to end depends on: the block states (including a one
+    // block border, since neighbors decide which faces are culled), the NBT of tile entities, and the type and position
+    // of the entities that are exported. May only be called on the main thread.
+    public static long compute(ClientWorld world, BlockPos start, BlockPos end, boolean entities, boolean livingEntities) {
+        long hash = 0;
+        BlockPos borderMin = new BlockPos(end.getX() - 1, Math.max(0, end.getY() - 1), end.getZ() - 1);
+        BlockPos borderMax = new BlockPos(start.getX() + 1, Math.min(world.getMaxBuildHeight() - 1, start.getY() + 1), start.getZ() + 1);
+        for (BlockPos pos : BlockPos.betweenClosed(borderMin, borderMax)) {
+            BlockState state = world.getBlockState(pos);
+            hash = mix(hash, Block.getId(state));
+            if (state.hasTileEntity() && contains(start, end, pos)) {
+                TileEntity tileEntity = world.getBlockEntity(pos);
+                if (tileEntity != null) {
+                    hash = mix(hash, tileEntityHash(tileEntity));
+                }
+            }
+        }
+
+        if (entities) {
+            // the order entities are returned in isn't stable, so their hashes are combined in an order independent way
+            long entityHash = 0;
+            for (Entity entity : world.getEntities(null, new AxisAlignedBB(start, end))) {
+                if (!livingEntities && entity instanceof LivingEntity) continue;
+
+                long single = mix(0, String.valueOf(entity.getType().getRegistryName()).hashCode());
+                single = mix(single, Double.doubleToLongBits(entity.getX()));
+                single = mix(single, Double.doubleToLongBits(entity.getY()));
+                single = mix(single, Double.doubleToLongBits(entity.getZ()));
+                single = mix(single, Float.floatToIntBits(entity.yRot));
+                single = mix(single, Float.floatToIntBits(entity.xRot));
+                entityHash += finish(single);
+            }
+            hash = mix(hash, entityHash);
+        }
+        return finish(hash);
+    }
+
+    private static long tileEntityHash(TileEntity tileEntity) {
+        try {
+            return tileEntity.save(new CompoundNBT()).toString().hashCode();
+        } catch (Throwable e) {
+            // some modded tile entities can't be saved on the client, they are then only covered by their block state
+            return 0;
+        }
+    }
+
+    private static boolean contains(BlockPos start, BlockPos end, BlockPos pos) {
+        return pos.getX() <= start.getX() && pos.getX() >= end.getX()
+                && pos.getY() <= start.getY() && pos.getY() >= end.getY()
+                && pos.getZ() <= start.getZ() && pos.getZ() >= end.getZ();
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+    }
+
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,44 @@
+package bret.worldexporter;
+
+import net.minecraft.util.math.BlockPos;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Hands out chunk boundaries to ExporterRunnables in small batches from a shared lock-free queue.
+// Workers that finish their chunks early keep pulling more work instead of sitting idle while a worker with an
+// expensive partition (dense villages, large modded bases) is still running.
+public class ChunkScheduler {
+    private final ConcurrentLinkedQueue<Pair<BlockPos, BlockPos>> pending;
+    private final int batchSize;
+    private final int totalChunks;
+
+    public ChunkScheduler(Collection<Pair<BlockPos, BlockPos>> chunkBoundaries, int batchSize) {
+        this.pending = new ConcurrentLinkedQueue<>(chunkBoundaries);
+        this.batchSize = Math.max(1, batchSize);
+        this.totalChunks = chunkBoundaries.size();
+    }
+
+    // returns the next (at most batchSize) chunk boundaries to export, or an empty list once all chunks are taken
+    public List<Pair<BlockPos, BlockPos>> nextBatch() {
+        Pair<BlockPos, BlockPos> first = pending.poll();
+        if (first == null) return Collections.emptyList();
+
+        List<Pair<BlockPos, BlockPos>> batch = new ArrayList<>(batchSize);
+        batch.add(first);
+        for (int i = 1; i < batchSize; ++i) {
+            Pair<BlockPos, BlockPos> next = pending.poll();
+            if (next == null) break;
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+}
@@ -0,0 +1,34 @@
+package bret.worldexporter;
+
+import java.util.concurrent.Semaphore;
+
+// Limits the number of quads held by ExportChunks that have been extracted but not written yet.
+// Export threads block once the budget is used up, which keeps the heap bounded when writing falls behind extraction.
+public class ExportBudget {
+    // rough heap cost of a single quad in a QuadBuffer: 12 position floats, 8 uv floats, 4 colors and a material id
+    public static final int ESTIMATED_QUAD_BYTES = 100;
+    private final Semaphore permits;
+    private final int maxPermits;
+
+    public ExportBudget(long budgetBytes) {
+        maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / ESTIMATED_QUAD_BYTES));
+        permits = new Semaphore(maxPermits, true);
+    }
+
+    public boolean tryAcquire(ExportChunk chunk) {
+        return permits.tryAcquire(permitsFor(chunk));
+    }
+
+    public void acquire(ExportChunk chunk) throws InterruptedException {
+        permits.acquire(permitsFor(chunk));
+    }
+
+    public void release(ExportChunk chunk) {
+        permits.release(permitsFor(chunk));
+    }
+
+    // a single chunk larger than the whole budget is clamped to the budget so that it can still be exported alone
+    private int permitsFor(ExportChunk chunk) {
+        return Math.max(1, Math.min(maxPermits, chunk.quads.size()));
+    }
+}
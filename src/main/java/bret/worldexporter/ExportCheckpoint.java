@@ -0,0 +1,160 @@
+package bret.worldexporter;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.util.math.BlockPos;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// The progress of an OBJ export, saved as checkpoint.json in its output directory while it runs and removed once it
+// finishes. An export that was interrupted (by a crash or running out of memory) can be resumed from its last
+// checkpoint: the output files are cut back to their length at the checkpoint and only the chunks that weren't
+// completed by then are exported and appended.
+// Chunks are identified by their position instead of their place in the export order, and the export area is restored
+// from the checkpoint, so a resumed export produces the same chunk boundaries as the interrupted one.
+public class ExportCheckpoint {
+    private static final String FILENAME = "checkpoint.json";
+    public final File directory;
+    public final int centerX;
+    public final int centerZ;
+    public final BlockPos viewpoint;
+    public final int radius;
+    public final int lower;
+    public final int upper;
+    public final boolean optimizeMesh;
+    public final boolean randomize;
+    public final int threads;
+    public final String dimension;
+    public final String settings;
+    // the rest is only set for a loaded checkpoint
+    private final LongSet completedChunks = new LongOpenHashSet();
+    private JsonObject materials = new JsonObject();
+    private long mtlLength = 0;
+    private ObjChunkSerializer.Position position = new ObjChunkSerializer.Position(0, 0, 0);
+
+    public ExportCheckpoint(File directory, int centerX, int centerZ, BlockPos viewpoint, int radius, int lower, int upper, boolean optimizeMesh,
+                            boolean randomize, int threads, String dimension, String settings) {
+        this.directory = directory;
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.viewpoint = viewpoint;
+        this.radius = radius;
+        this.lower = lower;
+        this.upper = upper;
+        this.optimizeMesh = optimizeMesh;
+        this.randomize = randomize;
+        this.threads = threads;
+        this.dimension = dimension;
+        this.settings = settings;
+    }
+
+    public static ExportCheckpoint load(File directory) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(new File(directory, FILENAME)), StandardCharsets.UTF_8)) {
+            JsonObject root = new JsonParser().parse(reader).getAsJsonObject();
+            ExportCheckpoint checkpoint = new ExportCheckpoint(directory, root.get("centerX").getAsInt(), root.get("centerZ").getAsInt(),
+                    BlockPos.of(root.get("viewpoint").getAsLong()), root.get("radius").getAsInt(), root.get("lower").getAsInt(), root.get("upper").getAsInt(),
+                    root.get("optimizeMesh").getAsBoolean(), root.get("randomize").getAsBoolean(), root.get("threads").getAsInt(),
+                    root.get("dimension").getAsString(), root.get("settings").getAsString());
+            for (JsonElement chunk : root.getAsJsonArray("completedChunks")) {
+                checkpoint.completedChunks.add(chunk.getAsLong());
+            }
+            checkpoint.materials = root.getAsJsonObject("materials");
+            checkpoint.mtlLength = root.get("mtlLength").getAsLong();
+            checkpoint.position = new ObjChunkSerializer.Position(root.get("objLength").getAsLong(),
+                    root.get("vertCount").getAsInt(), root.get("uvCount").getAsInt());
+            return checkpoint;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Invalid export checkpoint in " + directory, e);
+        }
+    }
+
+    // Returns the output directory (under exportRoot) with the most recently saved checkpoint, or null if there is none
+    @Nullable
+    public static File findLatest(File exportRoot) {
+        File[] directories = exportRoot.listFiles(File::isDirectory);
+        if (directories == null) return null;
+
+        File latest = null;
+        long latestModified = Long.MIN_VALUE;
+        for (File directory : directories) {
+            File file = new File(directory, FILENAME);
+            if (file.isFile() && file.lastModified() > latestModified) {
+                latest = directory;
+                latestModified = file.lastModified();
+            }
+        }
+        return latest;
+    }
+
+    // Replaces the saved checkpoint. completedChunks are the keys (see chunkKey) of every chunk written up to position,
+    // and mtlLength the length of the .mtl file with the materials in the material tables.
+    public void save(long[] completedChunks, JsonObject materials, long mtlLength, ObjChunkSerializer.Position position) throws IOException {
+        JsonArray chunks = new JsonArray();
+        for (long chunk : completedChunks) {
+            chunks.add(chunk);
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("centerX", centerX);
+        root.addProperty("centerZ", centerZ);
+        root.addProperty("viewpoint", viewpoint.asLong());
+        root.addProperty("radius", radius);
+        root.addProperty("lower", lower);
+        root.addProperty("upper", upper);
+        root.addProperty("optimizeMesh", optimizeMesh);
+        root.addProperty("randomize", randomize);
+        root.addProperty("threads", threads);
+        root.addProperty("dimension", dimension);
+        root.addProperty("settings", settings);
+        root.addProperty("mtlLength", mtlLength);
+        root.addProperty("objLength", position.objLength);
+        root.addProperty("vertCount", position.vertCount);
+        root.addProperty("uvCount", position.uvCount);
+        root.add("materials", materials);
+        root.add("completedChunks", chunks);
+
+        // written to a temporary file first so that a crash while saving keeps the previous checkpoint
+        Path temp = new File(directory, FILENAME + ".tmp").toPath();
+        Files.write(temp, new Gson().toJson(root).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, new File(directory, FILENAME).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public boolean exists() {
+        return new File(directory, FILENAME).isFile();
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(new File(directory, FILENAME).toPath());
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public LongSet getCompletedChunks() {
+        return completedChunks;
+    }
+
+    public JsonObject getMaterials() {
+        return materials;
+    }
+
+    public long getMtlLength() {
+        return mtlLength;
+    }
+
+    public ObjChunkSerializer.Position getPosition() {
+        return position;
+    }
+}
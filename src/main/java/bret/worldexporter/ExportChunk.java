@@ -1,15 +1,44 @@
 package bret.worldexporter;
 
-import java.util.ArrayList;
-
 public class ExportChunk {
-    public final ArrayList<Quad> quads;
+    public final QuadBuffer quads;
     public final int xChunkPos;
     public final int zChunkPos;
+    public final int lodLevel;
+    // the number of chunks along each side of the region the quads are from, starting at the chunk position
+    public final int regionSize;
+
+    public ExportChunk(QuadBuffer quads, int xChunkPos, int zChunkPos) {
+        this(quads, xChunkPos, zChunkPos, 0);
+    }
 
-    public ExportChunk(ArrayList<Quad> quads, int xChunkPos, int zChunkPos) {
+    public ExportChunk(QuadBuffer quads, int xChunkPos, int zChunkPos, int lodLevel) {
+        this(quads, xChunkPos, zChunkPos, lodLevel, 1);
+    }
+
+    public ExportChunk(QuadBuffer quads, int xChunkPos, int zChunkPos, int lodLevel, int regionSize) {
         this.quads = quads;
         this.xChunkPos = xChunkPos;
         this.zChunkPos = zChunkPos;
+        this.lodLevel = lodLevel;
+        this.regionSize = regionSize;
+    }
+
+    // The chunk position a block coordinate is exported with along one axis, which is relative to the chunk of the
+    // player's coordinate when relative is set
+    public static int chunkPos(int blockCoordinate, int playerCoordinate, boolean relative) {
+        return (blockCoordinate >> 4) - (relative ? playerCoordinate >> 4 : 0);
+    }
+
+    // the name of the chunk's object or node, which includes its level of detail if it isn't full detail
+    public String getName() {
+        return getFileName() + (lodLevel == 0 ? "" : "_lod" + lodLevel);
+    }
+
+    // the name of the file the chunk is written to, which stays the same when its level of detail changes, so that an
+    // incremental export overwrites the chunk's previous file
+    public String getFileName() {
+        return regionSize == 1 ? "chunk_" + xChunkPos + '_' + zChunkPos
+                : "region_" + Math.floorDiv(xChunkPos, regionSize) + '_' + Math.floorDiv(zChunkPos, regionSize);
     }
 }
@@ -0,0 +1,36 @@
+package bret.worldexporter;
+
+import bret.worldexporter.config.WorldExporterConfig;
+
+// An export that runs on a thread of its own (see the asyncExport config), so that the game keeps running while it
+// exports. The main thread only runs the export's main thread tasks, within a time budget every client tick.
+public class ExportJob {
+    private final Exporter exporter;
+    private final Thread thread;
+
+    // export runs the whole export on the job's thread
+    public ExportJob(Exporter exporter, Runnable export) {
+        this.exporter = exporter;
+        thread = new Thread(export, "WorldExporter export");
+        // closing the game doesn't wait for the export, OBJ exports can be continued from their last checkpoint instead
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // must be called on the main thread every client tick until the export is done
+    public void tick() {
+        exporter.runMainThreadTasks(WorldExporterConfig.CLIENT.asyncTickBudget.get() * 1_000_000L);
+    }
+
+    // the export stops at its next chunk and then writes what it has exported so far, see Exporter.cancel
+    public void cancel() {
+        exporter.cancel();
+    }
+
+    public String getProgressMessage() {
+        return exporter.getProgressMessage();
+    }
+}
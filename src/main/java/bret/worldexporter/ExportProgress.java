@@ -0,0 +1,87 @@
+package bret.worldexporter;
+
+import bret.worldexporter.config.WorldExporterConfig;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.entity.player.ClientPlayerEntity;
+import net.minecraft.util.text.StringTextComponent;
+
+import java.util.List;
+
+import static bret.worldexporter.Exporter.LOGGER;
+
+// Reports how far an export is: the chunks done out of every chunk handed to the scheduler, quads per second and the
+// estimated time left, shown in the action bar and logged every progressInterval seconds.
+// Each worker only counts its own chunks and quads (see ExporterRunnable), and they are summed here when a report is
+// due, so tracking adds no shared state to the workers. The rates are exponential moving averages, so the estimate
+// follows changes in how dense the exported chunks are without jumping with every report.
+class ExportProgress {
+    // weight of the latest interval in the moving averages
+    private static final double SMOOTHING = 0.3;
+    // how often the progress is still computed for getMessage when reports are disabled
+    private static final long SILENT_INTERVAL_NANOS = 2_000_000_000L;
+    private final List<ExporterRunnable> workers;
+    private final int totalChunks;
+    private final long intervalNanos;
+    private long lastReportNanos = System.nanoTime();
+    private int lastChunks = 0;
+    private long lastQuads = 0;
+    // per second, negative until the first report
+    private double chunkRate = -1;
+    private double quadRate = -1;
+    private volatile String message;
+
+    ExportProgress(List<ExporterRunnable> workers, int totalChunks) {
+        this.workers = workers;
+        this.totalChunks = totalChunks;
+        intervalNanos = WorldExporterConfig.CLIENT.progressInterval.get() * 1_000_000_000L;
+        message = "Exporting: 0/" + totalChunks + " chunks";
+    }
+
+    // the latest report, which may be read from any thread
+    String getMessage() {
+        return message;
+    }
+
+    // Reports the progress if the interval has passed since the last report. Must be called on the main thread.
+    void update() {
+        long now = System.nanoTime();
+        boolean report = intervalNanos > 0;
+        if (now - lastReportNanos < (report ? intervalNanos : SILENT_INTERVAL_NANOS)) return;
+
+        int chunks = 0;
+        long quads = 0;
+        for (ExporterRunnable worker : workers) {
+            chunks += worker.getChunksProcessed();
+            quads += worker.getQuadsProcessed();
+        }
+        double seconds = (now - lastReportNanos) / 1e9;
+        chunkRate = average(chunkRate, (chunks - lastChunks) / seconds);
+        quadRate = average(quadRate, (quads - lastQuads) / seconds);
+        lastReportNanos = now;
+        lastChunks = chunks;
+        lastQuads = quads;
+
+        message = String.format("Exporting: %d/%d chunks (%d%%), %d quads/s, %s left", chunks, totalChunks,
+                totalChunks == 0 ? 100 : chunks * 100L / totalChunks, Math.round(quadRate), formatRemaining(totalChunks - chunks));
+        if (!report) return;
+
+        LOGGER.info(message);
+        ClientPlayerEntity player = Minecraft.getInstance().player;
+        if (player != null) {
+            player.displayClientMessage(new StringTextComponent(message), true);
+        }
+    }
+
+    private static double average(double previous, double latest) {
+        return previous < 0 ? latest : SMOOTHING * latest + (1 - SMOOTHING) * previous;
+    }
+
+    private String formatRemaining(int remainingChunks) {
+        if (chunkRate <= 0) return "unknown time";
+
+        long seconds = Math.round(remainingChunks / chunkRate);
+        if (seconds < 60) return seconds + "s";
+        if (seconds < 3600) return seconds / 60 + "m " + seconds % 60 + "s";
+        return seconds / 3600 + "h " + seconds % 3600 / 60 + "m";
+    }
+}
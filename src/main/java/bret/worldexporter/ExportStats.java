@@ -0,0 +1,122 @@
+package bret.worldexporter;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+// Where the time of an export went and how much it produced, written as a JSON report next to the output once the
+// export finishes. Every method may be called from any thread: each phase and counter is a LongAdder, so workers
+// recording at the same time don't contend on a lock.
+// Phases are measured on whichever thread does the work, so they overlap (the workers run in parallel, and texture
+// readback happens within main thread tasks) and don't add up to the wall time.
+public class ExportStats {
+    public static final String FILENAME = "export_stats.json";
+    private final LongAdder[] phaseNanos = createAdders(Phase.values().length);
+    private final LongAdder[] counts = createAdders(Counter.values().length);
+    private final long startNanos = System.nanoTime();
+
+    public enum Phase {
+        // rendering blocks and fluids into buffers and decoding them into quads
+        BLOCKS,
+        TILE_ENTITIES,
+        ENTITIES,
+        // exporting the chunks that are far enough away for a lower level of detail
+        LOD,
+        // duplicate removal, sorting and translating overlapping quads
+        FIX_OVERLAPS,
+        MESH_OPTIMIZER,
+        // how long tasks for the main thread waited in its queue, and how long they then took to run
+        MAIN_THREAD_WAIT,
+        MAIN_THREAD_TASKS,
+        // reading textures back from OpenGL
+        TEXTURE_READBACK,
+        // encoding and writing png files
+        TEXTURE_WRITE,
+        // writing the geometry to the output file(s)
+        GEOMETRY_WRITE
+    }
+
+    public enum Counter {
+        CHUNKS,
+        // quads decoded from the rendered buffers, before duplicates are removed
+        QUADS_RENDERED,
+        QUADS_AFTER_DEDUPE,
+        // quads handed to the output after mesh optimization
+        QUADS_EXPORTED,
+        MAIN_THREAD_TASKS,
+        TEXTURES_WRITTEN,
+        BYTES_WRITTEN
+    }
+
+    private static LongAdder[] createAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; ++i) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public void addTime(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    public void add(Counter counter, long amount) {
+        counts[counter.ordinal()].add(amount);
+    }
+
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    public long getCount(Counter counter) {
+        return counts[counter.ordinal()].sum();
+    }
+
+    public long getWallNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    public JsonObject toJson() {
+        JsonObject phases = new JsonObject();
+        for (Phase phase : Phase.values()) {
+            phases.addProperty(phase.name().toLowerCase(Locale.ROOT), getNanos(phase));
+        }
+        JsonObject counters = new JsonObject();
+        for (Counter counter : Counter.values()) {
+            counters.addProperty(counter.name().toLowerCase(Locale.ROOT), getCount(counter));
+        }
+
+        JsonObject root = new JsonObject();
+        root.addProperty("wallNanos", getWallNanos());
+        root.add("phaseNanos", phases);
+        root.add("counts", counters);
+        return root;
+    }
+
+    public void writeReport(File directory) throws IOException {
+        Files.write(new File(directory, FILENAME).toPath(),
+                new GsonBuilder().setPrettyPrinting().create().toJson(toJson()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // a single line for chat: the totals and the three phases that took the longest
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder(String.format("%d chunks, %d of %d quads kept, %d textures, %.1f MB in %.1fs.",
+                getCount(Counter.CHUNKS), getCount(Counter.QUADS_EXPORTED), getCount(Counter.QUADS_RENDERED),
+                getCount(Counter.TEXTURES_WRITTEN), getCount(Counter.BYTES_WRITTEN) / (1024.0 * 1024.0), getWallNanos() / 1e9));
+
+        Phase[] slowest = Phase.values();
+        Arrays.sort(slowest, (first, second) -> Long.compare(getNanos(second), getNanos(first)));
+        summary.append(" Slowest:");
+        for (int i = 0; i < 3; ++i) {
+            summary.append(String.format(" %s %.1fs%s", slowest[i].name().toLowerCase(Locale.ROOT), getNanos(slowest[i]) / 1e9, i < 2 ? "," : "."));
+        }
+        return summary.toString();
+    }
+}
@@ -5,6 +5,8 @@ import bret.worldexporter.render.CustomBlockRendererDispatcher;
 import bret.worldexporter.util.ImgUtils;
 import bret.worldexporter.util.LABPBRParser;
 import bret.worldexporter.util.OptifineReflector;
+import bret.worldexporter.util.RectIndex;
+import bret.worldexporter.util.TextureCache;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.player.ClientPlayerEntity;
 import net.minecraft.client.renderer.Atlases;
@@ -14,8 +16,10 @@ import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
 import net.minecraft.client.renderer.vertex.VertexFormat;
 import net.minecraft.client.settings.AmbientOcclusionStatus;
 import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.Entity;
 import net.minecraft.util.Direction;
 import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
@@ -25,10 +29,14 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL12;
 
 import javax.annotation.Nullable;
+import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.awt.image.RasterFormatException;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.IntBuffer;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
@@ -37,8 +45,14 @@ import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 
 public class Exporter {
     public static final Logger LOGGER = LogManager.getLogger(WorldExporter.MODID);
+    protected final static String TEXTURE_DIR = "tex";
     private static final int CHUNKS_PER_CONSUME = 10;
+    private static final int SCHEDULER_BATCH_SIZE = 2;
+    // chunks checked by each main thread task before the export starts, see prepareChunks
+    private static final int PREPARE_BATCH_SIZE = 64;
     private static final int OTHER_ORDER = 3;
+    // chunks at level n are exported in cells of 2^n blocks, so this limits cells to the size of a chunk
+    private static final int MAX_LOD_LEVEL = 4;
     private static final Map<RenderType, Integer> renderOrder = new HashMap<RenderType, Integer>() {{
         put(RenderType.solid(), 0);
         put(Atlases.solidBlockSheet(), 0);
@@ -54,45 +68,95 @@ public class Exporter {
     }};
     public final boolean randomize;
     public final boolean optimizeMesh;
+    // runs off the main thread, which only runs the export's main thread tasks from the client tick (see runMainThreadTasks)
+    public final boolean async = WorldExporterConfig.CLIENT.asyncExport.get();
     protected final Minecraft mc = Minecraft.getInstance();
+    protected final File baseDir;
+    protected final File texturePath;
+    @Nullable
+    private final TextureCache textureCache = createTextureCache(new File(mc.gameDirectory, "worldexporter/texturecache"));
     protected final CustomBlockRendererDispatcher blockRendererDispatcher = new CustomBlockRendererDispatcher(mc.getBlockRenderer().getBlockModelShaper(), mc.getBlockColors());
     protected final Map<Integer, BufferedImage> atlasCacheMap = new HashMap<>();
     protected final ClientWorld world = Objects.requireNonNull(mc.level);
     protected final int playerX;
     protected final int playerZ;
+    // the block the export is viewed from for PLAYER visibility culling
+    protected final BlockPos viewpoint;
     public final int playerXOffset;
     public final int playerZOffset;
-    private final Map<Pair<ResourceLocation, UVBounds>, Pair<ResourceLocation, TextureAtlasSprite>> atlasUVToSpriteCache = new HashMap<>();
+    // Optional.empty() marks uv bounds that are not inside any sprite, since a ConcurrentHashMap can't hold null
+    private final Map<Pair<ResourceLocation, UVBounds>, Optional<Pair<ResourceLocation, TextureAtlasSprite>>> atlasUVToSpriteCache = new ConcurrentHashMap<>();
+    private final Map<AtlasTexture, RectIndex<Pair<ResourceLocation, TextureAtlasSprite>>> atlasSpriteIndexes = new ConcurrentHashMap<>();
     private final Map<Pair<ResourceLocation, UVBounds>, Float> uvTransparencyCache = new HashMap<>();
     private final Comparator<Quad> quadComparator = getQuadSort();
     private final Comparator<Quad> quadComparatorThreaded = getQuadSortThreaded();
     private final ArrayBlockingQueue<Runnable> mainThreadTasks = new ArrayBlockingQueue<>(10);
+    // chunks waiting to be consumed; not bounded by count since the quads they hold are bounded by the ExportBudget
+    private final LinkedBlockingQueue<Runnable> chunkTasks = new LinkedBlockingQueue<>();
+    protected final ExportBudget budget = new ExportBudget(WorldExporterConfig.CLIENT.exportMemoryBudget.get() * 1024L * 1024L);
+    protected final ExportStats stats = new ExportStats();
     private final ExecutorService threadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-    private final int threads;
-    private final int lowerHeightLimit;
-    private final int upperHeightLimit;
+    protected final int threads;
+    protected final int radius;
+    protected final int lowerHeightLimit;
+    protected final int upperHeightLimit;
     private final BlockPos startPos;  // higher values
     private final BlockPos endPos;  // lower values
+    // the distances from the player at which each level of detail starts, ascending
+    private final int[] lodRings;
+    // null unless visibility culling is enabled, set before any chunk is exported
+    @Nullable
+    protected VisibilityMap visibility = null;
+    // the entities of each exported chunk, keyed by the chunk's start position (see BlockPos.asLong). They are taken on
+    // the main thread before any chunk is exported, since the world's entity lists may only be read there.
+    private final Map<Long, List<Entity>> chunkEntities = new ConcurrentHashMap<>();
+    // null unless faces are merged across chunks, set before any chunk is exported
+    @Nullable
+    RegionMerger regionMerger = null;
+    // only set while chunks are exported
+    @Nullable
+    private volatile ExportProgress progress = null;
+    // the first main thread task of an asynchronous export that failed
+    @Nullable
+    private volatile Throwable mainThreadError = null;
+    // set by cancel(), the workers stop at the next chunk once it is set
+    private volatile boolean cancelled = false;
     private AmbientOcclusionStatus preAO = mc.options.ambientOcclusion;
     private boolean preShadows = mc.options.entityShadows;
     private int currentX;
     private int currentZ;
 
     public Exporter(ClientPlayerEntity player, int radius, int lower, int upper, boolean optimizeMesh, boolean randomize, int threads) {
+        this(player, radius, lower, upper, optimizeMesh, randomize, threads, null);
+    }
+
+    // outputDir is the directory the export is written to, or null to write to a new directory for this export
+    public Exporter(ClientPlayerEntity player, int radius, int lower, int upper, boolean optimizeMesh, boolean randomize, int threads, @Nullable File outputDir) {
+        this((int) player.getX(), (int) player.getZ(), new BlockPos(player.getEyePosition(1.0F)), radius, lower, upper, optimizeMesh, randomize, threads, outputDir);
+    }
+
+    // centerX and centerZ are the block the export is centered on, and viewpoint the block it is viewed from. Both are
+    // the player's position for a new export.
+    protected Exporter(int centerX, int centerZ, BlockPos viewpoint, int radius, int lower, int upper, boolean optimizeMesh, boolean randomize, int threads, @Nullable File outputDir) {
         OptifineReflector.init();
+        baseDir = outputDir != null ? outputDir : new File(mc.gameDirectory, "worldexporter/worlddump" + java.time.LocalDateTime.now().toString().replace(':', '-'));
+        texturePath = new File(baseDir, TEXTURE_DIR);
         this.randomize = randomize;
         this.optimizeMesh = optimizeMesh;
         this.threads = threads;
+        this.radius = radius;
         lowerHeightLimit = lower;
         upperHeightLimit = upper;
-        playerX = (int) player.getX();
-        playerZ = (int) player.getZ();
+        playerX = centerX;
+        playerZ = centerZ;
+        this.viewpoint = viewpoint;
         playerXOffset = WorldExporterConfig.CLIENT.relativeCoordinates.get() ? playerX : 0;
         playerZOffset = WorldExporterConfig.CLIENT.relativeCoordinates.get() ? playerZ : 0;
         startPos = new BlockPos(playerX + radius, upperHeightLimit, playerZ + radius);
         endPos = new BlockPos(playerX - radius, lowerHeightLimit, playerZ - radius);
         currentX = startPos.getX();
         currentZ = startPos.getZ();
+        lodRings = WorldExporterConfig.CLIENT.lodRings.get().stream().mapToInt(Integer::intValue).sorted().limit(MAX_LOD_LEVEL).toArray();
     }
 
     public static boolean invalidGlId(int glTextureId) {
@@ -137,27 +201,17 @@ public class Exporter {
         }
     }
 
+    // keeps the first of each set of equivalent quads (see Quad.isEquivalentTo) in one pass using canonical quad keys
     protected static void removeDuplicateQuads(Collection<ArrayList<Quad>> quadsArrays) {
         for (ArrayList<Quad> quads : quadsArrays) {
-            Set<Integer> added = new HashSet<>();
-            ArrayList<Quad> uniqueQuads = new ArrayList<>();
-            for (int i = 0; i < quads.size(); ++i) {
-                if (added.contains(i)) {
-                    continue;
-                }
-
-                Quad q1 = quads.get(i);
-                uniqueQuads.add(q1);
-                added.add(i);
-
-                for (int j = i + 1; j < quads.size(); ++j) {
-                    if (added.contains(j)) {
-                        continue;
-                    }
-
-                    if (q1.isEquivalentTo(quads.get(j))) {
-                        added.add(j);  // treat the quad as already added since it is equivalent to one that has already been added
-                    }
+            Set<QuadKey> added = new HashSet<>();
+            // quads without a key are only equivalent to themselves
+            Set<Quad> addedWithoutKey = Collections.newSetFromMap(new IdentityHashMap<>());
+            ArrayList<Quad> uniqueQuads = new ArrayList<>(quads.size());
+            for (Quad quad : quads) {
+                QuadKey key = QuadKey.of(quad);
+                if (key != null ? added.add(key) : addedWithoutKey.add(quad)) {
+                    uniqueQuads.add(quad);
                 }
             }
 
@@ -219,69 +273,282 @@ public class Exporter {
         return texture;
     }
 
-    // required to change MC options for proper export rendering
+    // required to change MC options for proper export rendering, the options are only changed on the main thread
     public void setup() {
-        preAO = mc.options.ambientOcclusion;
-        preShadows = mc.options.entityShadows;
-        mc.options.ambientOcclusion = AmbientOcclusionStatus.OFF;
-        mc.options.entityShadows = false;
+        mc.executeBlocking(() -> {
+            preAO = mc.options.ambientOcclusion;
+            preShadows = mc.options.entityShadows;
+            mc.options.ambientOcclusion = AmbientOcclusionStatus.OFF;
+            mc.options.entityShadows = false;
+        });
     }
 
     // required to reset MC options related rendering
     public void finish() {
-        mc.options.ambientOcclusion = preAO;
-        mc.options.entityShadows = preShadows;
+        mc.executeBlocking(() -> {
+            mc.options.ambientOcclusion = preAO;
+            mc.options.entityShadows = preShadows;
+        });
+        try {
+            stats.writeReport(baseDir);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write the export statistics: ", e);
+        }
+    }
+
+    public ExportStats getStats() {
+        return stats;
     }
 
-    // this function MUST be run on the main thread
+    // this function MUST be run on the main thread, unless the export is asynchronous
     public void exportQuads(Consumer<ArrayList<ExportChunk>> chunkConsumer) throws InterruptedException {
-        boolean threaded = threads != 1;
-        List<Pair<BlockPos, BlockPos>> allChunks = getMultipleChunkPos(Integer.MAX_VALUE);
-        ArrayList<Runnable> tasks = new ArrayList<>();
-        ArrayList<List<Pair<BlockPos, BlockPos>>> chunkPartitions = new ArrayList<>();
-        int totalChunks = allChunks.size();
-        int partitionSize = totalChunks / threads;
-        if (totalChunks % threads != 0) partitionSize += 1;
-        // partitions the chunks that need to be exported into at most `threads` number of partitions
-        for (int i = 0; i < totalChunks; i += partitionSize) {
-            chunkPartitions.add(allChunks.subList(i, Math.min(i + partitionSize, totalChunks)));
+        // the export threads can't run on the main thread of an asynchronous export
+        boolean threaded = threads != 1 || async;
+        // the budget reserved by workers for each chunk is returned once the chunk has been consumed
+        Consumer<ArrayList<ExportChunk>> budgetedConsumer = chunks -> {
+            try {
+                chunks.forEach(chunk -> stats.add(ExportStats.Counter.QUADS_EXPORTED, chunk.quads.size()));
+                chunkConsumer.accept(chunks);
+            } finally {
+                chunks.forEach(budget::release);
+            }
+        };
+        List<Pair<BlockPos, BlockPos>> allChunks = prepareChunks(getMultipleChunkPos(Integer.MAX_VALUE));
+        int regionSize = getRegionSize();
+        if (regionSize > 1) {
+            regionMerger = new RegionMerger(this, regionSize, allChunks);
+            // chunks are handed out region by region, so that every region is completed soon after it is started
+            allChunks.sort(Comparator.comparingLong(regionMerger::getRegionKey));
         }
-        if (chunkPartitions.size() > threads) throw new RuntimeException("chunkPartition size mismatch");
-
-        for (List<Pair<BlockPos, BlockPos>> chunkPartition : chunkPartitions) {
-            tasks.add(new ExporterRunnable(this, chunkPartition, threaded, chunkConsumer, CHUNKS_PER_CONSUME));
+        // workers pull small batches of chunks from a shared queue, so the total work is balanced dynamically
+        // instead of each worker being bound to a fixed partition of the export
+        ChunkScheduler scheduler = new ChunkScheduler(allChunks, SCHEDULER_BATCH_SIZE);
+        int numThreads = Math.max(1, Math.min(threads, allChunks.size()));
+        ArrayList<ExporterRunnable> workers = new ArrayList<>();
+        for (int i = 0; i < numThreads; ++i) {
+            workers.add(new ExporterRunnable(this, scheduler, threaded, budgetedConsumer, CHUNKS_PER_CONSUME));
         }
+        progress = new ExportProgress(workers, scheduler.getTotalChunks());
 
-        if (threads == 1) {
+        long exportStart = System.nanoTime();
+        if (!threaded) {
             // basic single threaded export ran on the main thread
-            tasks.get(0).run();
+            workers.get(0).run();
         } else {
-            // create the given amount of threads (capped to number of tasks), and start a runnable on each thread
-            int numThreads = Math.min(threads, tasks.size());
+            // create the given amount of threads (capped to number of chunks), and start a runnable on each thread
             ExecutorService exporterThreadPool = Executors.newFixedThreadPool(numThreads);
             LOGGER.info("Exporter created " + numThreads + " threads");
-            tasks.forEach(exporterThreadPool::submit);
+            workers.forEach(exporterThreadPool::submit);
             exporterThreadPool.shutdown();
-            // wait in this loop to do tasks that are required to be run in the main thread, until threads are finished
-            while (!exporterThreadPool.isTerminated()) {
-                try {
-                    // poll here in time increments waiting for tasks; recheck if threads are done on timeout
-                    Runnable task = mainThreadTasks.poll(50, TimeUnit.MILLISECONDS);
+            if (async) {
+                // the main thread runs the tasks from the client tick instead, see runMainThreadTasks
+                //noinspection ResultOfMethodCallIgnored
+                exporterThreadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                // chunk tasks run in order, so every chunk queued by the threads has been consumed once this has run
+                runOnMainThread(() -> {
+                });
+            } else {
+                // wait in this loop to do tasks that are required to be run in the main thread, until threads are finished
+                // tasks that export threads are blocked on take priority over consuming finished chunks
+                while (!exporterThreadPool.isTerminated()) {
+                    try {
+                        Runnable task = mainThreadTasks.poll();
+                        if (task == null) task = chunkTasks.poll();
+                        // poll here in time increments waiting for tasks; recheck if threads are done on timeout
+                        if (task == null) task = mainThreadTasks.poll(5, TimeUnit.MILLISECONDS);
+                        if (task != null) task.run();
+                    } catch (InterruptedException ignored) {
+                    }
+                    updateProgress();
+                }
+
+                // clear out all left-over tasks, if any
+                for (Runnable task : mainThreadTasks) {
+                    if (task != null) task.run();
+                }
+                for (Runnable task : chunkTasks) {
                     if (task != null) task.run();
-                } catch (InterruptedException ignored) {
                 }
             }
-
-            // clear out all left-over tasks, if any
-            for (Runnable task : mainThreadTasks) {
-                if (task != null) task.run();
+        }
+        // the regions still held by a cancelled export are missing chunks that were never exported, and writing them
+        // would mark those chunks as done for checkpoints, so they are dropped (held chunks hold no budget)
+        if (regionMerger != null && !cancelled) {
+            ArrayList<ExportChunk> remaining = regionMerger.flush();
+            if (!remaining.isEmpty()) {
+                runOnMainThread(() -> budgetedConsumer.accept(remaining));
             }
         }
+        regionMerger = null;
+        progress = null;
+        logWorkerStats(workers, System.nanoTime() - exportStart, scheduler.getTotalChunks());
 
-        // finish any other tasks
+        // finish any other tasks, textures are still written after a cancellation since the output already refers to them
         threadPool.shutdown();
         //noinspection ResultOfMethodCallIgnored
         threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if (mainThreadError != null) {
+            throw new RuntimeException("A main thread task of the export failed", mainThreadError);
+        }
+    }
+
+    // Stops the export at the next chunk. The chunks exported so far are still written, so the output stays valid, and
+    // an OBJ export with checkpoints can be continued later. May be called from any thread.
+    public void cancel() {
+        if (cancelled) return;
+
+        cancelled = true;
+        LOGGER.info("Cancelling the export");
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // whether a checkpoint was left to continue the export from after it was cancelled or failed
+    public boolean canResume() {
+        return false;
+    }
+
+    // Runs the main thread tasks of an asynchronous export until there are none left or budgetNanos have passed.
+    // Must be called on the main thread, every client tick while the export runs.
+    public void runMainThreadTasks(long budgetNanos) {
+        long start = System.nanoTime();
+        do {
+            // tasks that export threads are blocked on take priority over consuming finished chunks
+            Runnable task = mainThreadTasks.poll();
+            if (task == null) task = chunkTasks.poll();
+            if (task == null) break;
+
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // the game keeps running, the export fails once its threads are done
+                LOGGER.error("A main thread task of the export failed: ", e);
+                if (mainThreadError == null) mainThreadError = e;
+            }
+        } while (System.nanoTime() - start < budgetNanos);
+        updateProgress();
+    }
+
+    // Runs task on the main thread and waits for it to finish. Only asynchronous exports run off the main thread, so
+    // the task is run right away otherwise.
+    private void runOnMainThread(Runnable task) throws InterruptedException {
+        runOnMainThread(Collections.singletonList(task));
+    }
+
+    // Runs the tasks on the main thread in order and waits for all of them to finish. They are queued at once, so that
+    // the main thread of an asynchronous export runs as many of them each tick as its budget allows.
+    private void runOnMainThread(List<Runnable> tasks) throws InterruptedException {
+        if (!async) {
+            tasks.forEach(Runnable::run);
+            return;
+        }
+
+        List<FutureTask<Void>> futures = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            FutureTask<Void> future = new FutureTask<>(task, null);
+            futures.add(future);
+            addChunkTask(future);
+        }
+        try {
+            for (FutureTask<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Computes the visibility, drops the chunks that shouldn't be exported and takes the entities of the others. The world
+    // is only read on the main thread for this, in small tasks that an asynchronous export spreads over several ticks.
+    private List<Pair<BlockPos, BlockPos>> prepareChunks(List<Pair<BlockPos, BlockPos>> allChunks) throws InterruptedException {
+        visibility = computeVisibility();
+
+        boolean entities = WorldExporterConfig.CLIENT.enableEntities.get();
+        boolean[] export = new boolean[allChunks.size()];
+        List<Runnable> batches = new ArrayList<>();
+        for (int batchStart = 0; batchStart < allChunks.size(); batchStart += PREPARE_BATCH_SIZE) {
+            int from = batchStart;
+            int to = Math.min(allChunks.size(), batchStart + PREPARE_BATCH_SIZE);
+            batches.add(() -> {
+                for (int i = from; i < to; ++i) {
+                    BlockPos start = allChunks.get(i).getLeft();
+                    BlockPos end = allChunks.get(i).getRight();
+                    export[i] = shouldExportChunk(start, end);
+                    // chunks with a lower level of detail are exported without their entities
+                    if (export[i] && entities && getLodLevel(start, end) == 0) {
+                        chunkEntities.put(start.asLong(), world.getEntities(null, new AxisAlignedBB(start, end)));
+                    }
+                }
+            });
+        }
+        runOnMainThread(batches);
+
+        List<Pair<BlockPos, BlockPos>> chunks = new ArrayList<>();
+        for (int i = 0; i < export.length; ++i) {
+            if (export[i]) chunks.add(allChunks.get(i));
+        }
+        return chunks;
+    }
+
+    // the entities of the chunk starting at start, taken before the export started, see prepareChunks
+    List<Entity> takeChunkEntities(BlockPos start) {
+        List<Entity> entities = chunkEntities.remove(start.asLong());
+        return entities != null ? entities : Collections.emptyList();
+    }
+
+    // the latest progress report, see ExportProgress
+    public String getProgressMessage() {
+        ExportProgress current = progress;
+        return current != null ? current.getMessage() : "The export is preparing or writing its output.";
+    }
+
+    // may only be called on the main thread
+    void updateProgress() {
+        if (progress != null) progress.update();
+    }
+
+    // Called on the main thread for every chunk (the blocks from start to end) before the export starts. Chunks for
+    // which this returns false are not exported.
+    protected boolean shouldExportChunk(BlockPos start, BlockPos end) {
+        return true;
+    }
+
+    // The number of chunks along each side of the regions whose faces are merged across chunk borders, or 1 to only
+    // merge faces within each chunk. Faces are only merged when optimizing meshes.
+    protected int getRegionSize() {
+        return optimizeMesh ? WorldExporterConfig.CLIENT.regionMergeSize.get() : 1;
+    }
+
+    // The opacity of the blocks is read on the main thread, one task per chunk column, and the volume is flooded on the
+    // calling thread afterwards
+    @Nullable
+    private VisibilityMap computeVisibility() throws InterruptedException {
+        WorldExporterConfig.VisibilityCulling culling = WorldExporterConfig.CLIENT.visibilityCulling.get();
+        if (culling == WorldExporterConfig.VisibilityCulling.OFF) return null;
+
+        long start = System.nanoTime();
+        VisibilityMap.OpacitySnapshot opacity = new VisibilityMap.OpacitySnapshot(world, startPos, endPos);
+        List<Runnable> columns = new ArrayList<>(opacity.getColumnCount());
+        for (int i = 0; i < opacity.getColumnCount(); ++i) {
+            int column = i;
+            columns.add(() -> opacity.loadColumn(column));
+        }
+        runOnMainThread(columns);
+        VisibilityMap map = VisibilityMap.compute(startPos, endPos, culling == WorldExporterConfig.VisibilityCulling.PLAYER ? viewpoint : null, opacity);
+        LOGGER.info("Found " + map.getReachedCount() + " visible cells in " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + "s");
+        return map;
+    }
+
+    private void logWorkerStats(List<ExporterRunnable> workers, long wallNanos, int totalChunks) {
+        LOGGER.info("Exported " + totalChunks + " chunks in " + String.format("%.2f", wallNanos / 1e9) + "s");
+        for (int i = 0; i < workers.size(); ++i) {
+            ExporterRunnable worker = workers.get(i);
+            long idleNanos = Math.max(0, wallNanos - worker.getWorkNanos());
+            LOGGER.info(String.format("Export worker %d: %d chunks processed, %.2fs busy, %.2fs idle",
+                    i, worker.getChunksProcessed(), worker.getWorkNanos() / 1e9, idleNanos / 1e9));
+        }
     }
 
     // Returns the facing directions that should be forcibly enabled (at the edge of the export) for a given BlockPos
@@ -302,6 +569,38 @@ public class Exporter {
         return bitSet;
     }
 
+    // The level of detail the chunk from start to end is exported at: the number of lodRings its center is beyond.
+    // Level 0 is full detail, see LodMesher for the others.
+    public int getLodLevel(BlockPos start, BlockPos end) {
+        double dx = (start.getX() + end.getX() + 1) / 2.0 - playerX;
+        double dz = (start.getZ() + end.getZ() + 1) / 2.0 - playerZ;
+        double distance = Math.sqrt(dx * dx + dz * dz);
+        int level = 0;
+        while (level < lodRings.length && distance >= lodRings[level]) {
+            ++level;
+        }
+        return level;
+    }
+
+    // the chunk position the chunk containing pos is exported with, which is relative to the player's chunk with relativeCoordinates
+    int getChunkX(BlockPos pos) {
+        return ExportChunk.chunkPos(pos.getX(), playerX, WorldExporterConfig.CLIENT.relativeCoordinates.get());
+    }
+
+    int getChunkZ(BlockPos pos) {
+        return ExportChunk.chunkPos(pos.getZ(), playerZ, WorldExporterConfig.CLIENT.relativeCoordinates.get());
+    }
+
+    // the corner of the export with the higher coordinates
+    BlockPos getStartPos() {
+        return startPos;
+    }
+
+    // the corner of the export with the lower coordinates
+    BlockPos getEndPos() {
+        return endPos;
+    }
+
     public synchronized boolean hasMoreData() {
         return currentX >= endPos.getX() && currentZ >= endPos.getZ();
     }
@@ -344,7 +643,12 @@ public class Exporter {
     // may only be called on the main thread
     public synchronized BufferedImage getAtlasImage(int glTextureId) {
         if (invalidGlId(glTextureId)) return null;
-        return atlasCacheMap.computeIfAbsent(glTextureId, Exporter::computeImage);
+        return atlasCacheMap.computeIfAbsent(glTextureId, id -> {
+            long start = System.nanoTime();
+            BufferedImage image = computeImage(id);
+            stats.addTime(ExportStats.Phase.TEXTURE_READBACK, System.nanoTime() - start);
+            return image;
+        });
     }
 
     // returns null if the provided ResourceLocation does not refer to an AtlasTexture
@@ -354,24 +658,28 @@ public class Exporter {
         if (!(texture instanceof AtlasTexture)) return null;
         AtlasTexture atlasTexture = (AtlasTexture) texture;
 
-        // Currently this is a memoized linear check over all an atlasTexture's TextureAtlasSprites to find
-        // which TextureAtlasSprite contains the given UVBounds
-        // If this is ever too slow a structure like a quadtree or spatial hashing could be used, but profiling shows this to be a non-issue
-        synchronized (atlasUVToSpriteCache) {
-            return atlasUVToSpriteCache.computeIfAbsent(Pair.of(resource, new UVBounds(uvBounds)), k -> {
-                for (ResourceLocation name : atlasTexture.texturesByName.keySet()) {
-                    TextureAtlasSprite sprite = atlasTexture.getSprite(name);
-                    float uMin = sprite.getU0();
-                    float uMax = sprite.getU1();
-                    float vMin = sprite.getV0();
-                    float vMax = sprite.getV1();
-                    if (uvBounds.uMin >= uMin && uvBounds.uMax <= uMax && uvBounds.vMin >= vMin && uvBounds.vMax <= vMax) {
-                        return Pair.of(name, sprite);
-                    }
-                }
-                return null;
-            });
+        // Memoized lookup of the TextureAtlasSprite that contains the given UVBounds. Cache hits never block, and a
+        // miss queries a quadtree over the atlas' sprites instead of checking every sprite. Concurrent misses for the
+        // same key may both query the index, which is harmless since they compute the same result.
+        Pair<ResourceLocation, UVBounds> key = Pair.of(resource, new UVBounds(uvBounds));
+        Optional<Pair<ResourceLocation, TextureAtlasSprite>> cached = atlasUVToSpriteCache.get(key);
+        if (cached == null) {
+            RectIndex<Pair<ResourceLocation, TextureAtlasSprite>> index = atlasSpriteIndexes.computeIfAbsent(atlasTexture, Exporter::buildSpriteIndex);
+            cached = Optional.ofNullable(index.findContaining(uvBounds.uMin, uvBounds.vMin, uvBounds.uMax, uvBounds.vMax));
+            atlasUVToSpriteCache.putIfAbsent(key, cached);
         }
+        return cached.orElse(null);
+    }
+
+    // built once per atlas per export. Sprites are added in the atlas' iteration order, so when sprites overlap the
+    // same one is found as by checking them in that order.
+    private static RectIndex<Pair<ResourceLocation, TextureAtlasSprite>> buildSpriteIndex(AtlasTexture atlasTexture) {
+        RectIndex.Builder<Pair<ResourceLocation, TextureAtlasSprite>> builder = new RectIndex.Builder<>();
+        for (ResourceLocation name : atlasTexture.texturesByName.keySet()) {
+            TextureAtlasSprite sprite = atlasTexture.getSprite(name);
+            builder.add(sprite.getU0(), sprite.getV0(), sprite.getU1(), sprite.getV1(), Pair.of(name, sprite));
+        }
+        return builder.build();
     }
 
     // may only be called on the main thread
@@ -537,10 +845,65 @@ public class Exporter {
     }
 
     protected void addTask(Runnable task) throws InterruptedException {
-        mainThreadTasks.put(task);
+        long queued = System.nanoTime();
+        mainThreadTasks.put(() -> {
+            long start = System.nanoTime();
+            stats.addTime(ExportStats.Phase.MAIN_THREAD_WAIT, start - queued);
+            stats.add(ExportStats.Counter.MAIN_THREAD_TASKS, 1);
+            task.run();
+            stats.addTime(ExportStats.Phase.MAIN_THREAD_TASKS, System.nanoTime() - start);
+        });
+    }
+
+    // Queues consumption of finished chunks on the main thread, separate from tasks that export threads wait on
+    protected void addChunkTask(Runnable task) {
+        chunkTasks.add(task);
+    }
+
+    protected Future<?> addThreadTask(Runnable task) {
+        return threadPool.submit(task);
+    }
+
+    protected void writeTexture(File outputFile, BufferedImage image) {
+        String outputFileStr = outputFile.toString();
+        int slashIndex = outputFileStr.lastIndexOf(File.separatorChar);
+        slashIndex = slashIndex != -1 ? slashIndex : outputFileStr.length();
+        String fullRelativeDirectory = outputFileStr.substring(0, slashIndex);  // substring end is exclusive
+
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(new File(fullRelativeDirectory).toPath());
+            long bytesWritten;
+            if (textureCache != null) {
+                bytesWritten = textureCache.write(image, outputFile);
+            } else {
+                ImageIO.write(image, "png", outputFile);
+                bytesWritten = outputFile.length();
+            }
+            stats.add(ExportStats.Counter.TEXTURES_WRITTEN, 1);
+            stats.add(ExportStats.Counter.BYTES_WRITTEN, bytesWritten);
+            stats.addTime(ExportStats.Phase.TEXTURE_WRITE, System.nanoTime() - start);
+        } catch (IOException e) {
+            LOGGER.error("Could not save resource texture: " + outputFile);
+        }
+    }
+
+    // returns null if the cache is disabled or can't be used
+    @Nullable
+    private static TextureCache createTextureCache(File directory) {
+        WorldExporterConfig.TextureCacheMode mode = WorldExporterConfig.CLIENT.textureCacheMode.get();
+        if (mode == WorldExporterConfig.TextureCacheMode.OFF) return null;
+
+        try {
+            long maxBytes = WorldExporterConfig.CLIENT.textureCacheSize.get() * 1024L * 1024L;
+            return new TextureCache(directory, maxBytes, mode == WorldExporterConfig.TextureCacheMode.LINK);
+        } catch (IOException e) {
+            LOGGER.error("Could not open the texture cache, textures will not be cached: ", e);
+            return null;
+        }
     }
 
-    protected void addThreadTask(Runnable task) {
-        threadPool.submit(task);
+    protected Future<?> writeTextureOnThread(File outputFile, BufferedImage image) {
+        return addThreadTask(() -> writeTexture(outputFile, image));
     }
 }
@@ -5,6 +5,8 @@ import bret.worldexporter.legacylwjgl.Vector2f;
 import bret.worldexporter.legacylwjgl.Vector3f;
 import bret.worldexporter.util.ReflectionHandler;
 import com.mojang.blaze3d.matrix.MatrixStack;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockRenderType;
 import net.minecraft.block.BlockState;
@@ -18,14 +20,12 @@ import net.minecraft.client.renderer.texture.*;
 import net.minecraft.client.renderer.tileentity.TileEntityRenderer;
 import net.minecraft.client.renderer.tileentity.TileEntityRendererDispatcher;
 import net.minecraft.client.renderer.vertex.VertexFormat;
-import net.minecraft.client.renderer.vertex.VertexFormatElement;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.fluid.Fluid;
 import net.minecraft.fluid.FluidState;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.ResourceLocation;
-import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.client.ForgeHooksClient;
@@ -54,7 +54,8 @@ class ExporterRunnable implements Runnable {
     private final Map<BlockPos, Integer> blockLightValuesMap = new HashMap<>();
     private final Map<RenderType, ResourceLocation> renderResourceLocationMap = new HashMap<>();
     private final CustomImpl impl;
-    private final Collection<Pair<BlockPos, BlockPos>> chunkBoundaries;
+    private final LodMesher lodMesher;
+    private final ChunkScheduler scheduler;
     private final boolean threaded;
     private final Exporter exporter;
     private final int chunksPerConsume;
@@ -69,16 +70,21 @@ class ExporterRunnable implements Runnable {
     private final boolean renderCutout;
     private final Map<net.minecraftforge.registries.IRegistryDelegate<Block>, java.util.function.Predicate<RenderType>> blockRenderChecks;
     private final Map<net.minecraftforge.registries.IRegistryDelegate<Fluid>, java.util.function.Predicate<RenderType>> fluidRenderChecks;
+    // written only by the thread running this runnable, read by the exporter for load balancing statistics and progress
+    private volatile int chunksProcessed = 0;
+    private volatile long quadsProcessed = 0;
+    private volatile long workNanos = 0;
 
     @SuppressWarnings("unchecked")
-    public ExporterRunnable(Exporter exporter, Collection<Pair<BlockPos, BlockPos>> chunkBoundaries,
+    public ExporterRunnable(Exporter exporter, ChunkScheduler scheduler,
                             boolean threaded, Consumer<ArrayList<ExportChunk>> chunkConsumer, int chunksPerConsume) {
         this.exporter = exporter;
-        this.chunkBoundaries = chunkBoundaries;
+        this.scheduler = scheduler;
         this.threaded = threaded;
         this.chunkConsumer = chunkConsumer;
         this.chunksPerConsume = chunksPerConsume;
         impl = new CustomImpl(this);
+        lodMesher = new LodMesher(exporter);
         renderCutout = Minecraft.useFancyGraphics();
 
         try {
@@ -99,38 +105,81 @@ class ExporterRunnable implements Runnable {
     @Override
     public void run() {
         try {
-            int processedChunks = 0;
-            for (Pair<BlockPos, BlockPos> startEnd : chunkBoundaries) {
-                ArrayList<Quad> chunkQuads = getNextChunkData(startEnd.getLeft(), startEnd.getRight());
-                int chunkX = startEnd.getLeft().getX() >> 4;
-                int chunkZ = startEnd.getLeft().getZ() >> 4;
-
-                if (WorldExporterConfig.CLIENT.relativeCoordinates.get()) {
-                    chunkX -= exporter.playerX >> 4;
-                    chunkZ -= exporter.playerZ >> 4;
-                }
-
-                this.resultChunks.add(new ExportChunk(chunkQuads, chunkX, chunkZ));
-                if (++processedChunks == chunksPerConsume) {
-                    processedChunks = 0;
-                    consumeChunks();
+            List<Pair<BlockPos, BlockPos>> batch;
+            // a cancelled export stops between chunks, the chunks rendered so far are still handed off below
+            while (!exporter.isCancelled() && !(batch = scheduler.nextBatch()).isEmpty()) {
+                for (Pair<BlockPos, BlockPos> startEnd : batch) {
+                    if (exporter.isCancelled()) break;
+
+                    long chunkStart = System.nanoTime();
+                    int lodLevel = exporter.getLodLevel(startEnd.getLeft(), startEnd.getRight());
+                    ArrayList<Quad> chunkQuads = lodLevel == 0 ? getNextChunkData(startEnd.getLeft(), startEnd.getRight())
+                            : getLodChunkData(startEnd.getLeft(), startEnd.getRight(), lodLevel);
+                    int chunkX = exporter.getChunkX(startEnd.getLeft());
+                    int chunkZ = exporter.getChunkZ(startEnd.getLeft());
+
+                    // the chunk may wait a while to be written, so it is packed and the Quad objects are dropped
+                    ExportChunk exportChunk = new ExportChunk(QuadBuffer.of(chunkQuads), chunkX, chunkZ, lodLevel);
+                    reserveBudget(exportChunk);
+                    this.resultChunks.add(exportChunk);
+                    if (resultChunks.size() >= chunksPerConsume) {
+                        consumeChunks();
+                    }
+                    ++chunksProcessed;
+                    quadsProcessed += exportChunk.quads.size();
+                    exporter.stats.add(ExportStats.Counter.CHUNKS, 1);
+                    workNanos += System.nanoTime() - chunkStart;
+                    if (!threaded) {
+                        // this runs on the main thread, which has no other chance to report progress
+                        exporter.updateProgress();
+                    }
                 }
             }
 
-            if (processedChunks > 0) {
+            if (!resultChunks.isEmpty()) {
+                long consumeStart = System.nanoTime();
                 consumeChunks();
+                workNanos += System.nanoTime() - consumeStart;
             }
         } catch (Throwable e) {
             LOGGER.error("ExporterRunnable crashed while exporting: ", e);
         }
     }
 
+    public int getChunksProcessed() {
+        return chunksProcessed;
+    }
+
+    public long getQuadsProcessed() {
+        return quadsProcessed;
+    }
+
+    // time spent exporting and handing off chunks, including waits on main thread fallbacks
+    public long getWorkNanos() {
+        return workNanos;
+    }
+
+    // Blocks until the export budget has room for the chunk. Chunks already buffered by this runnable are handed off
+    // first, otherwise every worker could end up waiting on budget that only its own unconsumed chunks are holding.
+    private void reserveBudget(ExportChunk exportChunk) throws InterruptedException {
+        if (exporter.budget.tryAcquire(exportChunk)) return;
+
+        if (!resultChunks.isEmpty()) {
+            consumeChunks();
+        }
+        exporter.budget.acquire(exportChunk);
+    }
+
     private void consumeChunks() {
-        ArrayList<ExportChunk> toConsume = resultChunks;
+        ArrayList<ExportChunk> chunks = resultChunks;
         resultChunks = new ArrayList<>();
         try {
+            // with regions, chunks are held until their region is complete and then handed on merged
+            ArrayList<ExportChunk> toConsume = exporter.regionMerger != null ? exporter.regionMerger.add(chunks) : chunks;
+            if (toConsume.isEmpty()) return;
+
             if (threaded) {
-                exporter.addTask(() -> chunkConsumer.accept(toConsume));
+                exporter.addChunkTask(() -> chunkConsumer.accept(toConsume));
             } else {
                 chunkConsumer.accept(toConsume);
             }
@@ -169,11 +218,16 @@ class ExporterRunnable implements Runnable {
         Random random = new Random();
         MatrixStack matrixStack = new MatrixStack();
         float partialTicks = Minecraft.getInstance().getFrameTime();
+        long blocksStart = System.nanoTime();
+        long tileEntityNanos = 0;
         for (BlockPos pos : BlockPos.betweenClosed(start, end)) {
             BlockState state = chunk.getBlockState(pos);
             if (state.getBlock().isAir(state, exporter.world, pos)) {
                 continue;
             }
+            if (exporter.visibility != null && !exporter.visibility.isVisible(pos)) {
+                continue;
+            }
 
             BlockPos immutablePos = pos.immutable();
             preBlock(immutablePos);
@@ -183,6 +237,7 @@ class ExporterRunnable implements Runnable {
             }
 
             if (state.hasTileEntity()) {
+                long tileEntityStart = System.nanoTime();
                 TileEntity tileentity = exporter.world.getChunkAt(pos).getBlockEntity(pos, Chunk.CreateEntityType.CHECK);
                 if (tileentity != null) {
                     TileEntityRenderer<TileEntity> tileEntityRenderer = TileEntityRendererDispatcher.instance.getRenderer(tileentity);
@@ -217,6 +272,7 @@ class ExporterRunnable implements Runnable {
                         ensureEmptyMatrixStack(matrixStack);
                     }
                 }
+                tileEntityNanos += System.nanoTime() - tileEntityStart;
             }
 
             // The rendering logic is roughly taken from ChunkRenderDispatcher.compile with multiple tweaks
@@ -257,12 +313,16 @@ class ExporterRunnable implements Runnable {
             ForgeHooksClient.setRenderLayer(null);
             postCountLayerVertices();
         }
+        exporter.stats.addTime(ExportStats.Phase.TILE_ENTITIES, tileEntityNanos);
+        long entitiesStart = System.nanoTime();
+        long blocksNanos = entitiesStart - blocksStart - tileEntityNanos;
 
         // export all entities within chunk
         if (WorldExporterConfig.CLIENT.enableEntities.get()) {
             boolean skipLiving = !WorldExporterConfig.CLIENT.enableLivingEntities.get();
-            for (Entity entity : exporter.world.getEntities(null, new AxisAlignedBB(start, end))) {
+            for (Entity entity : exporter.takeChunkEntities(start)) {
                 if (skipLiving && entity instanceof LivingEntity) continue;
+                if (exporter.visibility != null && !exporter.visibility.isVisible(entity.blockPosition())) continue;
 
                 preEntity(entity.getUUID());
                 matrixStack.pushPose();
@@ -298,7 +358,11 @@ class ExporterRunnable implements Runnable {
             }
         }
 
+        exporter.stats.addTime(ExportStats.Phase.ENTITIES, System.nanoTime() - entitiesStart);
+
         // finish all builders that were drawing and add the remaining data, if any
+        // the buffers are only decoded into quads here, which is counted as rendering the blocks
+        long decodeStart = System.nanoTime();
         impl.endBatch();
         updateQuadTextures();
 
@@ -311,21 +375,54 @@ class ExporterRunnable implements Runnable {
         // Minecraft uses a flipped V coordinate
         blockQuadsMap.values().forEach(Exporter::flipV);
         entityUUIDQuadsMap.values().forEach(Exporter::flipV);
+        blocksNanos += System.nanoTime() - decodeStart;
+        exporter.stats.addTime(ExportStats.Phase.BLOCKS, blocksNanos);
 
         // fix quad data issues such as overlapping/duplicate faces
+        long fixStart = System.nanoTime();
         fixOverlaps(blockQuadsMap.values());
         fixOverlaps(entityUUIDQuadsMap.values());
+        exporter.stats.addTime(ExportStats.Phase.FIX_OVERLAPS, System.nanoTime() - fixStart);
         blockQuadsMap.values().forEach(quads::addAll);
         entityUUIDQuadsMap.values().forEach(quads::addAll);
 
-        if (exporter.optimizeMesh) {
-            MeshOptimizer meshOptimizer = new MeshOptimizer();
-            quads = meshOptimizer.optimize(quads);
+        // regions are optimized as a whole once they are complete, see RegionMerger
+        if (exporter.optimizeMesh && exporter.regionMerger == null) {
+            quads = optimize(quads);
         }
 
         return quads;
     }
 
+    // Exports the chunk as the coarse mesh of its level of detail, see LodMesher. Tile entities and entities are left
+    // out, and the cells never overlap so the faces don't have to be fixed.
+    private ArrayList<Quad> getLodChunkData(BlockPos start, BlockPos end, int lodLevel) {
+        long lodStart = System.nanoTime();
+        reset();
+        ArrayList<Quad> quads = new ArrayList<>();
+        lodMesher.mesh(start, end, 1 << lodLevel, blockQuadsMap);
+        updateQuadTextures();
+        blockQuadsMap.values().forEach(Exporter::flipV);
+        blockQuadsMap.values().forEach(quads::addAll);
+        // the cells of a level of detail never duplicate each other
+        exporter.stats.add(ExportStats.Counter.QUADS_RENDERED, quads.size());
+        exporter.stats.add(ExportStats.Counter.QUADS_AFTER_DEDUPE, quads.size());
+        exporter.stats.addTime(ExportStats.Phase.LOD, System.nanoTime() - lodStart);
+
+        // regions are optimized as a whole once they are complete, see RegionMerger
+        if (exporter.optimizeMesh && exporter.regionMerger == null) {
+            quads = optimize(quads);
+        }
+        return quads;
+    }
+
+    private ArrayList<Quad> optimize(ArrayList<Quad> quads) {
+        long optimizeStart = System.nanoTime();
+        ArrayList<Quad> optimized = new MeshOptimizer().optimize(quads);
+        exporter.stats.addTime(ExportStats.Phase.MESH_OPTIMIZER, System.nanoTime() - optimizeStart);
+        return optimized;
+    }
+
     private void reset() {
         impl.resetAll();
         layerPosVertexCountsMap.clear();
@@ -336,82 +433,22 @@ class ExporterRunnable implements Runnable {
         blockLightValuesMap.clear();
     }
 
-    private void addVertices(ByteBuffer bytebuffer, List<VertexFormatElement> list, ArrayList<Quad> quadsList, RenderType type, int vertexStartIndex, int vertexCount) {
+    // Adds every complete quad of the vertexCount vertices starting at byte index vertexStartIndex to quadsList
+    private void addVertices(ByteBuffer bytebuffer, VertexFormat format, ArrayList<Quad> quadsList, RenderType type, int vertexStartIndex, int vertexCount) {
         ResourceLocation resource = renderResourceLocationMap.getOrDefault(type, MissingTextureSprite.getLocation());
-        Quad quad = new Quad(type, resource);
-        boolean skipQuad = false;
-        bytebuffer.position(vertexStartIndex);
-        for (int vertexNum = 0; vertexNum < vertexCount; ++vertexNum) {
-            if (skipQuad) {
-                vertexNum += 3 - (vertexNum - 1) % 4;
-                if (vertexNum >= vertexCount) break;
-                bytebuffer.position(bytebuffer.position() + (4 - ((vertexNum - 1) % 4)));
-                quad = new Quad(type, resource);
-                skipQuad = false;
-            } else if (quad.getCount() == 4) {
-                quadsList.add(quad);
-                quad = new Quad(type, resource);
-            }
-
-            Vertex vertex = new Vertex();
-            for (VertexFormatElement vertexFormatElement : list) {
-                VertexFormatElement.Usage vertexElementEnumUsage = vertexFormatElement.getUsage();
-                switch (vertexElementEnumUsage) {
-                    case POSITION:
-                        if (vertexFormatElement.getType() == VertexFormatElement.Type.FLOAT) {
-                            vertex.setPosition(new Vector3f(bytebuffer.getFloat(), bytebuffer.getFloat(), bytebuffer.getFloat()));
-                        } else {
-                            bytebuffer.position(bytebuffer.position() + vertexFormatElement.getByteSize());
-                            LOGGER.warn("Vertex position element had no supported type, skipping.");
-                        }
-                        break;
-                    case COLOR:
-                        if (vertexFormatElement.getType() == VertexFormatElement.Type.UBYTE) {
-                            vertex.setColor(bytebuffer.getInt());
-                        } else {
-                            bytebuffer.position(bytebuffer.position() + vertexFormatElement.getByteSize());
-                            LOGGER.warn("Vertex color element had no supported type, skipping.");
-                        }
-                        break;
-                    case UV:
-                        switch (vertexFormatElement.getIndex()) {
-                            case 0:  // ELEMENT_UV0 - texture coordinates - 2 float elements
-                                float u = bytebuffer.getFloat();
-                                float v = bytebuffer.getFloat();
-                                // Check for NaNs
-                                if (u != u || v != v) {
-                                    skipQuad = true;
-                                    LOGGER.warn("Quad being skipped since a vertex had a UV coordinate of NaN.");
-                                    break;
-                                }
-
-                                vertex.setUv(new Vector2f(u, v));
-                                break;
-                            case 2:  // ELEMENT_UV2 - lightmap coordinates - 2 short elements
-                                // TODO: ensure value / 16 / (2^16 - 1) gives proper 0-1 float range
-//                              //  Minecraft.getMinecraft().getTextureManager().getTexture(new ResourceLocation( "minecraft", "dynamic/lightmap_1"))
-//                              //  Discard first short (sky light) and only use second (block light) when implementing emissive lighting?
-//                                vertex.setUvlight(new Vector2f(bytebuffer.getShort() / 65520.0f, bytebuffer.getShort() / 65520.0f));
-//                                break;
-                            default:
-                                // case 1: ELEMENT_UV1 - not currently used, appears in formats like ENTITY
-                                bytebuffer.position(bytebuffer.position() + vertexFormatElement.getByteSize());
-                        }
-                        break;
-                    case PADDING:
-                    case NORMAL:
-                    default:
-                        bytebuffer.position(bytebuffer.position() + vertexFormatElement.getByteSize());
-                }
+        VertexDecoder decoder = VertexDecoder.of(format);
+        int vertexSize = decoder.getVertexSize();
+        for (int vertexNum = 0; vertexNum + 4 <= vertexCount; vertexNum += 4) {
+            int quadStart = vertexStartIndex + vertexNum * vertexSize;
+            if (decoder.hasNaNUv(bytebuffer, quadStart, 4)) {
+                LOGGER.warn("Quad being skipped since a vertex had a UV coordinate of NaN.");
+                continue;
             }
 
-            if (!skipQuad) {
-                quad.addVertex(vertex);
+            Quad quad = new Quad(type, resource);
+            for (int i = 0; i < 4; ++i) {
+                quad.addVertex(decoder.decode(bytebuffer, quadStart + i * vertexSize));
             }
-        }
-
-        // add the last quad
-        if (quad.getCount() == 4 && !skipQuad) {
             quadsList.add(quad);
         }
     }
@@ -469,7 +506,7 @@ class ExporterRunnable implements Runnable {
             int firstVertexBytePos = verticesPosCount.getLeft() * type.format().getVertexSize();
             int vertexCount = verticesPosCount.getRight();
             ArrayList<Quad> quadsList = blockQuadsMap.computeIfAbsent(pos, k -> new ArrayList<>());
-            addVertices(bytebuffer, type.format().getElements(), quadsList, type, firstVertexBytePos, vertexCount);
+            addVertices(bytebuffer, type.format(), quadsList, type, firstVertexBytePos, vertexCount);
         }
 
         for (UUID uuid : layerUUIDVertexCountsMap.getOrDefault(type, Collections.emptyMap()).keySet()) {
@@ -477,7 +514,7 @@ class ExporterRunnable implements Runnable {
             int firstVertexBytePos = verticesPosCount.getLeft() * type.format().getVertexSize();
             int vertexCount = verticesPosCount.getRight();
             ArrayList<Quad> quadsList = entityUUIDQuadsMap.computeIfAbsent(uuid, k -> new ArrayList<>());
-            addVertices(bytebuffer, type.format().getElements(), quadsList, type, firstVertexBytePos, vertexCount);
+            addVertices(bytebuffer, type.format(), quadsList, type, firstVertexBytePos, vertexCount);
         }
 
         bufferBuilder.discard();
@@ -517,7 +554,7 @@ class ExporterRunnable implements Runnable {
             return;
         }
 
-        addVertices(bytebuffer, drawState.format().getElements(), quadList, impl.lastState.orElse(null), 0, drawState.vertexCount());
+        addVertices(bytebuffer, drawState.format(), quadList, impl.lastState.orElse(null), 0, drawState.vertexCount());
         impl.builder.discard();
     }
 
@@ -582,7 +619,9 @@ class ExporterRunnable implements Runnable {
 
     // update any quads that overlap by translating by a small multiple of their normal
     protected void fixOverlaps(Collection<ArrayList<Quad>> quadsArrays) {
+        exporter.stats.add(ExportStats.Counter.QUADS_RENDERED, quadsArrays.stream().mapToInt(ArrayList::size).sum());
         Exporter.removeDuplicateQuads(quadsArrays);
+        exporter.stats.add(ExportStats.Counter.QUADS_AFTER_DEDUPE, quadsArrays.stream().mapToInt(ArrayList::size).sum());
 
         boolean fallbackSort;
         if (threaded) {
@@ -605,7 +644,12 @@ class ExporterRunnable implements Runnable {
             quadsArrays.forEach(quads -> exporter.sortQuads(quads, threaded));
         }
 
+        float overlapDistance = WorldExporterConfig.CLIENT.overlapDistance.get().floatValue();
+        IntArrayList overlapIndices = new IntArrayList();
+        FloatArrayList overlapDistances = new FloatArrayList();
         for (ArrayList<Quad> quads : quadsArrays) {
+            // only quads on nearby planes are compared, instead of every pair of quads in the list
+            QuadOverlapIndex overlapIndex = new QuadOverlapIndex(quads, overlapDistance);
             Set<Integer> toCheck = new HashSet<>();
             for (int i = 0, size = quads.size(); i < size; ++i) {
                 toCheck.add(i);
@@ -614,27 +658,17 @@ class ExporterRunnable implements Runnable {
             while (reCheck) {
                 Set<Integer> newToCheck = new HashSet<>();
                 for (int quadIndex : toCheck) {
-                    Quad first = quads.get(quadIndex);
-                    ArrayList<Pair<Integer, Float>> overlapsWithFirst = new ArrayList<>();
-                    for (int j = quadIndex + 1; j < quads.size(); ++j) {
-                        float overlapDistance = first.overlaps(quads.get(j));
-                        if (overlapDistance != Float.POSITIVE_INFINITY) {
-                            overlapsWithFirst.add(Pair.of(j, overlapDistance));
-                        }
-                    }
-
-                    if (overlapsWithFirst.isEmpty()) {
-                        continue;
-                    }
+                    overlapIndices.clear();
+                    overlapDistances.clear();
+                    overlapIndex.findOverlaps(quadIndex, overlapIndices, overlapDistances);
 
-                    for (Pair<Integer, Float> quadIndexDistance : overlapsWithFirst) {
-                        int overlapQuad = quadIndexDistance.getLeft();
-                        float distance = quadIndexDistance.getRight();
-                        Quad toOffset = quads.get(overlapQuad);
+                    for (int i = 0; i < overlapIndices.size(); ++i) {
+                        int overlapQuad = overlapIndices.getInt(i);
+                        float distance = overlapDistances.getFloat(i);
                         // scale the toOffset quad such that it is overlapDistance away from the other quad
-                        float scaleDistance = WorldExporterConfig.CLIENT.overlapDistance.get().floatValue() - distance;
-                        Vector3f posTranslate = (Vector3f) toOffset.getNormal().scale(scaleDistance);
-                        toOffset.translate(posTranslate);
+                        float scaleDistance = overlapDistance - distance;
+                        Vector3f posTranslate = (Vector3f) overlapIndex.getNormal(overlapQuad).scale(scaleDistance);
+                        overlapIndex.translate(overlapQuad, posTranslate);
                         newToCheck.add(overlapQuad);
                     }
                 }
@@ -0,0 +1,373 @@
+package bret.worldexporter;
+
+import bret.worldexporter.util.PackedFloatIntMap;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static bret.worldexporter.Exporter.LOGGER;
+
+// Encodes exported chunks into glTF buffer data on a pool of threads and streams it, in submission order, to a
+// temporary binary file on a single writer thread. Only the small JSON description of each chunk (buffer views,
+// accessors, one mesh and node per chunk) is kept in memory. close() assembles the final binary glTF (.glb) file.
+// Each chunk has one interleaved float32 position/uv vertex buffer shared by one uint32 indexed primitive per material.
+public class GltfChunkSerializer {
+    private static final int MAX_PENDING_CHUNKS = 32;
+    private static final Future<EncodedChunk> END = CompletableFuture.completedFuture(null);
+    private static final int VERTEX_STRIDE = 20;  // vec3 position + vec2 uv, as float32
+    private static final int FLOAT = 5126;
+    private static final int UNSIGNED_INT = 5125;
+    private static final int ARRAY_BUFFER = 34962;
+    private static final int ELEMENT_ARRAY_BUFFER = 34963;
+    private static final int TRIANGLES = 4;
+    private static final int GLB_MAGIC = 0x46546C67;  // "glTF"
+    private static final int GLB_CHUNK_JSON = 0x4E4F534A;  // "JSON"
+    private static final int GLB_CHUNK_BIN = 0x004E4942;  // "BIN"
+    private static final long GLB_MAX_LENGTH = 0xFFFFFFFFL;
+    private final ExecutorService formatPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final ArrayBlockingQueue<Future<EncodedChunk>> pending = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+    private final Thread writerThread = new Thread(this::writeLoop, "WorldExporter glTF writer");
+    private final File glbFile;
+    private final File binFile;
+    private final OutputStream binStream;
+    private final JsonArray bufferViews = new JsonArray();
+    private final JsonArray accessors = new JsonArray();
+    private final JsonArray meshes = new JsonArray();
+    private final JsonArray nodes = new JsonArray();
+    private long binLength = 0;
+    private volatile Throwable writeError = null;
+    private boolean closed = false;
+
+    public GltfChunkSerializer(File glbFile) throws IOException {
+        this.glbFile = glbFile;
+        this.binFile = new File(glbFile.getPath() + ".bin.tmp");
+        this.binStream = new BufferedOutputStream(new FileOutputStream(binFile), 32 << 20);  // 32 MB buffer
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Queues a chunk to be encoded and written. materials[i] is the glTF material index used by every quad (an index
+    // into chunk.quads) in materialQuads.get(i). The chunk must not be modified afterwards. Blocks if too many chunks are pending.
+    public void submit(ExportChunk chunk, int[] materials, List<IntArrayList> materialQuads) throws IOException, InterruptedException {
+        if (writeError != null) {
+            throw new IOException("A previous chunk could not be written to the glTF buffer", writeError);
+        }
+        pending.put(formatPool.submit(() -> encode(chunk, materials, materialQuads)));
+    }
+
+    // Waits for every submitted chunk to be written, then writes the .glb file from the streamed buffer and the given
+    // root object (which should already hold the materials, textures, images and samplers).
+    // Returns false if any chunk or the .glb file could not be written.
+    public boolean close(JsonObject root) {
+        if (closed) return writeError == null;
+        closed = true;
+
+        try {
+            pending.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            writerThread.interrupt();
+            writeError = e;
+        }
+        formatPool.shutdown();
+
+        try {
+            binStream.close();
+            if (writeError == null) {
+                writeGlb(root);
+            }
+        } catch (IOException e) {
+            writeError = e;
+        } finally {
+            if (!binFile.delete()) {
+                LOGGER.warn("Could not delete the temporary glTF buffer file: " + binFile);
+            }
+        }
+
+        if (writeError != null) {
+            LOGGER.error("Unable to write the glTF file: ", writeError);
+        }
+        return writeError == null;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Future<EncodedChunk> future;
+            try {
+                future = pending.take();
+            } catch (InterruptedException e) {
+                writeError = e;
+                return;
+            }
+            if (future == END) return;
+
+            // after a failure the remaining chunks are still drained so that submit() never blocks forever
+            if (writeError != null) continue;
+            try {
+                write(future.get());
+            } catch (Throwable e) {
+                writeError = e;
+            }
+        }
+    }
+
+    // runs on the format pool
+    private EncodedChunk encode(ExportChunk chunk, int[] materials, List<IntArrayList> materialQuads) {
+        QuadBuffer buffer = chunk.quads;
+        int quadCount = 0;
+        for (IntArrayList quads : materialQuads) {
+            quadCount += quads.size();
+        }
+
+        // a glTF vertex is a unique (position, uv) pair, so positions and uvs are numbered first and the pair of
+        // numbers is the vertex key
+        PackedFloatIntMap positions = new PackedFloatIntMap(quadCount * 2);
+        PackedFloatIntMap uvs = new PackedFloatIntMap(quadCount);
+        Long2IntOpenHashMap vertices = new Long2IntOpenHashMap(quadCount * 2);
+        vertices.defaultReturnValue(-1);
+        FloatArrayList vertexData = new FloatArrayList(quadCount * 2 * 5);
+        float[] bounds = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        List<int[]> indices = new ArrayList<>(materialQuads.size());
+        int[] quadVertices = new int[4];
+        for (IntArrayList quads : materialQuads) {
+            // two triangles per quad, keeping the quad's counter-clockwise winding
+            int[] primitiveIndices = new int[quads.size() * 6];
+            int index = 0;
+            for (int q = 0; q < quads.size(); ++q) {
+                int quad = quads.getInt(q);
+                boolean hasUV = buffer.hasUV(quad);
+                for (int i = 0; i < 4; ++i) {
+                    float x = buffer.getX(quad, i), y = buffer.getY(quad, i), z = buffer.getZ(quad, i);
+                    int positionId = positions.get(x, y, z);
+                    if (positionId == 0) {
+                        positionId = positions.size() + 1;
+                        positions.put(x, y, z, positionId);
+                    }
+
+                    // quads without a uv share uv number 0 (texture coordinates of 0, 0)
+                    int uvId = 0;
+                    float u = 0.0f;
+                    float v = 0.0f;
+                    if (hasUV) {
+                        u = buffer.getU(quad, i);
+                        v = 1.0f - buffer.getV(quad, i);  // quad uvs are flipped for OBJ, glTF uses a top left uv origin
+                        uvId = uvs.get(u, v);
+                        if (uvId == 0) {
+                            uvId = uvs.size() + 1;
+                            uvs.put(u, v, uvId);
+                        }
+                    }
+
+                    long key = ((long) positionId << 32) | uvId;
+                    int vertexIndex = vertices.get(key);
+                    if (vertexIndex == -1) {
+                        vertexIndex = vertices.size();
+                        vertices.put(key, vertexIndex);
+                        vertexData.add(x);
+                        vertexData.add(y);
+                        vertexData.add(z);
+                        vertexData.add(u);
+                        vertexData.add(v);
+                        bounds[0] = Math.min(bounds[0], x);
+                        bounds[1] = Math.min(bounds[1], y);
+                        bounds[2] = Math.min(bounds[2], z);
+                        bounds[3] = Math.max(bounds[3], x);
+                        bounds[4] = Math.max(bounds[4], y);
+                        bounds[5] = Math.max(bounds[5], z);
+                    }
+                    quadVertices[i] = vertexIndex;
+                }
+
+                primitiveIndices[index++] = quadVertices[0];
+                primitiveIndices[index++] = quadVertices[1];
+                primitiveIndices[index++] = quadVertices[2];
+                primitiveIndices[index++] = quadVertices[0];
+                primitiveIndices[index++] = quadVertices[2];
+                primitiveIndices[index++] = quadVertices[3];
+            }
+            indices.add(primitiveIndices);
+        }
+
+        int vertexCount = vertices.size();
+        ByteBuffer data = ByteBuffer.allocate(vertexCount * VERTEX_STRIDE + quadCount * 6 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        data.asFloatBuffer().put(vertexData.elements(), 0, vertexData.size());
+        data.position(vertexCount * VERTEX_STRIDE);
+        for (int[] primitiveIndices : indices) {
+            for (int index : primitiveIndices) {
+                data.putInt(index);
+            }
+        }
+        return new EncodedChunk(chunk.getName(), materials, indices, vertexCount, bounds, data.array());
+    }
+
+    // runs on the writer thread
+    private void write(EncodedChunk chunk) throws IOException {
+        if (chunk.vertexCount == 0) return;
+
+        long offset = binLength;
+        binStream.write(chunk.data);
+        binLength += chunk.data.length;
+
+        int vertexView = addBufferView(offset, (long) chunk.vertexCount * VERTEX_STRIDE, VERTEX_STRIDE, ARRAY_BUFFER);
+        JsonObject attributes = new JsonObject();
+        attributes.addProperty("POSITION", addAccessor(vertexView, 0, FLOAT, chunk.vertexCount, "VEC3",
+                Arrays.copyOfRange(chunk.bounds, 0, 3), Arrays.copyOfRange(chunk.bounds, 3, 6)));
+        attributes.addProperty("TEXCOORD_0", addAccessor(vertexView, 12, FLOAT, chunk.vertexCount, "VEC2", null, null));
+        offset += (long) chunk.vertexCount * VERTEX_STRIDE;
+
+        JsonArray primitives = new JsonArray();
+        for (int m = 0; m < chunk.materials.length; ++m) {
+            int indexCount = chunk.indices.get(m).length;
+            if (indexCount == 0) continue;
+
+            int indexView = addBufferView(offset, indexCount * 4L, 0, ELEMENT_ARRAY_BUFFER);
+            offset += indexCount * 4L;
+            JsonObject primitive = new JsonObject();
+            primitive.add("attributes", attributes);
+            primitive.addProperty("indices", addAccessor(indexView, 0, UNSIGNED_INT, indexCount, "SCALAR", null, null));
+            primitive.addProperty("material", chunk.materials[m]);
+            primitive.addProperty("mode", TRIANGLES);
+            primitives.add(primitive);
+        }
+
+        String name = chunk.name;
+        JsonObject mesh = new JsonObject();
+        mesh.addProperty("name", name);
+        mesh.add("primitives", primitives);
+        meshes.add(mesh);
+        JsonObject node = new JsonObject();
+        node.addProperty("name", name);
+        node.addProperty("mesh", meshes.size() - 1);
+        nodes.add(node);
+    }
+
+    private int addBufferView(long byteOffset, long byteLength, int byteStride, int target) {
+        JsonObject bufferView = new JsonObject();
+        bufferView.addProperty("buffer", 0);
+        bufferView.addProperty("byteOffset", byteOffset);
+        bufferView.addProperty("byteLength", byteLength);
+        if (byteStride != 0) {
+            bufferView.addProperty("byteStride", byteStride);
+        }
+        bufferView.addProperty("target", target);
+        bufferViews.add(bufferView);
+        return bufferViews.size() - 1;
+    }
+
+    private int addAccessor(int bufferView, int byteOffset, int componentType, int count, String type, float[] min, float[] max) {
+        JsonObject accessor = new JsonObject();
+        accessor.addProperty("bufferView", bufferView);
+        accessor.addProperty("byteOffset", byteOffset);
+        accessor.addProperty("componentType", componentType);
+        accessor.addProperty("count", count);
+        accessor.addProperty("type", type);
+        if (min != null && max != null) {
+            accessor.add("min", toJsonArray(min));
+            accessor.add("max", toJsonArray(max));
+        }
+        accessors.add(accessor);
+        return accessors.size() - 1;
+    }
+
+    private static JsonArray toJsonArray(float[] values) {
+        JsonArray array = new JsonArray();
+        for (float value : values) {
+            array.add(value);
+        }
+        return array;
+    }
+
+    private void writeGlb(JsonObject root) throws IOException {
+        JsonObject asset = new JsonObject();
+        asset.addProperty("version", "2.0");
+        asset.addProperty("generator", WorldExporter.MODID);
+        root.add("asset", asset);
+
+        JsonObject scene = new JsonObject();
+        if (nodes.size() > 0) {
+            JsonArray sceneNodes = new JsonArray();
+            for (int i = 0; i < nodes.size(); ++i) {
+                sceneNodes.add(i);
+            }
+            scene.add("nodes", sceneNodes);
+            root.add("nodes", nodes);
+            root.add("meshes", meshes);
+            root.add("accessors", accessors);
+            root.add("bufferViews", bufferViews);
+        }
+        JsonArray scenes = new JsonArray();
+        scenes.add(scene);
+        root.add("scenes", scenes);
+        root.addProperty("scene", 0);
+        if (binLength > 0) {
+            JsonObject buffer = new JsonObject();
+            buffer.addProperty("byteLength", binLength);
+            JsonArray buffers = new JsonArray();
+            buffers.add(buffer);
+            root.add("buffers", buffers);
+        }
+
+        // both glb chunks must be padded to 4 bytes, the json chunk with spaces and the binary chunk with zeros
+        byte[] json = new Gson().toJson(root).getBytes(StandardCharsets.UTF_8);
+        int jsonPadding = (4 - json.length % 4) % 4;
+        int binPadding = (int) ((4 - binLength % 4) % 4);
+        long jsonChunkLength = json.length + jsonPadding;
+        long binChunkLength = binLength + binPadding;
+        long totalLength = 12 + 8 + jsonChunkLength + (binLength > 0 ? 8 + binChunkLength : 0);
+        if (totalLength > GLB_MAX_LENGTH) {
+            throw new IOException("The export is " + totalLength + " bytes, which is larger than the 4 GB limit of a .glb file." +
+                    " Export a smaller area or use the OBJ export format");
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(glbFile), 32 << 20)) {
+            ByteBuffer header = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(GLB_MAGIC).putInt(2).putInt((int) totalLength);
+            header.putInt((int) jsonChunkLength).putInt(GLB_CHUNK_JSON);
+            out.write(header.array());
+            out.write(json);
+            for (int i = 0; i < jsonPadding; ++i) {
+                out.write(' ');
+            }
+
+            if (binLength > 0) {
+                ByteBuffer binHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                binHeader.putInt((int) binChunkLength).putInt(GLB_CHUNK_BIN);
+                out.write(binHeader.array());
+                Files.copy(binFile.toPath(), out);
+                out.write(new byte[binPadding]);
+            }
+        }
+    }
+
+    private static class EncodedChunk {
+        private final String name;
+        private final int[] materials;
+        private final List<int[]> indices;
+        private final int vertexCount;
+        private final float[] bounds;  // min x, y, z followed by max x, y, z
+        // the interleaved vertices followed by the indices of each primitive, little endian
+        private final byte[] data;
+
+        private EncodedChunk(String name, int[] materials, List<int[]> indices, int vertexCount, float[] bounds, byte[] data) {
+            this.name = name;
+            this.materials = materials;
+            this.indices = indices;
+            this.vertexCount = vertexCount;
+            this.bounds = bounds;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package bret.worldexporter;
+
+import bret.worldexporter.config.WorldExporterConfig;
+import bret.worldexporter.util.ImgUtils;
+import bret.worldexporter.util.LABPBRParser;
+import bret.worldexporter.util.OptifineReflector;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.client.entity.player.ClientPlayerEntity;
+import net.minecraft.util.ResourceLocation;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Exports to a binary glTF 2.0 (.glb) file with metallic-roughness PBR materials. Textures are written next to the
+// .glb file (in the same texture directory as OBJ exports) and referenced by uri.
+public class GltfExporter extends Exporter {
+    private static final int NEAREST = 9728;
+    private static final int REPEAT = 10497;
+    private final JsonArray materials = new JsonArray();
+    private final JsonArray textures = new JsonArray();
+    private final JsonArray images = new JsonArray();
+    private final Map<Triple<ResourceLocation, Integer, Integer>, Integer> modelToMaterialMap = new HashMap<>();
+    private final Map<Pair<Integer, Integer>, Integer> colorLightToMaterialMap = new HashMap<>();
+    // texture index of the normal map for a resource, or -1 if it has none
+    private final Map<ResourceLocation, Integer> resourceToNormalMap = new HashMap<>();
+    private final Map<ResourceLocation, JsonObject> resourceToMetallicRoughnessMap = new HashMap<>();
+
+    public GltfExporter(ClientPlayerEntity player, int radius, int lower, int upper, boolean optimizeMesh, boolean randomize, int threads) {
+        super(player, radius, lower, upper, optimizeMesh, randomize, threads);
+    }
+
+    public boolean export(String baseFilename) throws IOException {
+        setup();
+        Files.createDirectories(texturePath.toPath());
+        boolean success = true;
+
+        // encoding and writing the buffers happens off the main thread, which only resolves materials and textures
+        File glbFile = new File(baseDir, baseFilename + ".glb");
+        GltfChunkSerializer serializer = new GltfChunkSerializer(glbFile);
+        try {
+            Consumer<ArrayList<ExportChunk>> chunkConsumer = (exportChunks) -> {
+                for (ExportChunk exportChunk : exportChunks) {
+                    try {
+                        writeChunk(exportChunk, serializer);
+                    } catch (Exception e) {
+                        LOGGER.error("Unable to write chunk to the glTF file: ", e);
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            exportQuads(chunkConsumer);
+        } catch (InterruptedException e) {
+            success = false;
+        } finally {
+            // the binary chunks are only assembled into the .glb file here
+            long writeStart = System.nanoTime();
+            success &= serializer.close(getRoot());
+            stats.addTime(ExportStats.Phase.GEOMETRY_WRITE, System.nanoTime() - writeStart);
+            stats.add(ExportStats.Counter.BYTES_WRITTEN, glbFile.length());
+        }
+
+        finish();
+        return success;
+    }
+
+    private JsonObject getRoot() {
+        JsonObject root = new JsonObject();
+        if (materials.size() > 0) {
+            root.add("materials", materials);
+        }
+        if (textures.size() > 0) {
+            // nearest filtering keeps the pixelated look of Minecraft's textures
+            JsonObject sampler = new JsonObject();
+            sampler.addProperty("magFilter", NEAREST);
+            sampler.addProperty("minFilter", NEAREST);
+            sampler.addProperty("wrapS", REPEAT);
+            sampler.addProperty("wrapT", REPEAT);
+            JsonArray samplers = new JsonArray();
+            samplers.add(sampler);
+            root.add("samplers", samplers);
+            root.add("textures", textures);
+            root.add("images", images);
+        }
+        return root;
+    }
+
+    // Resolves the material of every quad in the chunk (writing new materials and their textures), then hands the
+    // quads grouped by material to the serializer. This needs the main thread since textures are read from OpenGL.
+    private void writeChunk(ExportChunk exportChunk, GltfChunkSerializer serializer) throws IOException, InterruptedException {
+        QuadBuffer quads = exportChunk.quads;
+        // every quad of a chunk material uses the same glTF material, so each one only has to be resolved once
+        int[] chunkMaterials = new int[quads.getMaterialCount()];
+        for (int i = 0; i < chunkMaterials.length; ++i) {
+            chunkMaterials[i] = getMaterial(quads.getMaterialQuad(i));
+        }
+
+        Map<Integer, IntArrayList> quadsForMaterial = new LinkedHashMap<>();
+        for (int i = 0; i < quads.size(); ++i) {
+            int material = chunkMaterials[quads.getMaterial(i)];
+            if (material == -1) {
+                continue;
+            }
+
+            IntArrayList materialQuads = quadsForMaterial.get(material);
+            if (materialQuads == null) {
+                materialQuads = new IntArrayList();
+                quadsForMaterial.put(material, materialQuads);
+            }
+            materialQuads.add(i);
+        }
+
+        int[] materialIndices = new int[quadsForMaterial.size()];
+        int i = 0;
+        for (int material : quadsForMaterial.keySet()) {
+            materialIndices[i++] = material;
+        }
+        serializer.submit(exportChunk, materialIndices, new ArrayList<>(quadsForMaterial.values()));
+    }
+
+    // returns the index of the quad's material, adding it first if it is new, or -1 if the quad's faces should be skipped
+    private int getMaterial(Quad quad) {
+        if (quad.hasUV()) {
+            Triple<ResourceLocation, Integer, Integer> model = Triple.of(quad.getResource(), quad.getColor(), quad.getLightValue());
+            Integer existing = modelToMaterialMap.get(model);
+            if (existing == null) {
+                existing = addTexturedMaterial(quad);
+                modelToMaterialMap.put(model, existing);
+            }
+            return existing;
+        }
+
+        int color = quad.getColor();
+        if ((color & 0xFF000000) == 0 && !WorldExporterConfig.CLIENT.outputInvisibleFaces.get()) {
+            LOGGER.warn("Skipped color-only face because it was completely transparent with color: " + Integer.toHexString(color));
+            return -1;
+        }
+
+        Pair<Integer, Integer> colorModel = Pair.of(color, quad.getLightValue());
+        Integer existing = colorLightToMaterialMap.get(colorModel);
+        if (existing == null) {
+            existing = addColorMaterial(color, quad.getLightValue());
+            colorLightToMaterialMap.put(colorModel, existing);
+        }
+        return existing;
+    }
+
+    // returns the index of the new material, or -1 if the quad's faces should be skipped
+    private int addTexturedMaterial(Quad quad) {
+        BufferedImage image = getImage(quad);
+        if (image == null) {
+            LOGGER.warn("Skipped face with texture: " + quad.getResource() + " because Image was null");
+            return -1;
+        }
+        if (!WorldExporterConfig.CLIENT.outputInvisibleFaces.get() && ImgUtils.isCompletelyTransparent(image)) {
+            LOGGER.info("Skipped face with texture: " + quad.getResource() + " because Image was completely transparent");
+            return -1;
+        }
+
+        ResourceLocation quadResource = quad.getResource();
+        int materialIndex = materials.size();
+        String modelName = quadResource.toString().replaceAll("[^a-zA-Z0-9.-]", "-") + '_' + materialIndex;
+        JsonObject material = new JsonObject();
+        material.addProperty("name", modelName);
+        JsonObject pbr = new JsonObject();
+        pbr.add("baseColorTexture", textureInfo(addTexture(modelName + ".png", image)));
+        // minecraft materials are matte unless a resource pack says otherwise
+        pbr.addProperty("metallicFactor", 0.0f);
+        pbr.addProperty("roughnessFactor", 1.0f);
+        addAlphaMode(material, image);
+
+        SpecularData sd = null;
+        if (OptifineReflector.validOptifine) {
+            // glTF expects OpenGL style normal maps and perceptual roughness
+            Integer normalTexture = resourceToNormalMap.get(quadResource);
+            if (normalTexture == null) {
+                normalTexture = -1;
+                NormalData nd = getNormalData(quad, true);
+                if (nd != null) {
+                    BufferedImage normal = LABPBRParser.getNormalImage(nd.x, nd.y, nd.z, nd.cols_width);
+                    if (LABPBRParser.hasNonDefaultNormal(normal)) {
+                        normalTexture = addTexture(modelName + "_n.png", normal);
+                    }
+                }
+                resourceToNormalMap.put(quadResource, normalTexture);
+            }
+            if (normalTexture != -1) {
+                JsonObject normalInfo = textureInfo(normalTexture);
+                normalInfo.addProperty("scale", WorldExporterConfig.CLIENT.normalStrength.get());
+                material.add("normalTexture", normalInfo);
+            }
+
+            sd = getSpecularData(quad, true);
+            JsonObject metallicRoughness = resourceToMetallicRoughnessMap.get(quadResource);
+            if (metallicRoughness == null && sd != null) {
+                metallicRoughness = getMetallicRoughness(sd, modelName);
+                resourceToMetallicRoughnessMap.put(quadResource, metallicRoughness);
+            }
+            if (metallicRoughness != null) {
+                metallicRoughness.entrySet().forEach(entry -> pbr.add(entry.getKey(), entry.getValue()));
+            }
+        }
+        material.add("pbrMetallicRoughness", pbr);
+
+        // same emissive source priority as the OBJ exporter: the resource pack's emissive map, then the light value
+        BufferedImage emissive = null;
+        if (sd != null && LABPBRParser.hasEmissive(sd.emissiveness)) {
+            if (WorldExporterConfig.CLIENT.squareEmissivity.get()) {
+                for (int i = 0; i < sd.emissiveness.length; ++i) {
+                    sd.emissiveness[i] *= sd.emissiveness[i];
+                }
+            }
+            emissive = ImgUtils.scaleRgb(image, sd.emissiveness);
+        } else if (quad.getLightValue() != 0 && (sd == null || !WorldExporterConfig.CLIENT.forceResourceEmissivity.get())) {
+            float[] strength = new float[image.getWidth() * image.getHeight()];
+            Arrays.fill(strength, getLightStrength(quad.getLightValue()));
+            emissive = ImgUtils.scaleRgb(image, strength);
+        }
+        if (emissive != null) {
+            material.add("emissiveTexture", textureInfo(addTexture(modelName + "_e.png", emissive)));
+            material.add("emissiveFactor", toJsonArray(1.0f, 1.0f, 1.0f));
+        }
+
+        materials.add(material);
+        return materialIndex;
+    }
+
+    // color-only quads use material factors instead of a 1x1 texture
+    private int addColorMaterial(int color, int light) {
+        int materialIndex = materials.size();
+        // quad colors are packed ABGR, glTF color factors are linear
+        float r = srgbToLinear(color & 0xFF);
+        float g = srgbToLinear((color >>> 8) & 0xFF);
+        float b = srgbToLinear((color >>> 16) & 0xFF);
+        float a = (color >>> 24) / 255.0f;
+
+        JsonObject material = new JsonObject();
+        material.addProperty("name", "colorABGR_" + Integer.toHexString(color) + (light == 0 ? "" : "_light_" + light) + '_' + materialIndex);
+        JsonObject pbr = new JsonObject();
+        pbr.add("baseColorFactor", toJsonArray(r, g, b, a));
+        pbr.addProperty("metallicFactor", 0.0f);
+        pbr.addProperty("roughnessFactor", 1.0f);
+        material.add("pbrMetallicRoughness", pbr);
+        if (a < 1.0f) {
+            material.addProperty("alphaMode", "BLEND");
+        }
+        if (light != 0) {
+            float strength = getLightStrength(light);
+            material.add("emissiveFactor", toJsonArray(r * strength, g * strength, b * strength));
+        }
+
+        materials.add(material);
+        return materialIndex;
+    }
+
+    // uniform maps become factors unless forceOutputUniformMaps is set, otherwise both are packed into one texture
+    private JsonObject getMetallicRoughness(SpecularData sd, String modelName) {
+        JsonObject metallicRoughness = new JsonObject();
+        if (!WorldExporterConfig.CLIENT.forceOutputUniformMaps.get()
+                && LABPBRParser.isUniform(sd.metallic)
+                && LABPBRParser.isUniform(sd.roughness)) {
+            metallicRoughness.addProperty("metallicFactor", sd.metallic[0]);
+            metallicRoughness.addProperty("roughnessFactor", sd.roughness[0]);
+        } else {
+            BufferedImage image = LABPBRParser.getMetallicRoughnessImage(sd.metallic, sd.roughness, sd.cols_width);
+            metallicRoughness.add("metallicRoughnessTexture", textureInfo(addTexture(modelName + "_mr.png", image)));
+            metallicRoughness.addProperty("metallicFactor", 1.0f);
+            metallicRoughness.addProperty("roughnessFactor", 1.0f);
+        }
+        return metallicRoughness;
+    }
+
+    // fully transparent pixels (cutout textures) can use a mask, anything in between needs blending
+    private static void addAlphaMode(JsonObject material, BufferedImage image) {
+        if (!ImgUtils.imageHasTransparency(image)) return;
+
+        if (ImgUtils.imageHasPartialTransparency(image)) {
+            material.addProperty("alphaMode", "BLEND");
+        } else {
+            material.addProperty("alphaMode", "MASK");
+            material.addProperty("alphaCutoff", 0.5f);
+        }
+    }
+
+    private int addTexture(String subpath, BufferedImage image) {
+        writeTextureOnThread(new File(texturePath, subpath), image);
+        JsonObject imageObject = new JsonObject();
+        imageObject.addProperty("uri", TEXTURE_DIR + '/' + subpath);
+        images.add(imageObject);
+
+        JsonObject texture = new JsonObject();
+        texture.addProperty("sampler", 0);
+        texture.addProperty("source", images.size() - 1);
+        textures.add(texture);
+        return textures.size() - 1;
+    }
+
+    private static JsonObject textureInfo(int textureIndex) {
+        JsonObject info = new JsonObject();
+        info.addProperty("index", textureIndex);
+        return info;
+    }
+
+    // the [0, 1] emissive strength of a light value, matching the OBJ exporter's emissive tint
+    private static float getLightStrength(int light) {
+        int lightValue = Math.max(0, Math.min(255, light * 17));
+        lightValue = WorldExporterConfig.CLIENT.squareEmissivity.get() ? (lightValue * lightValue) / 255 : lightValue;
+        return lightValue / 255.0f;
+    }
+
+    private static float srgbToLinear(int value) {
+        float c = value / 255.0f;
+        return c <= 0.04045f ? c / 12.92f : (float) Math.pow((c + 0.055f) / 1.055f, 2.4f);
+    }
+
+    private static JsonArray toJsonArray(float... values) {
+        JsonArray array = new JsonArray();
+        for (float value : values) {
+            array.add(value);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,213 @@
+package bret.worldexporter;
+
+import bret.worldexporter.legacylwjgl.Vector2f;
+import bret.worldexporter.legacylwjgl.Vector3f;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.FlowingFluidBlock;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.RenderTypeLookup;
+import net.minecraft.client.renderer.model.BakedQuad;
+import net.minecraft.client.renderer.model.IBakedModel;
+import net.minecraft.client.renderer.texture.TextureAtlasSprite;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.client.model.data.EmptyModelData;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.*;
+
+// Builds the coarse mesh of a chunk exported at a level of detail above 0. The chunk is split into cubic cells of
+// cellSize blocks (aligned to multiples of cellSize), and a cell is filled if at least half of its blocks are solid or
+// fluid. Each filled cell is drawn as a box with the faces that border an empty cell, textured with the block that
+// makes up most of the cell's top surface. Cells are clipped to the export area.
+// Not thread safe, each ExporterRunnable has its own.
+class LodMesher {
+    // the corners of each face (indexed by Direction.get3DDataValue) as offsets to the min (0) or max (1) corner of the
+    // cell, in the same order as Minecraft's block faces so that the uvs below map the same way
+    private static final int[][][] FACE_CORNERS = {
+            {{0, 0, 1}, {0, 0, 0}, {1, 0, 0}, {1, 0, 1}},  // DOWN
+            {{0, 1, 0}, {0, 1, 1}, {1, 1, 1}, {1, 1, 0}},  // UP
+            {{1, 1, 0}, {1, 0, 0}, {0, 0, 0}, {0, 1, 0}},  // NORTH
+            {{0, 1, 1}, {0, 0, 1}, {1, 0, 1}, {1, 1, 1}},  // SOUTH
+            {{0, 1, 0}, {0, 0, 0}, {0, 0, 1}, {0, 1, 1}},  // WEST
+            {{1, 1, 1}, {1, 0, 1}, {1, 0, 0}, {1, 1, 0}}   // EAST
+    };
+    private final Exporter exporter;
+    private final Map<Pair<BlockState, Direction>, FaceTexture> faceTextures = new HashMap<>();
+    private final Random random = new Random();
+    private final BlockPos.Mutable pos = new BlockPos.Mutable();
+
+    LodMesher(Exporter exporter) {
+        this.exporter = exporter;
+    }
+
+    // Adds the faces of every filled cell of the chunk from start to end to cellQuads, keyed by the cell's min corner
+    void mesh(BlockPos start, BlockPos end, int cellSize, Map<BlockPos, ArrayList<Quad>> cellQuads) {
+        int minCellX = Math.floorDiv(end.getX(), cellSize), maxCellX = Math.floorDiv(start.getX(), cellSize);
+        int minCellY = Math.floorDiv(end.getY(), cellSize), maxCellY = Math.floorDiv(start.getY(), cellSize);
+        int minCellZ = Math.floorDiv(end.getZ(), cellSize), maxCellZ = Math.floorDiv(start.getZ(), cellSize);
+        int sizeX = maxCellX - minCellX + 1, sizeY = maxCellY - minCellY + 1, sizeZ = maxCellZ - minCellZ + 1;
+        // the dominant top surface block of each cell of the chunk, null if the cell is empty
+        BlockState[] cells = new BlockState[sizeX * sizeY * sizeZ];
+        for (int x = 0; x < sizeX; ++x) {
+            for (int y = 0; y < sizeY; ++y) {
+                for (int z = 0; z < sizeZ; ++z) {
+                    cells[(x * sizeY + y) * sizeZ + z] = sample(minCellX + x, minCellY + y, minCellZ + z, cellSize, true);
+                }
+            }
+        }
+
+        for (int x = 0; x < sizeX; ++x) {
+            for (int y = 0; y < sizeY; ++y) {
+                for (int z = 0; z < sizeZ; ++z) {
+                    BlockState state = cells[(x * sizeY + y) * sizeZ + z];
+                    if (state == null) continue;
+
+                    int cellX = minCellX + x, cellY = minCellY + y, cellZ = minCellZ + z;
+                    ArrayList<Quad> quads = new ArrayList<>();
+                    for (Direction direction : Direction.values()) {
+                        int nx = x + direction.getStepX(), ny = y + direction.getStepY(), nz = z + direction.getStepZ();
+                        boolean neighborFilled;
+                        if (nx >= 0 && nx < sizeX && ny >= 0 && ny < sizeY && nz >= 0 && nz < sizeZ) {
+                            neighborFilled = cells[(nx * sizeY + ny) * sizeZ + nz] != null;
+                        } else {
+                            // in a neighboring chunk, which may be exported at another level of detail
+                            neighborFilled = sample(minCellX + nx, minCellY + ny, minCellZ + nz, cellSize, false) != null;
+                        }
+                        if (!neighborFilled) {
+                            quads.add(createFace(state, direction, cellX, cellY, cellZ, cellSize));
+                        }
+                    }
+                    if (!quads.isEmpty()) {
+                        cellQuads.put(new BlockPos(cellX * cellSize, cellY * cellSize, cellZ * cellSize), quads);
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns null if the cell is empty or outside of the export. Otherwise returns the block making up most of the
+    // cell's top surface if findDominant is true, or any block of the cell if it isn't.
+    private BlockState sample(int cellX, int cellY, int cellZ, int cellSize, boolean findDominant) {
+        BlockPos exportMin = exporter.getEndPos(), exportMax = exporter.getStartPos();
+        int minX = Math.max(cellX * cellSize, exportMin.getX()), maxX = Math.min(cellX * cellSize + cellSize - 1, exportMax.getX());
+        int minY = Math.max(cellY * cellSize, exportMin.getY()), maxY = Math.min(cellY * cellSize + cellSize - 1, exportMax.getY());
+        int minZ = Math.max(cellZ * cellSize, exportMin.getZ()), maxZ = Math.min(cellZ * cellSize + cellSize - 1, exportMax.getZ());
+        if (minX > maxX || minY > maxY || minZ > maxZ) return null;
+
+        int volume = (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        int filled = 0, checked = 0;
+        BlockState any = null;
+        Map<BlockState, Integer> topCounts = findDominant ? new LinkedHashMap<>() : null;
+        for (int x = minX; x <= maxX; ++x) {
+            for (int z = minZ; z <= maxZ; ++z) {
+                boolean foundTop = false;
+                for (int y = maxY; y >= minY; --y) {
+                    BlockState state = exporter.world.getBlockState(pos.set(x, y, z));
+                    ++checked;
+                    if (!isFilled(state)) continue;
+
+                    ++filled;
+                    any = state;
+                    if (findDominant && !foundTop) {
+                        foundTop = true;
+                        topCounts.merge(state, 1, Integer::sum);
+                    }
+                }
+                // only whether the cell is filled matters, which may already be decided
+                if (!findDominant && (filled * 2 >= volume || (filled + volume - checked) * 2 < volume)) {
+                    return filled * 2 >= volume ? any : null;
+                }
+            }
+        }
+        if (filled * 2 < volume) return null;
+        if (!findDominant) return any;
+
+        BlockState dominant = null;
+        int dominantCount = 0;
+        for (Map.Entry<BlockState, Integer> entry : topCounts.entrySet()) {
+            if (entry.getValue() > dominantCount) {
+                dominant = entry.getKey();
+                dominantCount = entry.getValue();
+            }
+        }
+        return dominant;
+    }
+
+    private static boolean isFilled(BlockState state) {
+        return state.getMaterial().blocksMotion() || state.getBlock() instanceof FlowingFluidBlock;
+    }
+
+    private Quad createFace(BlockState state, Direction direction, int cellX, int cellY, int cellZ, int cellSize) {
+        BlockPos exportMin = exporter.getEndPos(), exportMax = exporter.getStartPos();
+        // block bounds of the (clipped) cell, the max bound is exclusive
+        int[] min = {Math.max(cellX * cellSize, exportMin.getX()), Math.max(cellY * cellSize, exportMin.getY()), Math.max(cellZ * cellSize, exportMin.getZ())};
+        int[] max = {Math.min(cellX * cellSize + cellSize, exportMax.getX() + 1), Math.min(cellY * cellSize + cellSize, exportMax.getY() + 1),
+                Math.min(cellZ * cellSize + cellSize, exportMax.getZ() + 1)};
+
+        FaceTexture texture = getFaceTexture(state, direction);
+        TextureAtlasSprite sprite = texture.sprite;
+        BlockPos representative = new BlockPos(min[0], min[1], min[2]);
+        int color = -1;
+        if (texture.tintIndex != -1) {
+            int rgb = exporter.mc.getBlockColors().getColor(state, exporter.world, representative, texture.tintIndex);
+            if (rgb != -1) {
+                // vertex colors are packed ABGR
+                color = 0xFF000000 | (rgb & 0xFF) << 16 | (rgb & 0xFF00) | (rgb >> 16) & 0xFF;
+            }
+        }
+
+        Quad quad = new Quad(texture.renderType, sprite.atlas().location());
+        int[][] corners = FACE_CORNERS[direction.get3DDataValue()];
+        for (int i = 0; i < 4; ++i) {
+            Vertex vertex = new Vertex();
+            int[] corner = corners[i];
+            vertex.setPosition(new Vector3f((corner[0] == 0 ? min[0] : max[0]) - exporter.playerXOffset, corner[1] == 0 ? min[1] : max[1],
+                    (corner[2] == 0 ? min[2] : max[2]) - exporter.playerZOffset));
+            vertex.setUv(new Vector2f(i < 2 ? sprite.getU0() : sprite.getU1(), i == 0 || i == 3 ? sprite.getV0() : sprite.getV1()));
+            vertex.setColor(color);
+            quad.addVertex(vertex);
+        }
+        quad.setLightValue(state.getLightValue(exporter.world, representative));
+        return quad;
+    }
+
+    // the sprite of the block model's face in direction (falling back to its particle sprite) and its tint
+    private FaceTexture getFaceTexture(BlockState state, Direction direction) {
+        Pair<BlockState, Direction> key = Pair.of(state, direction);
+        FaceTexture texture = faceTextures.get(key);
+        if (texture != null) return texture;
+
+        boolean fluid = state.getBlock() instanceof FlowingFluidBlock;
+        IBakedModel model = Minecraft.getInstance().getBlockRenderer().getBlockModel(state);
+        random.setSeed(42L);
+        List<BakedQuad> quads = model.getQuads(state, direction, random, EmptyModelData.INSTANCE);
+        if (quads.isEmpty()) {
+            random.setSeed(42L);
+            quads = model.getQuads(state, null, random, EmptyModelData.INSTANCE);
+        }
+        RenderType renderType = fluid ? RenderTypeLookup.getRenderLayer(state.getFluidState()) : RenderTypeLookup.getChunkRenderType(state);
+        if (fluid || quads.isEmpty()) {
+            // fluids are colored by their block colors, like the FluidBlockRenderer does
+            texture = new FaceTexture(model.getParticleIcon(EmptyModelData.INSTANCE), fluid ? 0 : -1, renderType);
+        } else {
+            BakedQuad quad = quads.get(0);
+            texture = new FaceTexture(quad.getSprite(), quad.isTinted() ? quad.getTintIndex() : -1, renderType);
+        }
+        faceTextures.put(key, texture);
+        return texture;
+    }
+
+    private static class FaceTexture {
+        private final TextureAtlasSprite sprite;
+        private final int tintIndex;  // -1 if untinted
+        private final RenderType renderType;
+
+        private FaceTexture(TextureAtlasSprite sprite, int tintIndex, RenderType renderType) {
+            this.sprite = sprite;
+            this.tintIndex = tintIndex;
+            this.renderType = renderType;
+        }
+    }
+}
@@ -1,17 +1,37 @@
 package bret.worldexporter;
 
+import bret.worldexporter.config.WorldExporterConfig;
 import bret.worldexporter.legacylwjgl.Vector2f;
 import bret.worldexporter.legacylwjgl.Vector3f;
+import org.apache.commons.lang3.tuple.Pair;
 
+import javax.annotation.Nullable;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static bret.worldexporter.Exporter.LOGGER;
 import static java.lang.Math.round;
 
+// Thread safe, every group of quads is optimized with its own state
 public class MeshOptimizer {
     private final static int ROUND_BITS = 2;
+    private static final float GRID_EPSILON = 0.0001f;
+    // greedy slices spread over more grid cells than this are left to the pairwise merging instead of allocating a huge mask
+    private static final int MAX_MASK_CELLS = 1 << 16;
+    // groups are only optimized in parallel for at least this many quads, smaller chunks aren't worth the overhead while
+    // the export workers already run in parallel
+    private static final int PARALLEL_MIN_QUADS = 8192;
     private static final Comparator<Quad> quadComparator = getQuadComparator();
-    private final Map<Edge, List<Quad>> edgeQuadsMap = new HashMap<>();
+    private final boolean greedyMeshing;
+
+    public MeshOptimizer() {
+        this(WorldExporterConfig.CLIENT.greedyMeshing.get());
+    }
+
+    public MeshOptimizer(boolean greedyMeshing) {
+        this.greedyMeshing = greedyMeshing;
+    }
 
     // returns true if a quad can be tiled for mesh optimization
     private static boolean canTile(Quad quad) {
@@ -72,13 +92,18 @@ public class MeshOptimizer {
     }
 
     // Overall approach: Loop through all quads, considering only the quads which are eligible
-    // First, break the quads into non-overlapping subsets of quads where each quad in a subset
+    // With greedy meshing, the quads that are whole grid faces (see GridFace) are merged by meshSlice first.
+    // Break the remaining quads into non-overlapping subsets of quads where each quad in a subset
     // has the same texture, uv coordinates, and face normal. Then, optimize each subset by
     // merging quads that share an edge by adding the UV coordinate difference to the resulting quad UV's
     // and merging the proper position vertices.
+    // Slices and subsets are independent of each other, so large amounts of them are optimized in parallel. The result
+    // is the same either way: the groups are kept in the order of their first quad.
     public ArrayList<Quad> optimize(List<Quad> quads) {
-        Map<SubsetKey, TreeSet<Quad>> subSets = new HashMap<>();
+        Map<SubsetKey, TreeSet<Quad>> subSets = new LinkedHashMap<>();
+        Map<SliceKey, List<GridFace>> slices = new LinkedHashMap<>();
         ArrayList<Quad> optimizedQuads = new ArrayList<>();
+        List<Quad> remaining = new ArrayList<>();
         for (Quad quad : quads) {
             if (!canTile(quad)) {
                 // quad will not be considered for tiling/mesh optimization
@@ -86,22 +111,111 @@ public class MeshOptimizer {
                 continue;
             }
 
+            GridFace face = greedyMeshing ? GridFace.of(quad) : null;
+            if (face != null) {
+                slices.computeIfAbsent(new SliceKey(new SubsetKey(quad), face), k -> new ArrayList<>()).add(face);
+            } else {
+                remaining.add(quad);
+            }
+        }
+        boolean parallel = quads.size() >= PARALLEL_MIN_QUADS;
+        List<Pair<List<Quad>, List<Quad>>> meshedSlices = optimizeGroups(new ArrayList<>(slices.values()), parallel, slice -> {
+            List<Quad> merged = new ArrayList<>();
+            List<Quad> leftover = new ArrayList<>();
+            meshSlice(slice, merged, leftover);
+            return Pair.of(merged, leftover);
+        });
+        for (Pair<List<Quad>, List<Quad>> meshedSlice : meshedSlices) {
+            optimizedQuads.addAll(meshedSlice.getLeft());
+            remaining.addAll(meshedSlice.getRight());
+        }
+
+        for (Quad quad : remaining) {
             SubsetKey key = new SubsetKey(quad);
             subSets.computeIfAbsent(key, k -> new TreeSet<>(quadComparator)).add(quad);
         }
 
-        for (Set<Quad> quadSubset : subSets.values()) {
-            populateEdges(quadSubset);
-            optimizeSubset(quadSubset);
-            optimizedQuads.addAll(quadSubset);
-            edgeQuadsMap.clear();
-        }
+        List<TreeSet<Quad>> optimizedSubsets = optimizeGroups(new ArrayList<>(subSets.values()), parallel, quadSubset -> {
+            Map<Edge, List<Quad>> edgeQuadsMap = new HashMap<>();
+            populateEdges(quadSubset, edgeQuadsMap);
+            optimizeSubset(quadSubset, edgeQuadsMap);
+            return quadSubset;
+        });
+        optimizedSubsets.forEach(optimizedQuads::addAll);
 
         return optimizedQuads;
     }
 
+    // Applies optimizer to every group, on the common ForkJoinPool if parallel. The results are in the order of the groups.
+    private static <T, R> List<R> optimizeGroups(List<T> groups, boolean parallel, Function<T, R> optimizer) {
+        if (!parallel || groups.size() < 2) {
+            return groups.stream().map(optimizer).collect(Collectors.toList());
+        }
+        return groups.parallelStream().map(optimizer).collect(Collectors.toList());
+    }
+
+    // Greedy meshing of the faces of one slice: the faces are laid out in a 2D mask of their grid cells, which is
+    // covered row by row with rectangles that are as wide and then as tall as possible. Each rectangle becomes one
+    // stretched face in optimizedQuads. Faces that can't be placed in a mask are added to remaining instead.
+    private static void meshSlice(List<GridFace> slice, List<Quad> optimizedQuads, List<Quad> remaining) {
+        int minA = Integer.MAX_VALUE, minB = Integer.MAX_VALUE, maxA = Integer.MIN_VALUE, maxB = Integer.MIN_VALUE;
+        for (GridFace face : slice) {
+            minA = Math.min(minA, face.cellA);
+            minB = Math.min(minB, face.cellB);
+            maxA = Math.max(maxA, face.cellA);
+            maxB = Math.max(maxB, face.cellB);
+        }
+        long width = (long) maxA - minA + 1, height = (long) maxB - minB + 1;
+        if (width * height > MAX_MASK_CELLS) {
+            slice.forEach(face -> remaining.add(face.quad));
+            return;
+        }
+
+        GridFace[] mask = new GridFace[(int) (width * height)];
+        for (GridFace face : slice) {
+            int index = (int) ((face.cellB - minB) * width + face.cellA - minA);
+            if (mask[index] == null) {
+                mask[index] = face;
+            } else {
+                // duplicate face in the same place
+                remaining.add(face.quad);
+            }
+        }
+
+        int w = (int) width, h = (int) height;
+        for (int b = 0; b < h; ++b) {
+            for (int a = 0; a < w; ) {
+                GridFace face = mask[b * w + a];
+                if (face == null) {
+                    ++a;
+                    continue;
+                }
+
+                int rectWidth = 1;
+                while (a + rectWidth < w && mask[b * w + a + rectWidth] != null) {
+                    ++rectWidth;
+                }
+                int rectHeight = 1;
+                growHeight:
+                while (b + rectHeight < h) {
+                    for (int i = 0; i < rectWidth; ++i) {
+                        if (mask[(b + rectHeight) * w + a + i] == null) break growHeight;
+                    }
+                    ++rectHeight;
+                }
+                for (int j = 0; j < rectHeight; ++j) {
+                    Arrays.fill(mask, (b + j) * w + a, (b + j) * w + a + rectWidth, null);
+                }
+
+                face.stretch(rectWidth, rectHeight);
+                optimizedQuads.add(face.quad);
+                a += rectWidth;
+            }
+        }
+    }
+
     // Modifies the provided Set by updating it to contain merged quads equivalent to the provided ones
-    private void optimizeSubset(Set<Quad> quadSubset) {
+    private static void optimizeSubset(Set<Quad> quadSubset, Map<Edge, List<Quad>> edgeQuadsMap) {
         if (quadSubset.size() <= 1) return;
 
         Set<Quad> reAdd = new HashSet<>();
@@ -110,7 +224,7 @@ public class MeshOptimizer {
         do {
             // update state for each quad that was merged last iteration
             quadSubset.addAll(reAdd);
-            reAdd.forEach(this::addEdges);
+            reAdd.forEach(quad -> addEdges(quad, edgeQuadsMap));
             reAdd.clear();
             skip.clear();
             didMerge = false;
@@ -130,8 +244,8 @@ public class MeshOptimizer {
                         // at this point, the quads must be merge-able, so merge them and update optimizer state
                         didMerge = true;
                         skipEdges = true;
-                        removeEdges(quad);
-                        removeEdges(quad2);
+                        removeEdges(quad, edgeQuadsMap);
+                        removeEdges(quad2, edgeQuadsMap);
                         skip.add(quad2);
                         iter.remove();  // set modification only allowed here using iterator
                         merge(quad, quad2, edge);
@@ -149,7 +263,7 @@ public class MeshOptimizer {
     // Merges quad1 and quad2 such that quad1 will contain the combined quad created by eliminating
     // their shared vertices (contained within the provided edge). quad2 remains unmodified
     // The quads must have approximately equal UV values in the same vertex ordering for this to be valid
-    private void merge(Quad quad1, Quad quad2, Edge edge) {
+    private static void merge(Quad quad1, Quad quad2, Edge edge) {
         Vector3f edgeVec = Vector3f.sub(edge.p2, edge.p1, null);
         Vertex[] q1Vertices = quad1.getVertices();
         Vertex[] q2Vertices = quad2.getVertices();
@@ -184,11 +298,11 @@ public class MeshOptimizer {
         quad1.updateUvBounds();
     }
 
-    private void populateEdges(Collection<Quad> quads) {
-        quads.forEach(this::addEdges);
+    private static void populateEdges(Collection<Quad> quads, Map<Edge, List<Quad>> edgeQuadsMap) {
+        quads.forEach(quad -> addEdges(quad, edgeQuadsMap));
     }
 
-    private void removeEdges(Quad quad) {
+    private static void removeEdges(Quad quad, Map<Edge, List<Quad>> edgeQuadsMap) {
         for (Edge edge : getEdges(quad)) {
             List<Quad> quadsForEdge = edgeQuadsMap.get(edge);
             if (quadsForEdge != null) {
@@ -198,7 +312,7 @@ public class MeshOptimizer {
         }
     }
 
-    private void addEdges(Quad quad) {
+    private static void addEdges(Quad quad, Map<Edge, List<Quad>> edgeQuadsMap) {
         for (Edge edge : getEdges(quad)) {
             edgeQuadsMap.computeIfAbsent(edge, k -> new ArrayList<>()).add(quad);
         }
@@ -210,7 +324,7 @@ public class MeshOptimizer {
     //  |         |
     //  |_________| 0
     // For example, only the left and right edges of the above quad would be returned
-    private List<Edge> getEdges(Quad quad) {
+    private static List<Edge> getEdges(Quad quad) {
         Vertex[] vertices = quad.getVertices();
         UVBounds uvBounds = quad.getUvBounds();
         int minUMinV = -1, minUMaxV = -1, maxUMinV = -1, maxUMaxV = -1;
@@ -286,6 +400,151 @@ public class MeshOptimizer {
         }
     }
 
+    // A quad that is a whole face of a cell of an axis aligned grid with cells of size blocks (such as a full block face)
+    // and shows its texture exactly once, with u and v each running along one side of the face
+    private static class GridFace {
+        private final Quad quad;
+        // the axis of the normal and the two axes across the face, in x, y, z order
+        private final int axis;
+        private final int axisA;
+        private final int axisB;
+        private final int size;
+        // position of the face on the plane at coordinate plane, in cells
+        private final int cellA;
+        private final int cellB;
+        private final float plane;
+        // for every vertex (2 bits each), which corner of the face it is: bit 0 set at the high a side, bit 1 at the high b side
+        private final int corners;
+        private final boolean uAlongA;
+
+        private GridFace(Quad quad, int axis, int size, int cellA, int cellB, float plane, int corners, boolean uAlongA) {
+            this.quad = quad;
+            this.axis = axis;
+            this.axisA = axis == 0 ? 1 : 0;
+            this.axisB = axis == 2 ? 1 : 2;
+            this.size = size;
+            this.cellA = cellA;
+            this.cellB = cellB;
+            this.plane = plane;
+            this.corners = corners;
+            this.uAlongA = uAlongA;
+        }
+
+        @Nullable
+        private static GridFace of(Quad quad) {
+            Vertex[] vertices = quad.getVertices();
+            float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+            float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+            for (Vertex vertex : vertices) {
+                for (int i = 0; i < 3; ++i) {
+                    float value = get(vertex.getPosition(), i);
+                    min[i] = Math.min(min[i], value);
+                    max[i] = Math.max(max[i], value);
+                }
+            }
+            int axis = -1;
+            for (int i = 0; i < 3; ++i) {
+                if (max[i] - min[i] < GRID_EPSILON) {
+                    if (axis != -1) return null;
+                    axis = i;
+                }
+            }
+            if (axis == -1) return null;
+
+            int axisA = axis == 0 ? 1 : 0, axisB = axis == 2 ? 1 : 2;
+            int size = round(max[axisA] - min[axisA]);
+            if (size < 1 || !isNear(max[axisA] - min[axisA], size) || !isNear(max[axisB] - min[axisB], size)) return null;
+            int cellA = round(min[axisA] / size), cellB = round(min[axisB] / size);
+            if (!isNear(min[axisA] / size, cellA) || !isNear(min[axisB] / size, cellB)) return null;
+
+            // the uv corner (bit 0 for u, bit 1 for v) at each corner of the face
+            int[] cornerUvs = {-1, -1, -1, -1};
+            int corners = 0;
+            for (int i = 0; i < 4; ++i) {
+                Vector3f position = vertices[i].getPosition();
+                Vector2f uv = vertices[i].getUv();
+                int corner = corner(get(position, axisA), min[axisA], max[axisA]) | corner(get(position, axisB), min[axisB], max[axisB]) << 1;
+                int uvCorner = corner(uv.x, 0.0f, 1.0f) | corner(uv.y, 0.0f, 1.0f) << 1;
+                if (corner < 0 || uvCorner < 0 || cornerUvs[corner] != -1) return null;
+
+                cornerUvs[corner] = uvCorner;
+                corners |= corner << (i * 2);
+            }
+            int changeAlongA = cornerUvs[0] ^ cornerUvs[1], changeAlongB = cornerUvs[0] ^ cornerUvs[2];
+            if ((changeAlongA != 1 && changeAlongA != 2) || changeAlongA + changeAlongB != 3 || cornerUvs[3] != (cornerUvs[0] ^ 3)) return null;
+
+            return new GridFace(quad, axis, size, cellA, cellB, min[axis], corners, changeAlongA == 1);
+        }
+
+        // 0 if value is low, 1 if it is high and -1 if it is neither
+        private static int corner(float value, float low, float high) {
+            if (Math.abs(value - low) < GRID_EPSILON) return 0;
+            if (Math.abs(value - high) < GRID_EPSILON) return 1;
+            return -1;
+        }
+
+        private static boolean isNear(float value, int target) {
+            return Math.abs(value - target) < GRID_EPSILON;
+        }
+
+        private static float get(Vector3f vector, int axis) {
+            return axis == 0 ? vector.x : axis == 1 ? vector.y : vector.z;
+        }
+
+        private static void add(Vector3f vector, int axis, float amount) {
+            if (axis == 0) vector.x += amount;
+            else if (axis == 1) vector.y += amount;
+            else vector.z += amount;
+        }
+
+        // Turns the quad (in place) into the face covering width by height cells from this one, tiling the texture once per cell
+        private void stretch(int width, int height) {
+            if (width == 1 && height == 1) return;
+
+            Vertex[] vertices = quad.getVertices();
+            for (int i = 0; i < 4; ++i) {
+                int corner = (corners >> (i * 2)) & 3;
+                Vector3f position = vertices[i].getPosition();
+                if ((corner & 1) != 0) add(position, axisA, (width - 1) * size);
+                if ((corner & 2) != 0) add(position, axisB, (height - 1) * size);
+                Vector2f uv = vertices[i].getUv();
+                uv.x *= uAlongA ? width : height;
+                uv.y *= uAlongA ? height : width;
+            }
+            quad.updateUvBounds();
+        }
+    }
+
+    // Grid faces in the same slice only differ in their cell, so any of them form a rectangle that can be merged
+    private static class SliceKey {
+        private final SubsetKey subset;
+        private final int axis;
+        private final long plane;
+        private final int size;
+        private final int corners;
+
+        private SliceKey(SubsetKey subset, GridFace face) {
+            this.subset = subset;
+            this.axis = face.axis;
+            this.plane = Math.round((double) face.plane / GRID_EPSILON);
+            this.size = face.size;
+            this.corners = face.corners;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            SliceKey other = (SliceKey) obj;
+            return axis == other.axis && plane == other.plane && size == other.size && corners == other.corners && subset.equals(other.subset);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subset, axis, plane, size, corners);
+        }
+    }
+
     private static class SubsetKey {
         private final String texture;
         private final Vector3f normal;
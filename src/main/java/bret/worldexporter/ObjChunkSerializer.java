@@ -0,0 +1,431 @@
+package bret.worldexporter;
+
+import bret.worldexporter.config.WorldExporterConfig;
+import bret.worldexporter.util.AsciiBuffer;
+import bret.worldexporter.util.PackedFloatIntMap;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static bret.worldexporter.Exporter.LOGGER;
+
+// Formats exported chunks into .obj text on a pool of threads and appends them to the .obj file(s) in submission
+// order on a single writer thread. Chunks are formatted using chunk-local vertex/uv indices, which the writer maps to
+// the indices in the file (deduplicating against previously written vertices) as the chunk is appended.
+// With GLOBAL deduplication every distinct position and uv is written exactly once per .obj file, until the maps that
+// track them reach maxDedupeBytes. After that they are only shared within a chunk, like with PER_CHUNK deduplication,
+// so that the memory of a large export stays bounded.
+public class ObjChunkSerializer {
+    private static final int MAX_PENDING_CHUNKS = 32;
+    private static final Future<?> END = CompletableFuture.completedFuture(null);
+    private final ExecutorService formatPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // formatted chunks and checkpoints, in submission order
+    private final ArrayBlockingQueue<Future<?>> pending = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+    private final Thread writerThread = new Thread(this::writeLoop, "WorldExporter OBJ writer");
+    private final File baseDir;
+    private final String objBaseName;
+    private final String mtlFilename;
+    private final WorldExporterConfig.ChunkExportType chunkExportType;
+    private final int decimals;
+    private final long maxDedupeBytes;
+    private WorldExporterConfig.VertexDeduplication deduplication;
+    // geometric vertices (tag v) in the current .obj output mapped to their number in the file
+    private final PackedFloatIntMap verticesCache = new PackedFloatIntMap(1 << 16);
+    // uv texture coordinates (tag vt) in the current .obj output mapped to their number in the file
+    private final PackedFloatIntMap uvCache = new PackedFloatIntMap(1 << 12);
+    private final AsciiBuffer faceLines = new AsciiBuffer(1 << 16);
+    private OutputStream objStream = null;
+    private int vertCount = 0;
+    private int uvCount = 0;
+    // dedupe statistics, only touched by the writer thread until close()
+    private long vertexReferences = 0;
+    private long verticesWritten = 0;
+    private long uvReferences = 0;
+    private long uvsWritten = 0;
+    // write statistics, also only touched by the writer thread until close()
+    private long writeNanos = 0;
+    private long bytesWritten = 0;
+    private volatile Throwable writeError = null;
+    private boolean closed = false;
+
+    // decimals is the maximum number of decimals written for each vertex position and uv coordinate
+    public ObjChunkSerializer(File baseDir, String objBaseName, String mtlFilename, WorldExporterConfig.ChunkExportType chunkExportType,
+                              int decimals, WorldExporterConfig.VertexDeduplication deduplication, long maxDedupeBytes) {
+        this.baseDir = baseDir;
+        this.objBaseName = objBaseName;
+        this.mtlFilename = mtlFilename;
+        this.chunkExportType = chunkExportType;
+        this.decimals = decimals;
+        this.deduplication = deduplication;
+        this.maxDedupeBytes = maxDedupeBytes;
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Queues a chunk to be formatted and written. materialNames.get(i) is the material used by every quad (an index into
+    // chunk.quads) in materialQuads.get(i). The chunk must not be modified afterwards. Blocks if too many chunks are pending.
+    public void submit(ExportChunk chunk, List<String> materialNames, List<IntArrayList> materialQuads) throws IOException, InterruptedException {
+        if (writeError != null) {
+            throw new IOException("A previous chunk could not be written to the obj file", writeError);
+        }
+        pending.put(formatPool.submit(() -> format(chunk, materialNames, materialQuads)));
+    }
+
+    // Queues action to run on the writer thread once every chunk submitted before it has been written, with the .obj
+    // output flushed to disk up to that point. Not run if a chunk could not be written.
+    public void checkpoint(Consumer<Position> action) throws InterruptedException {
+        pending.put(CompletableFuture.completedFuture(new Checkpoint(action)));
+    }
+
+    // Continues the .obj output of an interrupted export from one of its checkpoints, discarding anything written
+    // after it. Must be called before the first chunk is submitted. Vertices and uvs written before the checkpoint
+    // are not deduplicated against, so they may be written again.
+    public void resume(Position position) throws IOException {
+        // every chunk file is complete, the chunks written after the checkpoint are written again
+        if (chunkExportType == WorldExporterConfig.ChunkExportType.MULTIPLE_FILES || position.objLength == 0) return;
+
+        File objFile = new File(baseDir, objBaseName + ".obj");
+        if (objFile.length() < position.objLength) {
+            throw new IOException("The obj file is shorter than at the checkpoint: " + objFile);
+        }
+        try (FileChannel channel = FileChannel.open(objFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(position.objLength);
+        }
+        objStream = new BufferedOutputStream(new FileOutputStream(objFile, true), 32 << 20);  // 32 MB buffer
+        vertCount = position.vertCount;
+        uvCount = position.uvCount;
+    }
+
+    // Waits for every submitted chunk to be written and closes the current .obj file.
+    // Returns false if any chunk could not be written.
+    public boolean close() {
+        if (closed) return writeError == null;
+        closed = true;
+
+        try {
+            pending.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            writerThread.interrupt();
+            writeError = e;
+        }
+        formatPool.shutdown();
+
+        try {
+            if (objStream != null) {
+                objStream.close();
+            }
+        } catch (IOException e) {
+            writeError = e;
+        }
+
+        if (writeError != null) {
+            LOGGER.error("Unable to write chunks to the obj file: ", writeError);
+        }
+        LOGGER.info(getDedupeSummary());
+        return writeError == null;
+    }
+
+    // the share of face vertex/uv references that reused an already written line, only meaningful after close()
+    public String getDedupeSummary() {
+        return String.format("Deduplicated %.1f%% of %d vertex references and %.1f%% of %d uv references.",
+                hitRate(verticesWritten, vertexReferences), vertexReferences, hitRate(uvsWritten, uvReferences), uvReferences);
+    }
+
+    // time the writer thread spent writing chunks, only meaningful after close()
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    // bytes of .obj output written, only meaningful after close()
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private static double hitRate(long written, long references) {
+        return references == 0 ? 0 : 100.0 * (references - written) / references;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Future<?> future;
+            try {
+                future = pending.take();
+            } catch (InterruptedException e) {
+                writeError = e;
+                return;
+            }
+            if (future == END) return;
+
+            // after a failure the remaining chunks are still drained so that submit() never blocks forever
+            if (writeError != null) continue;
+            Object next;
+            try {
+                next = future.get();
+            } catch (Throwable e) {
+                writeError = e;
+                continue;
+            }
+
+            if (next instanceof Checkpoint) {
+                try {
+                    ((Checkpoint) next).action.accept(getPosition());
+                } catch (Throwable e) {
+                    // the export can still finish, it just can't be resumed from this point
+                    LOGGER.warn("Unable to save an export checkpoint: ", e);
+                }
+                continue;
+            }
+            long writeStart = System.nanoTime();
+            try {
+                write((SerializedChunk) next);
+            } catch (Throwable e) {
+                writeError = e;
+            }
+            writeNanos += System.nanoTime() - writeStart;
+        }
+    }
+
+    // runs on the writer thread
+    private Position getPosition() throws IOException {
+        if (chunkExportType == WorldExporterConfig.ChunkExportType.MULTIPLE_FILES || objStream == null) {
+            return new Position(0, 0, 0);
+        }
+        objStream.flush();
+        return new Position(new File(baseDir, objBaseName + ".obj").length(), vertCount, uvCount);
+    }
+
+    // runs on the format pool
+    private SerializedChunk format(ExportChunk chunk, List<String> materialNames, List<IntArrayList> materialQuads) {
+        SerializedChunk serialized = new SerializedChunk(chunk.getName(), chunk.getFileName(), materialNames, decimals);
+        QuadBuffer buffer = chunk.quads;
+        int quadCount = 0;
+        for (IntArrayList quads : materialQuads) {
+            quadCount += quads.size();
+        }
+        PackedFloatIntMap localVertices = new PackedFloatIntMap(quadCount * 2);
+        PackedFloatIntMap localUvs = new PackedFloatIntMap(quadCount);
+        for (IntArrayList quads : materialQuads) {
+            // 4 vertex indices followed by 4 uv indices per quad, a uv index of 0 means the quad has no uv
+            int[] faces = new int[quads.size() * 8];
+            int faceIndex = 0;
+            for (int q = 0; q < quads.size(); ++q) {
+                int quad = quads.getInt(q);
+                boolean hasUV = buffer.hasUV(quad);
+                for (int i = 0; i < 4; ++i) {
+                    float x = buffer.getX(quad, i), y = buffer.getY(quad, i), z = buffer.getZ(quad, i);
+                    int vertIndex = localVertices.get(x, y, z);
+                    if (vertIndex == 0) {
+                        vertIndex = localVertices.size() + 1;
+                        localVertices.put(x, y, z, vertIndex);
+                        serialized.addVertex(x, y, z);
+                    }
+                    faces[faceIndex + i] = vertIndex;
+
+                    if (hasUV) {
+                        float u = buffer.getU(quad, i), v = buffer.getV(quad, i);
+                        int uvIndex = localUvs.get(u, v);
+                        if (uvIndex == 0) {
+                            uvIndex = localUvs.size() + 1;
+                            localUvs.put(u, v, uvIndex);
+                            serialized.addUv(u, v);
+                        }
+                        faces[faceIndex + i + 4] = uvIndex;
+                    }
+                }
+                serialized.vertexReferences += 4;
+                if (hasUV) serialized.uvReferences += 4;
+                faceIndex += 8;
+            }
+            serialized.faces.add(faces);
+        }
+        return serialized;
+    }
+
+    // runs on the writer thread
+    private void write(SerializedChunk chunk) throws IOException {
+        OutputStream out = getObjStream(chunk);
+        if (deduplication == WorldExporterConfig.VertexDeduplication.GLOBAL && verticesCache.memoryBytes() + uvCache.memoryBytes() > maxDedupeBytes) {
+            LOGGER.info("The vertex deduplication maps reached their memory limit, the remaining chunks are deduplicated per chunk.");
+            deduplication = WorldExporterConfig.VertexDeduplication.PER_CHUNK;
+        }
+        if (deduplication == WorldExporterConfig.VertexDeduplication.PER_CHUNK) {
+            // vertices are only shared within a chunk, so the maps never hold more than one chunk's worth
+            verticesCache.clear();
+            uvCache.clear();
+        }
+        vertexReferences += chunk.vertexReferences;
+        uvReferences += chunk.uvReferences;
+
+        int vertexKeyCount = chunk.vertexLineEnds.size();
+        int[] vertexMap = new int[vertexKeyCount + 1];
+        float[] vertexKeys = chunk.vertexKeys.elements();
+        int lineStart = 0;
+        for (int i = 0; i < vertexKeyCount; ++i) {
+            float x = vertexKeys[i * 3], y = vertexKeys[i * 3 + 1], z = vertexKeys[i * 3 + 2];
+            int lineEnd = chunk.vertexLineEnds.getInt(i);
+            int vertIndex = verticesCache.get(x, y, z);
+            if (vertIndex == 0) {
+                vertIndex = ++vertCount;
+                verticesCache.put(x, y, z, vertIndex);
+                chunk.vertexLines.writeTo(out, lineStart, lineEnd);
+                bytesWritten += lineEnd - lineStart;
+                ++verticesWritten;
+            }
+            vertexMap[i + 1] = vertIndex;
+            lineStart = lineEnd;
+        }
+
+        int uvKeyCount = chunk.uvLineEnds.size();
+        int[] uvMap = new int[uvKeyCount + 1];
+        float[] uvKeys = chunk.uvKeys.elements();
+        lineStart = 0;
+        for (int i = 0; i < uvKeyCount; ++i) {
+            float u = uvKeys[i * 2], v = uvKeys[i * 2 + 1];
+            int lineEnd = chunk.uvLineEnds.getInt(i);
+            int uvIndex = uvCache.get(u, v);
+            if (uvIndex == 0) {
+                uvIndex = ++uvCount;
+                uvCache.put(u, v, uvIndex);
+                chunk.uvLines.writeTo(out, lineStart, lineEnd);
+                bytesWritten += lineEnd - lineStart;
+                ++uvsWritten;
+            }
+            uvMap[i + 1] = uvIndex;
+            lineStart = lineEnd;
+        }
+
+        // write all related quads for each material to the .obj file using the file's vertex and uv indices
+        faceLines.clear();
+        for (int m = 0; m < chunk.materialNames.size(); ++m) {
+            faceLines.put("usemtl ").put(chunk.materialNames.get(m)).put('\n');
+            int[] faces = chunk.faces.get(m);
+            for (int f = 0; f < faces.length; f += 8) {
+                faceLines.put('f');
+                boolean hasUV = faces[f + 4] != 0;
+                for (int i = 0; i < 4; ++i) {
+                    faceLines.put(' ').put(vertexMap[faces[f + i]]);
+                    if (hasUV) {
+                        faceLines.put('/').put(uvMap[faces[f + i + 4]]);
+                    }
+                }
+                faceLines.put('\n');
+            }
+        }
+        faceLines.writeTo(out);
+        bytesWritten += faceLines.size();
+    }
+
+    private OutputStream getObjStream(SerializedChunk chunk) throws IOException {
+        switch (chunkExportType) {
+            case SINGLE_FILE_SINGLE_OBJECT:
+                return getSingleObjStream();
+            case SINGLE_FILE_MULTIPLE_OBJECTS:
+                OutputStream out = getSingleObjStream();
+                // define a new object for the chunk in the single obj file
+                writeHeader(out, "o " + chunk.name + '\n');
+                return out;
+            case MULTIPLE_FILES:
+                if (objStream != null) {
+                    objStream.close();
+                }
+                File objFile = new File(baseDir, objBaseName + '_' + chunk.fileName + ".obj");
+                objStream = new BufferedOutputStream(new FileOutputStream(objFile), 4 << 20);  // 4 MB buffer since chunks are usually small
+                // the object name carries the level of detail, which the file name doesn't
+                writeHeader(objStream, "mtllib " + mtlFilename + "\n\no " + chunk.name + '\n');
+
+                // reset vertex and uv counts and their cached values since we are now using a new obj file
+                vertCount = 0;
+                uvCount = 0;
+                verticesCache.clear();
+                uvCache.clear();
+                return objStream;
+            default:
+                throw new IllegalStateException("Unexpected value for chunkExportType enum");
+        }
+    }
+
+    private OutputStream getSingleObjStream() throws IOException {
+        if (objStream == null) {
+            File objFile = new File(baseDir, objBaseName + ".obj");
+            objStream = new BufferedOutputStream(new FileOutputStream(objFile), 32 << 20);  // 32 MB buffer
+            writeHeader(objStream, "mtllib " + mtlFilename + "\n\n");
+        }
+        return objStream;
+    }
+
+    private void writeHeader(OutputStream out, String header) throws IOException {
+        byte[] bytes = header.getBytes();
+        out.write(bytes);
+        bytesWritten += bytes.length;
+    }
+
+    // how far the .obj output of a single file export had been written at a checkpoint, always zero for MULTIPLE_FILES
+    public static class Position {
+        public final long objLength;
+        public final int vertCount;
+        public final int uvCount;
+
+        public Position(long objLength, int vertCount, int uvCount) {
+            this.objLength = objLength;
+            this.vertCount = vertCount;
+            this.uvCount = uvCount;
+        }
+    }
+
+    private static class Checkpoint {
+        private final Consumer<Position> action;
+
+        private Checkpoint(Consumer<Position> action) {
+            this.action = action;
+        }
+    }
+
+    private static class SerializedChunk {
+        private final String name;
+        private final String fileName;
+        private final List<String> materialNames;
+        private final List<int[]> faces = new ArrayList<>();
+        // one "v" line per chunk-local vertex, vertexLineEnds.get(i) is the end offset of the line for vertex i + 1
+        private final AsciiBuffer vertexLines = new AsciiBuffer(4096);
+        private final IntArrayList vertexLineEnds = new IntArrayList();
+        // x, y, z of each chunk-local vertex
+        private final FloatArrayList vertexKeys = new FloatArrayList();
+        private final AsciiBuffer uvLines = new AsciiBuffer(1024);
+        private final IntArrayList uvLineEnds = new IntArrayList();
+        // u, v of each chunk-local uv
+        private final FloatArrayList uvKeys = new FloatArrayList();
+        private final int decimals;
+        private int vertexReferences = 0;
+        private int uvReferences = 0;
+
+        private SerializedChunk(String name, String fileName, List<String> materialNames, int decimals) {
+            this.name = name;
+            this.fileName = fileName;
+            this.materialNames = materialNames;
+            this.decimals = decimals;
+        }
+
+        private void addVertex(float x, float y, float z) {
+            vertexLines.put("v ").put(x, decimals).put(' ').put(y, decimals).put(' ').put(z, decimals).put('\n');
+            vertexLineEnds.add(vertexLines.size());
+            vertexKeys.add(x);
+            vertexKeys.add(y);
+            vertexKeys.add(z);
+        }
+
+        private void addUv(float u, float v) {
+            uvLines.put("vt ").put(u, decimals).put(' ').put(v, decimals).put('\n');
+            uvLineEnds.add(uvLines.size());
+            uvKeys.add(u);
+            uvKeys.add(v);
+        }
+    }
+}
@@ -1,36 +1,36 @@
 package bret.worldexporter;
 
 import bret.worldexporter.config.WorldExporterConfig;
-import bret.worldexporter.legacylwjgl.Vector2f;
-import bret.worldexporter.legacylwjgl.Vector3f;
 import bret.worldexporter.util.ImgUtils;
 import bret.worldexporter.util.LABPBRParser;
-import bret.worldexporter.util.LRUCache;
 import bret.worldexporter.util.OptifineReflector;
+import com.google.gson.*;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.player.ClientPlayerEntity;
 import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
-import javax.imageio.ImageIO;
+import javax.annotation.Nullable;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 public class ObjExporter extends Exporter {
-    private final static String TEXTURE_DIR = "tex";
-    private final File baseDir = new File(Minecraft.getInstance().gameDirectory, "worldexporter/worlddump" + java.time.LocalDateTime.now().toString().replace(':', '-'));
-    private final File texturePath = new File(baseDir, TEXTURE_DIR);
-    // geometric vertices cache (tag v) for the .obj output which maps the vertex to its number in the file
-    private final Map<Vector3f, Integer> verticesCache = new LRUCache<>(20000);
-    // uv texture coordinates cache (tag vt) for the .obj output which maps the uv value to its number in the file
-    private final Map<Vector2f, Integer> uvCache = new LRUCache<>(5000);
-    private final int[] vertUVIndices = new int[8];
+    private static final String INCREMENTAL_DIR = "worldexporter/incremental";
+    private static final String MATERIALS_FILENAME = "materials.json";
     private final Map<Triple<ResourceLocation, Integer, Integer>, Integer> modelToIdMap = new HashMap<>();
     private final Map<Pair<Integer, Integer>, Integer> colorLightToIdMap = new HashMap<>();
     private final Map<ResourceLocation, String> resourceToNormalMap = new HashMap<>();
@@ -40,13 +40,64 @@ public class ObjExporter extends Exporter {
     private final Map<ResourceLocation, String> resourceToRoughnessLineMap = new HashMap<>();
     private final Map<Triple<ResourceLocation, Integer, Integer>, String> modelToEmissiveMap = new HashMap<>();
     private final Map<Integer, String> modelIdToName = new HashMap<>();
-    private BufferedWriter lastObjWriter = null;
     private int modelCount = 0;
-    private int vertCount = 0;
-    private int uvCount = 0;
+    private String dedupeSummary = "";
+    // only set for incremental exports
+    @Nullable
+    private ChunkFingerprints fingerprints = null;
+    private int unchangedChunks = 0;
+    // set unless checkpoints are disabled or this is an incremental export
+    @Nullable
+    private ExportCheckpoint checkpoint = null;
+    // only set when resuming an interrupted export
+    @Nullable
+    private ExportCheckpoint resumeFrom = null;
+    // chunks that have been handed to the serializer, by ExportCheckpoint.chunkKey
+    private final LongSet completedChunks = new LongOpenHashSet();
+    // texture writes since the last checkpoint, which have to finish before the next one is saved
+    private final Queue<Future<?>> textureWrites = new ConcurrentLinkedQueue<>();
+    private long lastCheckpointNanos = System.nanoTime();
+    private int resumedChunks = 0;
 
     public ObjExporter(ClientPlayerEntity player, int radius, int lower, int upper, boolean optimizeMesh, boolean randomize, int threads) {
-        super(player, radius, lower, upper, optimizeMesh, randomize, threads);
+        this(player, radius, lower, upper, optimizeMesh, randomize, threads, false);
+    }
+
+    // continues the interrupted export the checkpoint was saved by, see getResumeProblem
+    public ObjExporter(ExportCheckpoint checkpoint) {
+        super(checkpoint.centerX, checkpoint.centerZ, checkpoint.viewpoint, checkpoint.radius, checkpoint.lower, checkpoint.upper, checkpoint.optimizeMesh,
+                checkpoint.randomize, checkpoint.threads, checkpoint.directory);
+        resumeFrom = checkpoint;
+        this.checkpoint = checkpoint;
+        completedChunks.addAll(checkpoint.getCompletedChunks());
+    }
+
+    // An incremental export writes to the same directory every time and only exports the chunks that changed since
+    // the last export to it. It requires the MULTIPLE_FILES chunkExportType, since every other type rewrites all chunks.
+    public ObjExporter(ClientPlayerEntity player, int radius, int lower, int upper, boolean optimizeMesh, boolean randomize, int threads, boolean incremental) {
+        super(player, radius, lower, upper, optimizeMesh, randomize, threads,
+                incremental ? new File(Minecraft.getInstance().gameDirectory, INCREMENTAL_DIR) : null);
+        if (incremental) {
+            fingerprints = ChunkFingerprints.load(baseDir, getOutputSettings());
+        } else if (WorldExporterConfig.CLIENT.exportCheckpoints.get()) {
+            checkpoint = new ExportCheckpoint(baseDir, playerX, playerZ, viewpoint, radius, lowerHeightLimit, upperHeightLimit, optimizeMesh,
+                    randomize, threads, getDimension(), getOutputSettings());
+        }
+    }
+
+    // every chunk has to stay separate when each chunk is written to its own file
+    @Override
+    protected int getRegionSize() {
+        return WorldExporterConfig.CLIENT.chunkExportType.get() == WorldExporterConfig.ChunkExportType.MULTIPLE_FILES ? 1 : super.getRegionSize();
+    }
+
+    // GLOBAL vertex deduplication may use a quarter of the export memory budget on top of the budget itself
+    private static long getMaxDedupeBytes() {
+        return WorldExporterConfig.CLIENT.exportMemoryBudget.get() * 1024L * 1024L / 4;
+    }
+
+    public static boolean supportsIncrementalExport() {
+        return WorldExporterConfig.CLIENT.chunkExportType.get() == WorldExporterConfig.ChunkExportType.MULTIPLE_FILES;
     }
 
     public boolean export(String objBaseFilename, String mtlBaseFilename) throws IOException {
@@ -54,26 +105,88 @@ public class ObjExporter extends Exporter {
         Files.createDirectories(texturePath.toPath());
         String fullMtlFilename = mtlBaseFilename + ".mtl";
         File mtlFile = new File(baseDir, fullMtlFilename);
+        File materialsFile = new File(baseDir, MATERIALS_FILENAME);
         boolean success = true;
 
-        try (FileWriter mtlWriter = new FileWriter(mtlFile.getPath()); BufferedWriter mtlBWriter = new BufferedWriter(mtlWriter, 8 << 20)) {  // 8 MB buffer
+        // unchanged chunks of an incremental export keep using the materials already written to the .mtl file, so the
+        // material tables of the last export are restored and new materials are appended
+        boolean appendMtl = fingerprints != null && !fingerprints.isEmpty() && mtlFile.isFile() && loadMaterials(materialsFile);
+        if (fingerprints != null && !appendMtl) {
+            fingerprints.clear();
+        }
+
+        // formatting and writing the .obj file happens off the main thread, which only resolves materials and textures
+        ObjChunkSerializer serializer = new ObjChunkSerializer(baseDir, objBaseFilename, fullMtlFilename,
+                WorldExporterConfig.CLIENT.chunkExportType.get(), WorldExporterConfig.CLIENT.objDecimalPrecision.get(),
+                WorldExporterConfig.CLIENT.vertexDeduplication.get(), getMaxDedupeBytes());
+        if (resumeFrom != null) {
+            // everything written after the checkpoint is discarded, the materials and chunks it covers are kept
+            try {
+                if (!restoreMaterials(resumeFrom.getMaterials())) {
+                    throw new IOException("The checkpoint's materials could not be read");
+                }
+                truncate(mtlFile, resumeFrom.getMtlLength());
+                serializer.resume(resumeFrom.getPosition());
+            } catch (IOException e) {
+                LOGGER.error("Unable to resume the export: ", e);
+                serializer.close();
+                finish();
+                return false;
+            }
+            appendMtl = true;
+        }
+
+        // the part of the .mtl file that is already there is not counted as written by this export
+        long initialMtlLength = appendMtl ? mtlFile.length() : 0;
+        try (FileWriter mtlWriter = new FileWriter(mtlFile.getPath(), appendMtl); BufferedWriter mtlBWriter = new BufferedWriter(mtlWriter, 8 << 20)) {  // 8 MB buffer
             Consumer<ArrayList<ExportChunk>> chunkConsumer = (exportChunks) -> {
                 for (ExportChunk exportChunk : exportChunks) {
                     try {
-                        BufferedWriter objWriter = getObjWriter(objBaseFilename, fullMtlFilename, exportChunk);
-                        writeChunk(exportChunk, objWriter, mtlBWriter);
+                        writeChunk(exportChunk, serializer, mtlBWriter);
                     } catch (Exception e) {
                         LOGGER.error("Unable to write chunk to the obj/mtl file: ", e);
                         throw new RuntimeException(e);
                     }
+                    // a region is written at once, so all of its chunks are completed with it
+                    for (int x = 0; x < exportChunk.regionSize; ++x) {
+                        for (int z = 0; z < exportChunk.regionSize; ++z) {
+                            completedChunks.add(ExportCheckpoint.chunkKey(exportChunk.xChunkPos + x, exportChunk.zChunkPos + z));
+                        }
+                    }
                 }
+                saveCheckpoint(serializer, mtlBWriter, mtlFile, false);
             };
             exportQuads(chunkConsumer);
+            if (isCancelled()) {
+                // everything consumed before the cancellation is covered, so a resume only exports the chunks left
+                saveCheckpoint(serializer, mtlBWriter, mtlFile, true);
+                success = false;
+            }
         } catch (IOException | InterruptedException e) {
             success = false;
         } finally {
-            if (lastObjWriter != null) {
-                lastObjWriter.close();
+            success &= serializer.close();
+            dedupeSummary = serializer.getDedupeSummary();
+            stats.addTime(ExportStats.Phase.GEOMETRY_WRITE, serializer.getWriteNanos());
+            stats.add(ExportStats.Counter.BYTES_WRITTEN, serializer.getBytesWritten() + Math.max(0, mtlFile.length() - initialMtlLength));
+        }
+
+        if (fingerprints != null) {
+            // the materials always match the .mtl file that was written, but a failed export may not have written
+            // every changed chunk, so its fingerprints are not saved and those chunks are exported again next time
+            saveMaterials(materialsFile);
+            if (success) {
+                fingerprints.retainUpdated();
+                fingerprints.deleteStaleChunkFiles(objBaseFilename);
+                fingerprints.save();
+            }
+            LOGGER.info("Incremental export skipped " + unchangedChunks + " unchanged chunks.");
+        }
+        if (checkpoint != null) {
+            if (success) {
+                checkpoint.delete();
+            } else if (checkpoint.exists()) {
+                LOGGER.info("The export can be continued from its last checkpoint with /worldexport resume");
             }
         }
 
@@ -81,373 +194,484 @@ public class ObjExporter extends Exporter {
         return success;
     }
 
-    private synchronized BufferedWriter getObjWriter(String objBaseName, String fullMtlFilename, ExportChunk chunk) throws IOException {
-        BufferedWriter writer;
-        switch (WorldExporterConfig.CLIENT.chunkExportType.get()) {
-            case SINGLE_FILE_SINGLE_OBJECT:
-                writer = getBufferedWriter(objBaseName + ".obj", fullMtlFilename);
-                break;
-            case SINGLE_FILE_MULTIPLE_OBJECTS:
-                writer = getBufferedWriter(objBaseName + ".obj", fullMtlFilename);
-                // define a new object for the chunk in the single obj file
-                writer.write("o " + "chunk_" + chunk.xChunkPos + '_' + chunk.zChunkPos + '\n');
-                break;
-            case MULTIPLE_FILES:
-                if (lastObjWriter != null) {
-                    lastObjWriter.close();
-                }
-                File objFile = new File(baseDir, objBaseName + "_chunk_" + chunk.xChunkPos + '_' + chunk.zChunkPos + ".obj");
-                writer = new BufferedWriter(new FileWriter(objFile.getPath()), 4 << 20);  // 4 MB buffer since chunks are usually small
-                writer.write("mtllib " + fullMtlFilename + "\n\n");
-
-                // reset vertex and uv counts and their cached values since we are now using a new obj file
-                vertCount = 0;
-                uvCount = 0;
-                verticesCache.clear();
-                uvCache.clear();
-                break;
-            default:
-                throw new IllegalStateException("Unexpected value for chunkExportType enum");
+    @Override
+    public boolean canResume() {
+        return checkpoint != null && checkpoint.exists();
+    }
+
+    @Override
+    protected boolean shouldExportChunk(BlockPos start, BlockPos end) {
+        if (resumeFrom != null) {
+            if (completedChunks.contains(ExportCheckpoint.chunkKey(getChunkX(start), getChunkZ(start)))) {
+                ++resumedChunks;
+                return false;
+            }
+        }
+        if (fingerprints == null) return true;
+
+        long fingerprint = ChunkFingerprints.compute(world, start, end, WorldExporterConfig.CLIENT.enableEntities.get(),
+                WorldExporterConfig.CLIENT.enableLivingEntities.get());
+        if (visibility != null) {
+            // opening or closing a cave elsewhere can change which blocks of this chunk are visible
+            fingerprint ^= visibility.getFingerprint(start.getX() >> 4, start.getZ() >> 4);
         }
+        // the player's position decides the chunk's level of detail
+        fingerprint += getLodLevel(start, end) * 0x9E3779B97F4A7C15L;
+        // keyed like the chunk's file name, which is relative to the player's chunk with relativeCoordinates
+        if (fingerprints.update(getChunkX(start), getChunkZ(start), fingerprint)) {
+            return true;
+        }
+        ++unchangedChunks;
+        return false;
+    }
 
-        lastObjWriter = writer;
-        return writer;
+    // "" unless this is an incremental export
+    public String getIncrementalSummary() {
+        return fingerprints == null ? "" : "Skipped " + unchangedChunks + " unchanged chunks.";
     }
 
-    private BufferedWriter getBufferedWriter(String objFullFilename, String mtlFullFilename) throws IOException {
-        BufferedWriter writer;
-        if (lastObjWriter == null) {
-            File objFile = new File(baseDir, objFullFilename);
-            writer = new BufferedWriter(new FileWriter(objFile.getPath()), 32 << 20);  // 32 MB buffer
-            writer.write("mtllib " + mtlFullFilename + "\n\n");
-        } else {
-            writer = lastObjWriter;
+    // Returns why the export can't be resumed with the current settings, or null if it can
+    @Nullable
+    public String getResumeProblem() {
+        if (resumeFrom == null) return null;
+        if (!resumeFrom.dimension.equals(getDimension())) {
+            return "The export was made in " + resumeFrom.dimension + ", change to that dimension to resume it.";
         }
-        lastObjWriter = writer;
-        return writer;
+        if (!resumeFrom.settings.equals(getOutputSettings())) {
+            return "The export settings changed since the export was interrupted, change them back to resume it.";
+        }
+        return null;
     }
 
-    private synchronized void writeChunk(ExportChunk exportChunk, Writer objWriter, Writer mtlWriter) throws IOException {
-        Map<Integer, ArrayList<Quad>> quadsForModel = new HashMap<>();
-        boolean exportHeightmap = WorldExporterConfig.CLIENT.outputHeightmap.get();
-        boolean exportAOMap = WorldExporterConfig.CLIENT.outputAmbientocclusionMap.get();
-        for (Quad quad : exportChunk.quads) {
-            if (!quad.hasUV()) {
-                int color = quad.getColor();
-                if ((color & 0xFF000000) == 0 && !WorldExporterConfig.CLIENT.outputInvisibleFaces.get()) {
-                    LOGGER.warn("Skipped color-only face because it was completely transparent with color: " + Integer.toHexString(color));
-                    continue;
-                }
+    public String getResumeSummary() {
+        return resumeFrom == null ? "" : "Resumed after " + resumedChunks + " completed chunks.";
+    }
 
-                int modelId;
-                int light = quad.getLightValue();
-                Pair<Integer, Integer> colorModel = Pair.of(color, light);
-                if (!colorLightToIdMap.containsKey(colorModel)) {
-                    modelId = modelCount++;
-                    colorLightToIdMap.put(colorModel, modelId);
-                    BufferedImage image = generatePixelImage(color);
-                    String modelName = "colorABGR_" + Integer.toHexString(color) + (light == 0 ? "" : "_light_" + light) + '_' + modelId;
-                    modelIdToName.put(modelId, modelName);
-                    writeTextureOnThread(new File(texturePath, modelName + ".png"), image);
-                    mtlWriter.write("newmtl " + modelName + '\n');
-                    if (ImgUtils.imageHasTransparency(image)) {
-                        mtlWriter.write("map_d " + TEXTURE_DIR + '/' + modelName + ".png" + '\n');
-                    }
+    @Override
+    protected Future<?> writeTextureOnThread(File outputFile, BufferedImage image) {
+        Future<?> write = super.writeTextureOnThread(outputFile, image);
+        if (checkpoint != null) {
+            textureWrites.add(write);
+        }
+        return write;
+    }
 
-                    if (light != 0) {
-                        String subpath = modelName + "_e.png";
-                        int lightValue = Math.max(0, Math.min(255, light * 17));
-                        lightValue = WorldExporterConfig.CLIENT.squareEmissivity.get() ? (lightValue * lightValue) / 255 : lightValue;
-                        lightValue = (lightValue << 24) | 0x00FFFFFF;  // alpha value to "dim" the image by
-                        BufferedImage emissive = ImgUtils.tintImage(image, lightValue);
-                        writeTextureOnThread(new File(texturePath, subpath), emissive);
-                        mtlWriter.write("map_Ke " + TEXTURE_DIR + '/' + subpath + '\n');
+    // Saves a checkpoint of the chunks consumed so far if checkpointInterval has passed since the last one, or right
+    // away if force is set. The checkpoint is saved by the serializer's writer thread once those chunks and the
+    // textures of their materials have been written, so it never refers to output that isn't on disk yet.
+    private void saveCheckpoint(ObjChunkSerializer serializer, Writer mtlWriter, File mtlFile, boolean force) {
+        if (checkpoint == null) return;
+        if (!force && System.nanoTime() - lastCheckpointNanos < WorldExporterConfig.CLIENT.checkpointInterval.get() * 1_000_000_000L) {
+            return;
+        }
+        lastCheckpointNanos = System.nanoTime();
+
+        try {
+            mtlWriter.flush();
+            long mtlLength = mtlFile.length();
+            long[] chunks = completedChunks.toLongArray();
+            JsonObject materials = getMaterialsJson();
+            List<Future<?>> writes = new ArrayList<>();
+            for (Future<?> write; (write = textureWrites.poll()) != null; ) {
+                writes.add(write);
+            }
+
+            ExportCheckpoint target = checkpoint;
+            serializer.checkpoint(position -> {
+                try {
+                    for (Future<?> write : writes) {
+                        write.get();
                     }
-                    mtlWriter.write("map_Kd " + TEXTURE_DIR + '/' + modelName + ".png" + "\n\n");
-                } else {
-                    modelId = colorLightToIdMap.get(colorModel);
+                    target.save(chunks, materials, mtlLength, position);
+                } catch (IOException | InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e);
                 }
+            });
+        } catch (IOException | InterruptedException e) {
+            LOGGER.warn("Unable to save an export checkpoint: ", e);
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        if (!file.isFile() || file.length() < length) {
+            throw new IOException("The file is shorter than at the checkpoint: " + file);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    private String getDimension() {
+        return world.dimension().location().toString();
+    }
+
+    // everything that changes the output of a chunk, an incremental export exports every chunk again and an interrupted
+    // export can't be resumed if it changed
+    private String getOutputSettings() {
+        WorldExporterConfig.Client config = WorldExporterConfig.CLIENT;
+        return String.join(",", String.valueOf(lowerHeightLimit), String.valueOf(upperHeightLimit),
+                String.valueOf(playerXOffset), String.valueOf(playerZOffset), String.valueOf(optimizeMesh), String.valueOf(randomize),
+                String.valueOf(config.enableEntities.get()), String.valueOf(config.enableLivingEntities.get()),
+                String.valueOf(config.outputInvisibleFaces.get()), String.valueOf(config.overlapDistance.get()),
+                String.valueOf(config.objDecimalPrecision.get()), String.valueOf(config.normalFormat.get()),
+                String.valueOf(config.normalStrength.get()), String.valueOf(config.outputHeightmap.get()),
+                String.valueOf(config.outputAmbientocclusionMap.get()), String.valueOf(config.perceptualRoughness.get()),
+                String.valueOf(config.squareEmissivity.get()), String.valueOf(config.forceResourceEmissivity.get()),
+                String.valueOf(config.forceOutputUniformMaps.get()), String.valueOf(config.relativeCoordinates.get()),
+                String.valueOf(config.chunkExportType.get()), String.valueOf(config.vertexDeduplication.get()),
+                String.valueOf(config.visibilityCulling.get()), String.valueOf(config.lodRings.get()),
+                String.valueOf(config.greedyMeshing.get()), String.valueOf(config.regionMergeSize.get()));
+    }
+
+    private void saveMaterials(File materialsFile) throws IOException {
+        Files.write(materialsFile.toPath(), new Gson().toJson(getMaterialsJson()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // returns false if the materials could not be restored, the tables are left empty in that case
+    private boolean loadMaterials(File materialsFile) {
+        if (!materialsFile.isFile()) return false;
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(materialsFile), StandardCharsets.UTF_8)) {
+            return restoreMaterials(new JsonParser().parse(reader).getAsJsonObject());
+        } catch (Exception e) {
+            LOGGER.warn("Could not read the materials of the last incremental export, every chunk will be exported again: ", e);
+            return false;
+        }
+    }
+
+    // the material tables, which map the materials already written to the .mtl file to their names
+    private JsonObject getMaterialsJson() {
+        JsonArray textured = new JsonArray();
+        for (Map.Entry<Triple<ResourceLocation, Integer, Integer>, Integer> entry : modelToIdMap.entrySet()) {
+            JsonObject model = new JsonObject();
+            model.addProperty("resource", entry.getKey().getLeft().toString());
+            model.addProperty("color", entry.getKey().getMiddle());
+            model.addProperty("light", entry.getKey().getRight());
+            model.addProperty("id", entry.getValue());
+            textured.add(model);
+        }
+        JsonArray colors = new JsonArray();
+        for (Map.Entry<Pair<Integer, Integer>, Integer> entry : colorLightToIdMap.entrySet()) {
+            JsonObject model = new JsonObject();
+            model.addProperty("color", entry.getKey().getLeft());
+            model.addProperty("light", entry.getKey().getRight());
+            model.addProperty("id", entry.getValue());
+            colors.add(model);
+        }
+        JsonObject names = new JsonObject();
+        modelIdToName.forEach((id, name) -> names.addProperty(Integer.toString(id), name));
+
+        JsonObject root = new JsonObject();
+        root.addProperty("modelCount", modelCount);
+        root.add("textured", textured);
+        root.add("colors", colors);
+        root.add("names", names);
+        return root;
+    }
+
+    // returns false if the materials could not be restored, the tables are left empty in that case
+    private boolean restoreMaterials(JsonObject root) {
+        try {
+            for (JsonElement element : root.getAsJsonArray("textured")) {
+                JsonObject model = element.getAsJsonObject();
+                modelToIdMap.put(Triple.of(new ResourceLocation(model.get("resource").getAsString()),
+                        model.get("color").getAsInt(), model.get("light").getAsInt()), model.get("id").getAsInt());
+            }
+            for (JsonElement element : root.getAsJsonArray("colors")) {
+                JsonObject model = element.getAsJsonObject();
+                colorLightToIdMap.put(Pair.of(model.get("color").getAsInt(), model.get("light").getAsInt()), model.get("id").getAsInt());
+            }
+            for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject("names").entrySet()) {
+                modelIdToName.put(Integer.parseInt(entry.getKey()), entry.getValue().getAsString());
+            }
+            modelCount = root.get("modelCount").getAsInt();
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn("Could not read material tables: ", e);
+            modelToIdMap.clear();
+            colorLightToIdMap.clear();
+            modelIdToName.clear();
+            modelCount = 0;
+            return false;
+        }
+    }
+
+    public String getDedupeSummary() {
+        return dedupeSummary;
+    }
 
-                quadsForModel.computeIfAbsent(modelId, k -> new ArrayList<>()).add(quad);
+    // Resolves the material of every quad in the chunk (writing new materials and their textures), then hands the
+    // quads grouped by material to the serializer. This needs the main thread since textures are read from OpenGL.
+    private void writeChunk(ExportChunk exportChunk, ObjChunkSerializer serializer, Writer mtlWriter) throws IOException, InterruptedException {
+        QuadBuffer quads = exportChunk.quads;
+        // every quad of a chunk material uses the same model, so each material only has to be resolved once
+        int[] materialModelIds = new int[quads.getMaterialCount()];
+        for (int material = 0; material < materialModelIds.length; ++material) {
+            materialModelIds[material] = getModelId(quads.getMaterialQuad(material), mtlWriter);
+        }
+
+        Map<Integer, IntArrayList> quadsForModel = new LinkedHashMap<>();
+        for (int i = 0; i < quads.size(); ++i) {
+            int modelId = materialModelIds[quads.getMaterial(i)];
+            if (modelId == -1) {
                 continue;
             }
 
-            Triple<ResourceLocation, Integer, Integer> model = Triple.of(quad.getResource(), quad.getColor(), quad.getLightValue());
-            int modelId;
-            if (!modelToIdMap.containsKey(model)) {
-                BufferedImage image = getImage(quad);
-                if (image == null) {
-                    LOGGER.warn("Skipped face with texture: " + quad.getResource() + " because Image was null");
-                    modelToIdMap.put(model, -1);
-                    continue;
-                }
-                if (!WorldExporterConfig.CLIENT.outputInvisibleFaces.get() && ImgUtils.isCompletelyTransparent(image)) {
-                    LOGGER.info("Skipped face with texture: " + quad.getResource() + " because Image was completely transparent");
-                    modelToIdMap.put(model, -1);
-                    continue;
-                }
+            IntArrayList modelQuads = quadsForModel.get(modelId);
+            if (modelQuads == null) {
+                modelQuads = new IntArrayList();
+                quadsForModel.put(modelId, modelQuads);
+            }
+            modelQuads.add(i);
+        }
 
-                ResourceLocation quadResource = quad.getResource();
-                modelId = modelCount++;
-                modelToIdMap.put(model, modelId);
-                String modelName = quadResource.toString().replaceAll("[^a-zA-Z0-9.-]", "-") + '_' + modelId;
-                modelIdToName.put(modelId, modelName);
+        List<String> materialNames = new ArrayList<>(quadsForModel.size());
+        for (int modelId : quadsForModel.keySet()) {
+            materialNames.add(modelIdToName.get(modelId));
+        }
+        serializer.submit(exportChunk, materialNames, new ArrayList<>(quadsForModel.values()));
+    }
 
-                String baseTextureName = modelName + ".png";
-                File fullTextureFilename = new File(texturePath, baseTextureName);
-                writeTextureOnThread(fullTextureFilename, image);
+    // Returns the model of the quad, writing its material and textures first if it is new, or -1 if faces with this
+    // model are skipped
+    private int getModelId(Quad quad, Writer mtlWriter) throws IOException, InterruptedException {
+        boolean exportHeightmap = WorldExporterConfig.CLIENT.outputHeightmap.get();
+        boolean exportAOMap = WorldExporterConfig.CLIENT.outputAmbientocclusionMap.get();
+        if (!quad.hasUV()) {
+            int color = quad.getColor();
+            if ((color & 0xFF000000) == 0 && !WorldExporterConfig.CLIENT.outputInvisibleFaces.get()) {
+                LOGGER.warn("Skipped color-only face because it was completely transparent with color: " + Integer.toHexString(color));
+                return -1;
+            }
 
-                // write material information to .mtl file
+            int modelId;
+            int light = quad.getLightValue();
+            Pair<Integer, Integer> colorModel = Pair.of(color, light);
+            if (!colorLightToIdMap.containsKey(colorModel)) {
+                modelId = modelCount++;
+                colorLightToIdMap.put(colorModel, modelId);
+                BufferedImage image = generatePixelImage(color);
+                String modelName = "colorABGR_" + Integer.toHexString(color) + (light == 0 ? "" : "_light_" + light) + '_' + modelId;
+                modelIdToName.put(modelId, modelName);
+                writeTextureOnThread(new File(texturePath, modelName + ".png"), image);
                 mtlWriter.write("newmtl " + modelName + '\n');
                 if (ImgUtils.imageHasTransparency(image)) {
                     mtlWriter.write("map_d " + TEXTURE_DIR + '/' + modelName + ".png" + '\n');
                 }
 
-                Runnable emissiveFallback = () -> {
-                    if (quad.getLightValue() != 0) {
-                        String subpath = modelName + "_e.png";
-                        String emissiveTextureName = TEXTURE_DIR + '/' + subpath;
-                        int color = Math.max(0, Math.min(255, quad.getLightValue() * 17));
-                        color = WorldExporterConfig.CLIENT.squareEmissivity.get() ? (color * color) / 255 : color;
-                        color = (color << 24) | 0x00FFFFFF;  // alpha value to "dim" the image by
-                        BufferedImage emissive = ImgUtils.tintImage(image, color);
-                        // If the emissive image is equal to the base image, don't write a duplicate texture
-                        // This is disabled because it breaks Blender's OBJ importer
-//                        if (ImgUtils.compareImages(image, emissive)) {
-//                            emissiveTextureName = baseTextureName;  // modelName + ".png"
-//                        } else {
-//                            writeTextureOnThread(new File(texturePath, subpath), emissive);
-//                        }
-                        writeTextureOnThread(new File(texturePath, subpath), emissive);
-                        try {
-                            mtlWriter.write("map_Ke " + emissiveTextureName + '\n');
-                            modelToEmissiveMap.put(model, emissiveTextureName);
-                        } catch (IOException e) {
-                            LOGGER.error("Failed to write emissive data for texture: " + emissiveTextureName, e);
-                        }
-                    }
-                };
-
-                if (OptifineReflector.validOptifine) {
-                    NormalData nd = null;
-                    if (!resourceToNormalMap.containsKey(quadResource)
-                            || (!resourceToHeightMap.containsKey(quadResource) && exportHeightmap)
-                            || (!resourceToAOMap.containsKey(quadResource) && WorldExporterConfig.CLIENT.outputAmbientocclusionMap.get())) {
-                        boolean useOpenGL = WorldExporterConfig.CLIENT.normalFormat.get() == WorldExporterConfig.NormalFormat.OPENGL;
-                        nd = getNormalData(quad, useOpenGL);
-                    }
+                if (light != 0) {
+                    String subpath = modelName + "_e.png";
+                    int lightValue = Math.max(0, Math.min(255, light * 17));
+                    lightValue = WorldExporterConfig.CLIENT.squareEmissivity.get() ? (lightValue * lightValue) / 255 : lightValue;
+                    lightValue = (lightValue << 24) | 0x00FFFFFF;  // alpha value to "dim" the image by
+                    BufferedImage emissive = ImgUtils.tintImage(image, lightValue);
+                    writeTextureOnThread(new File(texturePath, subpath), emissive);
+                    mtlWriter.write("map_Ke " + TEXTURE_DIR + '/' + subpath + '\n');
+                }
+                mtlWriter.write("map_Kd " + TEXTURE_DIR + '/' + modelName + ".png" + "\n\n");
+            } else {
+                modelId = colorLightToIdMap.get(colorModel);
+            }
 
-                    String normalTextureName = null;
-                    if (!resourceToNormalMap.containsKey(quadResource) && nd != null) {
-                        BufferedImage normal = LABPBRParser.getNormalImage(nd.x, nd.y, nd.z, nd.cols_width);
-                        if (LABPBRParser.hasNonDefaultNormal(normal)) {
-                            String subpath = modelName + "_n.png";
-                            normalTextureName = TEXTURE_DIR + '/' + subpath;
-                            resourceToNormalMap.put(quadResource, normalTextureName);
-                            writeTextureOnThread(new File(texturePath, subpath), normal);
-                        }
-                    } else {
-                        normalTextureName = resourceToNormalMap.getOrDefault(quadResource, null);
-                    }
-                    if (normalTextureName != null) {
-                        mtlWriter.write("map_Kn " + normalTextureName + '\n');
-                        mtlWriter.write("norm " + normalTextureName + '\n');
-                        double bumpStrength = WorldExporterConfig.CLIENT.normalStrength.get();
-                        mtlWriter.write("map_bump -bm " + bumpStrength + ' ' + normalTextureName + '\n');
+            return modelId;
+        }
+
+        Triple<ResourceLocation, Integer, Integer> model = Triple.of(quad.getResource(), quad.getColor(), quad.getLightValue());
+        int modelId;
+        if (!modelToIdMap.containsKey(model)) {
+            BufferedImage image = getImage(quad);
+            if (image == null) {
+                LOGGER.warn("Skipped face with texture: " + quad.getResource() + " because Image was null");
+                modelToIdMap.put(model, -1);
+                return -1;
+            }
+            if (!WorldExporterConfig.CLIENT.outputInvisibleFaces.get() && ImgUtils.isCompletelyTransparent(image)) {
+                LOGGER.info("Skipped face with texture: " + quad.getResource() + " because Image was completely transparent");
+                modelToIdMap.put(model, -1);
+                return -1;
+            }
+
+            ResourceLocation quadResource = quad.getResource();
+            modelId = modelCount++;
+            modelToIdMap.put(model, modelId);
+            String modelName = quadResource.toString().replaceAll("[^a-zA-Z0-9.-]", "-") + '_' + modelId;
+            modelIdToName.put(modelId, modelName);
+
+            String baseTextureName = modelName + ".png";
+            File fullTextureFilename = new File(texturePath, baseTextureName);
+            writeTextureOnThread(fullTextureFilename, image);
+
+            // write material information to .mtl file
+            mtlWriter.write("newmtl " + modelName + '\n');
+            if (ImgUtils.imageHasTransparency(image)) {
+                mtlWriter.write("map_d " + TEXTURE_DIR + '/' + modelName + ".png" + '\n');
+            }
+
+            Runnable emissiveFallback = () -> {
+                if (quad.getLightValue() != 0) {
+                    String subpath = modelName + "_e.png";
+                    String emissiveTextureName = TEXTURE_DIR + '/' + subpath;
+                    int color = Math.max(0, Math.min(255, quad.getLightValue() * 17));
+                    color = WorldExporterConfig.CLIENT.squareEmissivity.get() ? (color * color) / 255 : color;
+                    color = (color << 24) | 0x00FFFFFF;  // alpha value to "dim" the image by
+                    BufferedImage emissive = ImgUtils.tintImage(image, color);
+                    // If the emissive image is equal to the base image, don't write a duplicate texture
+                    // This is disabled because it breaks Blender's OBJ importer
+//                    if (ImgUtils.compareImages(image, emissive)) {
+//                        emissiveTextureName = baseTextureName;  // modelName + ".png"
+//                    } else {
+//                        writeTextureOnThread(new File(texturePath, subpath), emissive);
+//                    }
+                    writeTextureOnThread(new File(texturePath, subpath), emissive);
+                    try {
+                        mtlWriter.write("map_Ke " + emissiveTextureName + '\n');
+                        modelToEmissiveMap.put(model, emissiveTextureName);
+                    } catch (IOException e) {
+                        LOGGER.error("Failed to write emissive data for texture: " + emissiveTextureName, e);
                     }
+                }
+            };
 
-                    // I don't know of any OBJ importers that support heightmaps, but write it anyway if enabled
-                    // Support for adding the heightmap as displacement in the Blender script could be done, same for AO
-                    if (exportHeightmap && !resourceToHeightMap.containsKey(quadResource) && nd != null) {
-                        BufferedImage height = LABPBRParser.getHeightmapImage(nd.height, nd.cols_width);
-                        if (LABPBRParser.hasHeight(height)) {
-                            String subpath = modelName + "_h.png";
-                            resourceToHeightMap.put(quadResource, TEXTURE_DIR + '/' + subpath);
-                            writeTextureOnThread(new File(texturePath, subpath), height);
-                        }
+            if (OptifineReflector.validOptifine) {
+                NormalData nd = null;
+                if (!resourceToNormalMap.containsKey(quadResource)
+                        || (!resourceToHeightMap.containsKey(quadResource) && exportHeightmap)
+                        || (!resourceToAOMap.containsKey(quadResource) && WorldExporterConfig.CLIENT.outputAmbientocclusionMap.get())) {
+                    boolean useOpenGL = WorldExporterConfig.CLIENT.normalFormat.get() == WorldExporterConfig.NormalFormat.OPENGL;
+                    nd = getNormalData(quad, useOpenGL);
+                }
+
+                String normalTextureName = null;
+                if (!resourceToNormalMap.containsKey(quadResource) && nd != null) {
+                    BufferedImage normal = LABPBRParser.getNormalImage(nd.x, nd.y, nd.z, nd.cols_width);
+                    if (LABPBRParser.hasNonDefaultNormal(normal)) {
+                        String subpath = modelName + "_n.png";
+                        normalTextureName = TEXTURE_DIR + '/' + subpath;
+                        resourceToNormalMap.put(quadResource, normalTextureName);
+                        writeTextureOnThread(new File(texturePath, subpath), normal);
                     }
+                } else {
+                    normalTextureName = resourceToNormalMap.getOrDefault(quadResource, null);
+                }
+                if (normalTextureName != null) {
+                    mtlWriter.write("map_Kn " + normalTextureName + '\n');
+                    mtlWriter.write("norm " + normalTextureName + '\n');
+                    double bumpStrength = WorldExporterConfig.CLIENT.normalStrength.get();
+                    mtlWriter.write("map_bump -bm " + bumpStrength + ' ' + normalTextureName + '\n');
+                }
 
-                    if (exportAOMap && !resourceToAOMap.containsKey(quadResource) && nd != null) {
-                        BufferedImage ambientOcclusion = LABPBRParser.getAOImage(nd.ao, nd.cols_width);
-                        if (LABPBRParser.hasAO(ambientOcclusion)) {
-                            String subpath = modelName + "_ao.png";
-                            resourceToAOMap.put(quadResource, TEXTURE_DIR + '/' + subpath);
-                            writeTextureOnThread(new File(texturePath, subpath), ambientOcclusion);
-                        }
+                // I don't know of any OBJ importers that support heightmaps, but write it anyway if enabled
+                // Support for adding the heightmap as displacement in the Blender script could be done, same for AO
+                if (exportHeightmap && !resourceToHeightMap.containsKey(quadResource) && nd != null) {
+                    BufferedImage height = LABPBRParser.getHeightmapImage(nd.height, nd.cols_width);
+                    if (LABPBRParser.hasHeight(height)) {
+                        String subpath = modelName + "_h.png";
+                        resourceToHeightMap.put(quadResource, TEXTURE_DIR + '/' + subpath);
+                        writeTextureOnThread(new File(texturePath, subpath), height);
                     }
+                }
 
-                    SpecularData sd = null;
-                    if (!resourceToMetalLineMap.containsKey(quadResource)
-                            || !resourceToRoughnessLineMap.containsKey(quadResource)
-                            || !modelToEmissiveMap.containsKey(model)) {
-                        sd = getSpecularData(quad, WorldExporterConfig.CLIENT.perceptualRoughness.get());
+                if (exportAOMap && !resourceToAOMap.containsKey(quadResource) && nd != null) {
+                    BufferedImage ambientOcclusion = LABPBRParser.getAOImage(nd.ao, nd.cols_width);
+                    if (LABPBRParser.hasAO(ambientOcclusion)) {
+                        String subpath = modelName + "_ao.png";
+                        resourceToAOMap.put(quadResource, TEXTURE_DIR + '/' + subpath);
+                        writeTextureOnThread(new File(texturePath, subpath), ambientOcclusion);
                     }
+                }
 
-                    String metalOutputLine = null;
-                    if (!resourceToMetalLineMap.containsKey(quadResource) && sd != null) {
-                        if (!WorldExporterConfig.CLIENT.forceOutputUniformMaps.get()
-                                && LABPBRParser.isUniform(sd.metallic)
-                                && sd.metallic[0] > 0.0f) {
-                            metalOutputLine = "Pm " + sd.metallic[0] + '\n';
-                        } else {
-                            BufferedImage metal = LABPBRParser.getMetalImage(sd.metallic, sd.cols_width);
-                            if (LABPBRParser.hasMetal(metal)) {
-                                String subpath = modelName + "_m.png";
-                                metalOutputLine = "map_Pm " + TEXTURE_DIR + '/' + subpath + '\n';
-                                resourceToMetalLineMap.put(quadResource, metalOutputLine);
-                                writeTextureOnThread(new File(texturePath, subpath), metal);
-                            }
-                        }
+                SpecularData sd = null;
+                if (!resourceToMetalLineMap.containsKey(quadResource)
+                        || !resourceToRoughnessLineMap.containsKey(quadResource)
+                        || !modelToEmissiveMap.containsKey(model)) {
+                    sd = getSpecularData(quad, WorldExporterConfig.CLIENT.perceptualRoughness.get());
+                }
+
+                String metalOutputLine = null;
+                if (!resourceToMetalLineMap.containsKey(quadResource) && sd != null) {
+                    if (!WorldExporterConfig.CLIENT.forceOutputUniformMaps.get()
+                            && LABPBRParser.isUniform(sd.metallic)
+                            && sd.metallic[0] > 0.0f) {
+                        metalOutputLine = "Pm " + sd.metallic[0] + '\n';
                     } else {
-                        metalOutputLine = resourceToMetalLineMap.getOrDefault(quadResource, null);
-                    }
-                    if (metalOutputLine != null) {
-                        mtlWriter.write(metalOutputLine);
+                        BufferedImage metal = LABPBRParser.getMetalImage(sd.metallic, sd.cols_width);
+                        if (LABPBRParser.hasMetal(metal)) {
+                            String subpath = modelName + "_m.png";
+                            metalOutputLine = "map_Pm " + TEXTURE_DIR + '/' + subpath + '\n';
+                            resourceToMetalLineMap.put(quadResource, metalOutputLine);
+                            writeTextureOnThread(new File(texturePath, subpath), metal);
+                        }
                     }
+                } else {
+                    metalOutputLine = resourceToMetalLineMap.getOrDefault(quadResource, null);
+                }
+                if (metalOutputLine != null) {
+                    mtlWriter.write(metalOutputLine);
+                }
 
-                    String roughnessOutputLine = null;
-                    if (!resourceToRoughnessLineMap.containsKey(quadResource) && sd != null) {
-                        if (!WorldExporterConfig.CLIENT.forceOutputUniformMaps.get()
-                                && LABPBRParser.isUniform(sd.roughness)
-                                && sd.roughness[0] > 0.0f) {
-                            roughnessOutputLine = "Pr " + sd.roughness[0] + '\n';
-                        } else {
-                            BufferedImage roughness = LABPBRParser.getRoughnessImage(sd.roughness, sd.cols_width);
-                            if (LABPBRParser.hasRoughness(roughness)) {
-                                String subpath = modelName + "_r.png";
-                                roughnessOutputLine = "map_Pr " + TEXTURE_DIR + '/' + subpath + '\n';
-                                resourceToRoughnessLineMap.put(quadResource, roughnessOutputLine);
-                                writeTextureOnThread(new File(texturePath, subpath), roughness);
-                            }
-                        }
+                String roughnessOutputLine = null;
+                if (!resourceToRoughnessLineMap.containsKey(quadResource) && sd != null) {
+                    if (!WorldExporterConfig.CLIENT.forceOutputUniformMaps.get()
+                            && LABPBRParser.isUniform(sd.roughness)
+                            && sd.roughness[0] > 0.0f) {
+                        roughnessOutputLine = "Pr " + sd.roughness[0] + '\n';
                     } else {
-                        roughnessOutputLine = resourceToRoughnessLineMap.getOrDefault(quadResource, null);
-                    }
-                    if (roughnessOutputLine != null) {
-                        mtlWriter.write(roughnessOutputLine);
+                        BufferedImage roughness = LABPBRParser.getRoughnessImage(sd.roughness, sd.cols_width);
+                        if (LABPBRParser.hasRoughness(roughness)) {
+                            String subpath = modelName + "_r.png";
+                            roughnessOutputLine = "map_Pr " + TEXTURE_DIR + '/' + subpath + '\n';
+                            resourceToRoughnessLineMap.put(quadResource, roughnessOutputLine);
+                            writeTextureOnThread(new File(texturePath, subpath), roughness);
+                        }
                     }
+                } else {
+                    roughnessOutputLine = resourceToRoughnessLineMap.getOrDefault(quadResource, null);
+                }
+                if (roughnessOutputLine != null) {
+                    mtlWriter.write(roughnessOutputLine);
+                }
 
-                    // Can this be made more accurate? How?
-                    // Currently, if specular map has no meaningful data whatsoever -> use fallback
-                    String emissiveTextureName;
-                    if (modelToEmissiveMap.containsKey(model)) {
-                        emissiveTextureName = modelToEmissiveMap.get(model);
-                        mtlWriter.write("map_Ke " + emissiveTextureName + '\n');
-                    } else if (sd != null) {
-                        if (LABPBRParser.hasEmissive(sd.emissiveness)) {
-                            if (WorldExporterConfig.CLIENT.squareEmissivity.get()) {
-                                for (int i = 0; i < sd.emissiveness.length; ++i) {
-                                    sd.emissiveness[i] *= sd.emissiveness[i];
-                                }
+                // Can this be made more accurate? How?
+                // Currently, if specular map has no meaningful data whatsoever -> use fallback
+                String emissiveTextureName;
+                if (modelToEmissiveMap.containsKey(model)) {
+                    emissiveTextureName = modelToEmissiveMap.get(model);
+                    mtlWriter.write("map_Ke " + emissiveTextureName + '\n');
+                } else if (sd != null) {
+                    if (LABPBRParser.hasEmissive(sd.emissiveness)) {
+                        if (WorldExporterConfig.CLIENT.squareEmissivity.get()) {
+                            for (int i = 0; i < sd.emissiveness.length; ++i) {
+                                sd.emissiveness[i] *= sd.emissiveness[i];
                             }
-
-                            String subpath = modelName + "_e.png";
-                            emissiveTextureName = TEXTURE_DIR + '/' + subpath;
-                            BufferedImage newEmissive = ImgUtils.applyTransparency(image, sd.emissiveness);
-                            // If the emissive image is equal to the base image, don't write a duplicate texture
-                            // This is disabled because it breaks Blender's OBJ importer
-//                            if (ImgUtils.compareImages(image, newEmissive)) {
-//                                emissiveTextureName = baseTextureName;  // modelName + ".png"
-//                            } else {
-//                                writeTextureOnThread(new File(texturePath, subpath), newEmissive);
-//                            }
-                            writeTextureOnThread(new File(texturePath, subpath), newEmissive);
-                            mtlWriter.write("map_Ke " + emissiveTextureName + '\n');
-                            modelToEmissiveMap.put(model, emissiveTextureName);
-                        } else if (!WorldExporterConfig.CLIENT.forceResourceEmissivity.get()) {
-                            emissiveFallback.run();
                         }
-                    } else {
+
+                        String subpath = modelName + "_e.png";
+                        emissiveTextureName = TEXTURE_DIR + '/' + subpath;
+                        BufferedImage newEmissive = ImgUtils.applyTransparency(image, sd.emissiveness);
+                        // If the emissive image is equal to the base image, don't write a duplicate texture
+                        // This is disabled because it breaks Blender's OBJ importer
+//                        if (ImgUtils.compareImages(image, newEmissive)) {
+//                            emissiveTextureName = baseTextureName;  // modelName + ".png"
+//                        } else {
+//                            writeTextureOnThread(new File(texturePath, subpath), newEmissive);
+//                        }
+                        writeTextureOnThread(new File(texturePath, subpath), newEmissive);
+                        mtlWriter.write("map_Ke " + emissiveTextureName + '\n');
+                        modelToEmissiveMap.put(model, emissiveTextureName);
+                    } else if (!WorldExporterConfig.CLIENT.forceResourceEmissivity.get()) {
                         emissiveFallback.run();
                     }
                 } else {
                     emissiveFallback.run();
                 }
-
-                mtlWriter.write("map_Kd " + TEXTURE_DIR + '/' + modelName + ".png" + "\n\n");
             } else {
-                modelId = modelToIdMap.get(model);
-            }
-
-            if (modelId == -1) {
-                continue;
+                emissiveFallback.run();
             }
 
-            quadsForModel.computeIfAbsent(modelId, k -> new ArrayList<>()).add(quad);
-        }
-
-        // write all related quads for each material/model id to .obj file
-        for (int modelId : quadsForModel.keySet()) {
-            objWriter.write("usemtl " + modelIdToName.get(modelId) + '\n');
-            for (Quad quad : quadsForModel.get(modelId)) {
-                objWriter.write(quadToObj(quad));
-            }
-        }
-    }
-
-    // returns a String of relevant .obj file lines that represent the quad
-    private synchronized String quadToObj(Quad quad) {
-        boolean hasUV = quad.hasUV();
-        StringBuilder result = new StringBuilder(256);
-        // loop through the quad vertices, calculating the .obj file index for position and uv coordinates
-        for (int i = 0; i < 4; ++i) {
-            Vertex vertex = quad.getVertices()[i];
-            Vector3f position = vertex.getPosition();
-            int vertIndex;
-            if (verticesCache.containsKey(position)) {
-                vertIndex = verticesCache.get(position);
-            } else {
-                vertIndex = ++vertCount;
-                verticesCache.put(position, vertIndex);
-                result.append("v ").append(position.x).append(' ').append(position.y).append(' ').append(position.z).append('\n');
-            }
-            vertUVIndices[i] = vertIndex;
-
-            if (hasUV) {
-                Vector2f uv = vertex.getUv();
-                int uvIndex;
-                if (uvCache.containsKey(uv)) {
-                    uvIndex = uvCache.get(uv);
-                } else {
-                    uvIndex = ++uvCount;
-                    uvCache.put(uv, uvIndex);
-                    result.append("vt ").append(uv.x).append(' ').append(uv.y).append('\n');
-                }
-                vertUVIndices[i + 4] = uvIndex;
-            }
-        }
-
-        if (hasUV) {
-            // use the indices to write the quad's face information with the format: f v1/vt1 v2/vt2 v3/vt3 v4/vt4
-            result.append("f ").append(vertUVIndices[0]).append('/').append(vertUVIndices[4]).append(' ');
-            result.append(vertUVIndices[1]).append('/').append(vertUVIndices[5]).append(' ');
-            result.append(vertUVIndices[2]).append('/').append(vertUVIndices[6]).append(' ');
-            result.append(vertUVIndices[3]).append('/').append(vertUVIndices[7]).append('\n');
+            mtlWriter.write("map_Kd " + TEXTURE_DIR + '/' + modelName + ".png" + "\n\n");
         } else {
-            result.append("f ").append(vertUVIndices[0]).append(' ');
-            result.append(vertUVIndices[1]).append(' ');
-            result.append(vertUVIndices[2]).append(' ');
-            result.append(vertUVIndices[3]).append('\n');
+            modelId = modelToIdMap.get(model);
         }
-
-        return result.toString();
-    }
-
-    private void writeTexture(File outputFile, BufferedImage image) {
-        String outputFileStr = outputFile.toString();
-        int slashIndex = outputFileStr.lastIndexOf(File.separatorChar);
-        slashIndex = slashIndex != -1 ? slashIndex : outputFileStr.length();
-        String fullRelativeDirectory = outputFileStr.substring(0, slashIndex);  // substring end is exclusive
-
-        try {
-            Files.createDirectories(new File(fullRelativeDirectory).toPath());
-            ImageIO.write(image, "png", outputFile);
-        } catch (IOException e) {
-            LOGGER.error("Could not save resource texture: " + outputFile);
-        }
-    }
-
-    private void writeTextureOnThread(File outputFile, BufferedImage image) {
-        addThreadTask(() -> writeTexture(outputFile, image));
+        return modelId;
     }
 }
@@ -1,10 +1,8 @@
 package bret.worldexporter;
 
 import bret.worldexporter.config.WorldExporterConfig;
-import bret.worldexporter.legacylwjgl.Matrix3f;
 import bret.worldexporter.legacylwjgl.Vector2f;
 import bret.worldexporter.legacylwjgl.Vector3f;
-import bret.worldexporter.util.VectorUtils;
 import net.minecraft.client.renderer.RenderType;
 import net.minecraft.client.renderer.texture.Texture;
 import net.minecraft.client.renderer.texture.TextureAtlasSprite;
@@ -16,6 +14,26 @@ import java.util.Objects;
 public class Quad {
     private static final float NORMAL_OVERLAP_SQ = 0.0001f;  // 0.01 regular distance
     private static final Vector3f DESIRED_NORM = new Vector3f(0, 0, 1);
+    // the number of floats written by getOverlapData
+    public static final int OVERLAP_DATA_SIZE = 9;
+    private static final Vector3f[] AXIS_NORMALS = {
+            new Vector3f(1, 0, 0), new Vector3f(-1, 0, 0),
+            new Vector3f(0, 1, 0), new Vector3f(0, -1, 0),
+            new Vector3f(0, 0, 1), new Vector3f(0, 0, -1)
+    };
+    // The rotations of AXIS_NORMALS to DESIRED_NORM only swap and negate coordinates, so rotating a quad that faces
+    // along an axis is a projection onto the axis plane. For each axis normal: the coordinate (0 = x, 1 = y, 2 = z)
+    // and sign that the rotated x, y and z take, the same entries as the matrices from VectorUtils.getRotationMatrix.
+    // The rotation to -z is the identity, since getRotationMatrix has no axis to rotate the opposite normal around.
+    private static final int[][] AXIS_PROJECTIONS = {
+            {2, 1, 1, 1, 0, -1},   // x: (z, y, -x)
+            {2, -1, 1, 1, 0, 1},   // -x: (-z, y, x)
+            {0, 1, 2, 1, 1, -1},   // y: (x, z, -y)
+            {0, 1, 2, -1, 1, 1},   // -y: (x, -z, y)
+            {0, 1, 1, 1, 2, 1},    // z: (x, y, z)
+            {0, 1, 1, 1, 2, 1}     // -z: (x, y, z)
+    };
+    private static final ThreadLocal<float[]> overlapScratch = ThreadLocal.withInitial(() -> new float[OVERLAP_DATA_SIZE * 2]);
     private final Vertex[] vertices = new Vertex[4];
     private final RenderType type;
     private ResourceLocation resource;
@@ -49,44 +67,43 @@ public class Quad {
     // otherwise, they are considered to overlap within TOLERANCE, and this returns their distance from each other
     // which is positive or negative relative to this quad
     public float overlaps(Quad second) {
-        Vector3f thisNorm = this.getNormal();
-        Vector3f secondNorm = second.getNormal();
+        return overlaps(second, WorldExporterConfig.CLIENT.overlapDistance.get().floatValue());
+    }
+
+    public float overlaps(Quad second, float overlapDistance) {
+        float[] scratch = overlapScratch.get();
+        this.getOverlapData(scratch, 0);
+        second.getOverlapData(scratch, OVERLAP_DATA_SIZE);
+        return overlaps(scratch, 0, scratch, OVERLAP_DATA_SIZE, overlapDistance);
+    }
+
+    // The result of overlaps() only depends on the overlap data of each quad (see getOverlapData), so callers comparing
+    // many quads can compute it once per quad and compare it here
+    public static float overlaps(float[] first, int firstOffset, float[] second, int secondOffset, float overlapDistance) {
         // if the normals are not relatively similar, they should not be considered overlapping (no z-fighting)
         // since they are normalized, comparing their distance is a good-enough estimate, though the distance also
         // needs to be checked against the max distance that can occur (2) if the normals face directly opposite each other
         // (given that the faces are not backface-culled)
-        float normalDistanceSq = thisNorm.distanceSq(secondNorm);
+        // (same as Vector3f.distanceSq, squaring a float difference in double is exact)
+        double normalDx = first[firstOffset] - second[secondOffset];
+        double normalDy = first[firstOffset + 1] - second[secondOffset + 1];
+        double normalDz = first[firstOffset + 2] - second[secondOffset + 2];
+        float normalDistanceSq = (float) (normalDx * normalDx + normalDy * normalDy + normalDz * normalDz);
         if (normalDistanceSq > NORMAL_OVERLAP_SQ && normalDistanceSq < 2 - NORMAL_OVERLAP_SQ) {
             return Float.POSITIVE_INFINITY;
         }
 
-        float overlapDistance = WorldExporterConfig.CLIENT.overlapDistance.get().floatValue();
-        // rotate a copy of both quads in space such that their x and y coordinates can be compared
-        // (such that they lie flat along a xy plane (the z coordinate will vary))
-        Quad thisCopy = new Quad(this);
-        Quad secondCopy = new Quad(second);
-
-        Matrix3f rotateByThis = VectorUtils.getRotationMatrix(thisNorm, DESIRED_NORM);
-        Matrix3f rotateBySecond = VectorUtils.getRotationMatrix(secondNorm, DESIRED_NORM);
-        for (int i = 0; i < 4; ++i) {
-            Vector3f vertPosThis = thisCopy.getVertices()[i].getPosition();
-            Vector3f vertPosSecond = secondCopy.getVertices()[i].getPosition();
-
-            Matrix3f.transform(rotateByThis, vertPosThis, vertPosThis);
-            Matrix3f.transform(rotateBySecond, vertPosSecond, vertPosSecond);
-        }
-
-        Vector3f[] minMaxPos = thisCopy.minMaxPositions();
-        Vector3f[] minMaxPosSecond = secondCopy.minMaxPositions();
-
-        float distance = minMaxPos[1].z - minMaxPosSecond[1].z;
+        // the rotated bounds start after the normal: min x, y, z then max x, y, z
+        int min = firstOffset + 3, max = firstOffset + 6;
+        int minSecond = secondOffset + 3, maxSecond = secondOffset + 6;
+        float distance = first[max + 2] - second[maxSecond + 2];
         // the planes are not close enough that they should be considered overlapping
         if (Math.abs(distance) > overlapDistance) {
             return Float.POSITIVE_INFINITY;
         }
 
-        if ((minMaxPos[1].x - minMaxPosSecond[0].x > overlapDistance) && (minMaxPos[0].x - minMaxPosSecond[1].x < -overlapDistance)
-                && (minMaxPos[1].y - minMaxPosSecond[0].y > overlapDistance) && (minMaxPos[0].y - minMaxPosSecond[1].y) < -overlapDistance) {
+        if ((first[max] - second[minSecond] > overlapDistance) && (first[min] - second[maxSecond] < -overlapDistance)
+                && (first[max + 1] - second[minSecond + 1] > overlapDistance) && (first[min + 1] - second[maxSecond + 1]) < -overlapDistance) {
             // the quads are inside each other (this is probably not accurate if they are rotated differently)
             return distance;
         } else {
@@ -94,6 +111,120 @@ public class Quad {
         }
     }
 
+    // Writes OVERLAP_DATA_SIZE floats to dest without allocating: this quad's normal (the same values as getNormal()),
+    // then the min and max positions of this quad rotated in space such that it lies flat along a xy plane (the z
+    // coordinate will vary), so that the x and y coordinates of two quads can be compared.
+    // Quads facing along an axis are projected onto the axis plane, which gives the same values as rotating them. Any
+    // other quad is rotated with the same float operations as VectorUtils.getRotationMatrix and Matrix3f.transform.
+    public void getOverlapData(float[] dest, int offset) {
+        validate();
+
+        Vector3f p0 = vertices[0].getPosition();
+        Vector3f p1 = vertices[1].getPosition();
+        Vector3f p2 = vertices[2].getPosition();
+        float lx = p1.x - p0.x, ly = p1.y - p0.y, lz = p1.z - p0.z;
+        float rx = p2.x - p0.x, ry = p2.y - p0.y, rz = p2.z - p0.z;
+        float cx = ly * rz - lz * ry;
+        float cy = rx * lz - rz * lx;
+        float cz = lx * ry - ly * rx;
+        float length = (float) Math.sqrt(cx * cx + cy * cy + cz * cz);
+        float nx = cx / length, ny = cy / length, nz = cz / length;
+        dest[offset] = nx;
+        dest[offset + 1] = ny;
+        dest[offset + 2] = nz;
+
+        // nearly every Minecraft quad faces along an axis, and is projected onto its plane instead of rotated
+        for (int i = 0; i < AXIS_NORMALS.length; ++i) {
+            if (nx == AXIS_NORMALS[i].x && ny == AXIS_NORMALS[i].y && nz == AXIS_NORMALS[i].z) {
+                project(AXIS_PROJECTIONS[i], dest, offset + 3);
+                return;
+            }
+        }
+
+        float m00, m01, m02, m10, m11, m12, m20, m21, m22;
+        // VectorUtils.getRotationMatrix(normal, DESIRED_NORM), inlined
+        float tx = DESIRED_NORM.x, ty = DESIRED_NORM.y, tz = DESIRED_NORM.z;
+        float fromLength = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        float toLength = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+        boolean identity = fromLength == 0 || toLength == 0;
+        float c = 0, s = 0, ax = 0, ay = 0, az = 0;
+        if (!identity) {
+            c = (nx * tx + ny * ty + nz * tz) / fromLength / toLength;
+            float axisX = ny * tz - nz * ty;
+            float axisY = tx * nz - tz * nx;
+            float axisZ = nx * ty - ny * tx;
+            float axisLength = (float) Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+            ax = axisX / axisLength;
+            ay = axisY / axisLength;
+            az = axisZ / axisLength;
+            identity = ax != ax || ay != ay || az != az;
+            if (!identity) {
+                s = (float) Math.sqrt(1 - c * c);
+                identity = s != s;
+            }
+        }
+
+        if (identity) {
+            m00 = 1;
+            m01 = 0;
+            m02 = 0;
+            m10 = 0;
+            m11 = 1;
+            m12 = 0;
+            m20 = 0;
+            m21 = 0;
+            m22 = 1;
+        } else {
+            float C = 1 - c;
+            m00 = ax * ax * C + c;
+            m01 = ax * ay * C - az * s;
+            m02 = ax * az * C + ay * s;
+            m10 = ay * ax * C + az * s;
+            m11 = ay * ay * C + c;
+            m12 = ay * az * C - ax * s;
+            m20 = az * ax * C - ay * s;
+            m21 = az * ay * C + ax * s;
+            m22 = az * az * C + c;
+        }
+
+        int min = offset + 3, max = offset + 6;
+        for (int i = 0; i < 4; ++i) {
+            Vector3f position = vertices[i].getPosition();
+            // Matrix3f.transform
+            float x = m00 * position.x + m10 * position.y + m20 * position.z;
+            float y = m01 * position.x + m11 * position.y + m21 * position.z;
+            float z = m02 * position.x + m12 * position.y + m22 * position.z;
+            if (i == 0) {
+                dest[min] = dest[max] = x;
+                dest[min + 1] = dest[max + 1] = y;
+                dest[min + 2] = dest[max + 2] = z;
+                continue;
+            }
+            if (x < dest[min]) dest[min] = x;
+            if (y < dest[min + 1]) dest[min + 1] = y;
+            if (z < dest[min + 2]) dest[min + 2] = z;
+            if (x > dest[max]) dest[max] = x;
+            if (y > dest[max + 1]) dest[max + 1] = y;
+            if (z > dest[max + 2]) dest[max + 2] = z;
+        }
+    }
+
+    // writes the min and max positions of this quad, projected by one of AXIS_PROJECTIONS, to dest
+    private void project(int[] projection, float[] dest, int offset) {
+        for (int i = 0; i < 4; ++i) {
+            Vector3f position = vertices[i].getPosition();
+            for (int axis = 0; axis < 3; ++axis) {
+                float value = projection[axis * 2 + 1] * coordinate(position, projection[axis * 2]);
+                if (i == 0 || value < dest[offset + axis]) dest[offset + axis] = value;
+                if (i == 0 || value > dest[offset + 3 + axis]) dest[offset + 3 + axis] = value;
+            }
+        }
+    }
+
+    private static float coordinate(Vector3f position, int axis) {
+        return axis == 0 ? position.x : axis == 1 ? position.y : position.z;
+    }
+
     public Vector3f[] minMaxPositions() {
         validate();
 
@@ -0,0 +1,177 @@
+package bret.worldexporter;
+
+import bret.worldexporter.legacylwjgl.Vector2f;
+import bret.worldexporter.legacylwjgl.Vector3f;
+
+import java.util.*;
+
+// A compact store for the finished quads of an exported chunk. The vertex data of every quad is kept in parallel
+// primitive arrays instead of Quad, Vertex, Vector3f and Vector2f objects, which takes about 100 bytes per quad instead
+// of about 400. Everything a quad shares with many others (render type, resource, texture, sprite, color, light value
+// and whether it has uvs) is interned per chunk as a material, represented by the first quad that used it.
+// Quads must be complete (4 vertices) and are referred to by their index in the buffer.
+public class QuadBuffer {
+    private float[] positions;  // x, y, z of each of the 4 vertices
+    private float[] uvs;        // u, v of each of the 4 vertices, 0 if the quad has no uv
+    private int[] colors;       // color of each of the 4 vertices
+    private int[] materials;
+    private final List<Quad> materialQuads = new ArrayList<>();
+    private final Map<MaterialKey, Integer> materialIds = new HashMap<>();
+    private int size = 0;
+
+    public QuadBuffer(int initialCapacity) {
+        initialCapacity = Math.max(1, initialCapacity);
+        positions = new float[initialCapacity * 12];
+        uvs = new float[initialCapacity * 8];
+        colors = new int[initialCapacity * 4];
+        materials = new int[initialCapacity];
+    }
+
+    public static QuadBuffer of(Collection<Quad> quads) {
+        QuadBuffer buffer = new QuadBuffer(quads.size());
+        for (Quad quad : quads) {
+            buffer.add(quad);
+        }
+        return buffer;
+    }
+
+    public void add(Quad quad) {
+        if (size == materials.length) {
+            grow();
+        }
+
+        boolean hasUV = quad.hasUV();
+        Vertex[] vertices = quad.getVertices();
+        for (int i = 0; i < 4; ++i) {
+            Vertex vertex = vertices[i];
+            Vector3f position = vertex.getPosition();
+            int offset = size * 12 + i * 3;
+            positions[offset] = position.x;
+            positions[offset + 1] = position.y;
+            positions[offset + 2] = position.z;
+            if (hasUV) {
+                Vector2f uv = vertex.getUv();
+                uvs[size * 8 + i * 2] = uv.x;
+                uvs[size * 8 + i * 2 + 1] = uv.y;
+            }
+            colors[size * 4 + i] = vertex.getColor();
+        }
+
+        MaterialKey key = new MaterialKey(quad);
+        Integer material = materialIds.get(key);
+        if (material == null) {
+            material = materialQuads.size();
+            materialIds.put(key, material);
+            materialQuads.add(quad);
+        }
+        materials[size++] = material;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // materials are numbered in the order they are first used by a quad
+    public int getMaterialCount() {
+        return materialQuads.size();
+    }
+
+    public int getMaterial(int quad) {
+        return materials[quad];
+    }
+
+    // the first quad added with the material, only its non-vertex data and color (the first vertex color) apply to
+    // the other quads of the material
+    public Quad getMaterialQuad(int material) {
+        return materialQuads.get(material);
+    }
+
+    public boolean hasUV(int quad) {
+        return materialQuads.get(materials[quad]).hasUV();
+    }
+
+    public float getX(int quad, int vertex) {
+        return positions[quad * 12 + vertex * 3];
+    }
+
+    public float getY(int quad, int vertex) {
+        return positions[quad * 12 + vertex * 3 + 1];
+    }
+
+    public float getZ(int quad, int vertex) {
+        return positions[quad * 12 + vertex * 3 + 2];
+    }
+
+    public float getU(int quad, int vertex) {
+        return uvs[quad * 8 + vertex * 2];
+    }
+
+    public float getV(int quad, int vertex) {
+        return uvs[quad * 8 + vertex * 2 + 1];
+    }
+
+    public int getColor(int quad, int vertex) {
+        return colors[quad * 4 + vertex];
+    }
+
+    // unpacks the quad into a new Quad with everything but its vertices taken from its material quad
+    public Quad getQuad(int quad) {
+        Quad materialQuad = materialQuads.get(materials[quad]);
+        boolean hasUV = materialQuad.hasUV();
+        Quad unpacked = new Quad(materialQuad.getType(), materialQuad.getResource());
+        for (int i = 0; i < 4; ++i) {
+            Vertex vertex = new Vertex();
+            vertex.setPosition(new Vector3f(getX(quad, i), getY(quad, i), getZ(quad, i)));
+            if (hasUV) {
+                vertex.setUv(new Vector2f(getU(quad, i), getV(quad, i)));
+            }
+            vertex.setColor(getColor(quad, i));
+            unpacked.addVertex(vertex);
+        }
+        unpacked.setTexture(materialQuad.getTexture());
+        unpacked.setSprite(materialQuad.getSprite());
+        unpacked.setLightValue(materialQuad.getLightValue());
+        return unpacked;
+    }
+
+    private void grow() {
+        int capacity = materials.length * 2;
+        positions = Arrays.copyOf(positions, capacity * 12);
+        uvs = Arrays.copyOf(uvs, capacity * 8);
+        colors = Arrays.copyOf(colors, capacity * 4);
+        materials = Arrays.copyOf(materials, capacity);
+    }
+
+    // quads have the same material if everything but their vertices (other than the color of the first) is the same
+    private static class MaterialKey {
+        private final Quad quad;
+        private final int hash;
+
+        private MaterialKey(Quad quad) {
+            this.quad = quad;
+            this.hash = Objects.hash(System.identityHashCode(quad.getType()), System.identityHashCode(quad.getResource()),
+                    System.identityHashCode(quad.getTexture()), System.identityHashCode(quad.getSprite()),
+                    quad.getColor(), quad.getLightValue(), quad.hasUV());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Quad other = ((MaterialKey) o).quad;
+            return hash == ((MaterialKey) o).hash
+                    && quad.getType() == other.getType()
+                    && quad.getResource() == other.getResource()
+                    && quad.getTexture() == other.getTexture()
+                    && quad.getSprite() == other.getSprite()
+                    && quad.getColor() == other.getColor()
+                    && quad.getLightValue() == other.getLightValue()
+                    && quad.hasUV() == other.hasUV();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package bret.worldexporter;
+
+import bret.worldexporter.legacylwjgl.Vector3f;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Objects;
+
+// An order independent hash key for a quad. Two keys are equal exactly when Quad.isEquivalentTo considers their
+// quads equivalent: the same render type, resource, texture, sprite (by reference), light value and uv bounds, and
+// the same set of (position, color) vertices in any order.
+public class QuadKey {
+    private final Quad quad;
+    // x, y, z bits and color of each vertex, sorted so that the vertex order doesn't matter
+    private final int[] vertices;
+    private final int hash;
+
+    private QuadKey(Quad quad, int[] vertices) {
+        this.quad = quad;
+        this.vertices = vertices;
+        int result = Objects.hash(System.identityHashCode(quad.getType()), System.identityHashCode(quad.getResource()),
+                System.identityHashCode(quad.getTexture()), System.identityHashCode(quad.getSprite()),
+                quad.getLightValue(), uvBounds(quad));
+        this.hash = 31 * result + Arrays.hashCode(vertices);
+    }
+
+    // Returns null if the quad can't be equivalent to any other quad. isEquivalentTo never matches a vertex with a
+    // NaN position, and a quad with a repeated (position, color) vertex uses up all matching vertices of the other
+    // quad on the first one.
+    @Nullable
+    public static QuadKey of(Quad quad) {
+        int count = quad.getCount();
+        long[] packed = new long[count * 2];
+        for (int i = 0; i < count; ++i) {
+            Vertex vertex = quad.getVertices()[i];
+            Vector3f position = vertex.getPosition();
+            if (position == null || position.x != position.x || position.y != position.y || position.z != position.z) {
+                return null;
+            }
+            packed[i * 2] = ((long) bits(position.x) << 32) | (bits(position.y) & 0xFFFFFFFFL);
+            packed[i * 2 + 1] = ((long) bits(position.z) << 32) | (vertex.getColor() & 0xFFFFFFFFL);
+        }
+
+        // sort the vertices by their packed (x, y) then (z, color) values
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int compare = Long.compare(packed[a * 2], packed[b * 2]);
+            return compare != 0 ? compare : Long.compare(packed[a * 2 + 1], packed[b * 2 + 1]);
+        });
+
+        int[] vertices = new int[count * 4];
+        for (int i = 0; i < count; ++i) {
+            long xy = packed[order[i] * 2];
+            long zColor = packed[order[i] * 2 + 1];
+            if (i > 0 && xy == packed[order[i - 1] * 2] && zColor == packed[order[i - 1] * 2 + 1]) {
+                return null;
+            }
+            vertices[i * 4] = (int) (xy >>> 32);
+            vertices[i * 4 + 1] = (int) xy;
+            vertices[i * 4 + 2] = (int) (zColor >>> 32);
+            vertices[i * 4 + 3] = (int) zColor;
+        }
+        return new QuadKey(quad, vertices);
+    }
+
+    // the uv bounds are only set on complete quads
+    @Nullable
+    private static UVBounds uvBounds(Quad quad) {
+        return quad.getCount() == 4 ? quad.getUvBounds() : null;
+    }
+
+    private static int bits(float value) {
+        // adding 0.0f turns -0.0f into 0.0f, which isEquivalentTo treats as equal
+        return Float.floatToIntBits(value + 0.0f);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QuadKey other = (QuadKey) o;
+        Quad otherQuad = other.quad;
+        return hash == other.hash
+                && quad.getType() == otherQuad.getType()
+                && quad.getResource() == otherQuad.getResource()
+                && quad.getTexture() == otherQuad.getTexture()
+                && quad.getSprite() == otherQuad.getSprite()
+                && quad.getLightValue() == otherQuad.getLightValue()
+                && Objects.equals(uvBounds(quad), uvBounds(otherQuad))
+                && Arrays.equals(vertices, other.vertices);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,121 @@
+package bret.worldexporter;
+
+import bret.worldexporter.legacylwjgl.Vector3f;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.List;
+
+// Finds the quads in a list that overlap a given quad (as defined by Quad.overlaps) without comparing it to every
+// other quad. Each quad's overlap data (normal and rotated bounds) is cached in one flat array, and quads are bucketed by the quantized plane
+// offset (the z of their rotated bounds) that Quad.overlaps compares first. Only quads in the same or a neighboring
+// bucket can be within overlapDistance of each other, and those candidates are then checked against the cached 2D
+// extents. The results are identical to calling Quad.overlaps on every pair.
+public class QuadOverlapIndex {
+    // buckets must be at least twice overlapDistance wide so float rounding in the distance can't skip a bucket
+    private static final float MIN_BUCKET_SIZE = 0.001f;
+    private static final double MAX_BUCKET_KEY = 1L << 60;
+    private static final long UNBUCKETED = Long.MIN_VALUE;
+    private final List<Quad> quads;
+    private final float overlapDistance;
+    private final double bucketSize;
+    // Quad.OVERLAP_DATA_SIZE floats per quad, see Quad.getOverlapData
+    private final float[] overlapData;
+    private final long[] bucketKeys;
+    private final Long2ObjectOpenHashMap<IntArrayList> buckets = new Long2ObjectOpenHashMap<>();
+    // quads with a non-finite (or absurdly large) plane offset can't be bucketed, so they are candidates for every quad
+    private final IntArrayList unbucketed = new IntArrayList();
+    private final IntArrayList candidates = new IntArrayList();
+
+    public QuadOverlapIndex(List<Quad> quads, float overlapDistance) {
+        this.quads = quads;
+        this.overlapDistance = overlapDistance;
+        this.bucketSize = Math.max(MIN_BUCKET_SIZE, overlapDistance * 2.0);
+        int size = quads.size();
+        overlapData = new float[size * Quad.OVERLAP_DATA_SIZE];
+        bucketKeys = new long[size];
+        for (int i = 0; i < size; ++i) {
+            update(i);
+            add(i);
+        }
+    }
+
+    // Appends the index and distance (see Quad.overlaps) of each quad after index i that overlaps quad i, in ascending
+    // index order
+    public void findOverlaps(int i, IntArrayList overlapIndices, FloatArrayList overlapDistances) {
+        candidates.clear();
+        if (bucketKeys[i] == UNBUCKETED) {
+            // a quad that can't be bucketed is compared to everything after it, same as the unindexed check
+            for (int j = i + 1; j < quads.size(); ++j) {
+                candidates.add(j);
+            }
+        } else {
+            for (long key = bucketKeys[i] - 1; key <= bucketKeys[i] + 1; ++key) {
+                addCandidates(buckets.get(key), i);
+            }
+            addCandidates(unbucketed, i);
+            IntArrays.quickSort(candidates.elements(), 0, candidates.size());
+        }
+
+        for (int c = 0; c < candidates.size(); ++c) {
+            int j = candidates.getInt(c);
+            float distance = Quad.overlaps(overlapData, i * Quad.OVERLAP_DATA_SIZE, overlapData, j * Quad.OVERLAP_DATA_SIZE, overlapDistance);
+            if (distance != Float.POSITIVE_INFINITY) {
+                overlapIndices.add(j);
+                overlapDistances.add(distance);
+            }
+        }
+    }
+
+    // a copy of the cached normal of quad i
+    public Vector3f getNormal(int i) {
+        int offset = i * Quad.OVERLAP_DATA_SIZE;
+        return new Vector3f(overlapData[offset], overlapData[offset + 1], overlapData[offset + 2]);
+    }
+
+    // translates quad i and updates its cached state
+    public void translate(int i, Vector3f translation) {
+        quads.get(i).translate(translation);
+        remove(i);
+        update(i);
+        add(i);
+    }
+
+    private void addCandidates(IntArrayList bucket, int i) {
+        if (bucket == null) return;
+
+        for (int b = 0; b < bucket.size(); ++b) {
+            int j = bucket.getInt(b);
+            if (j > i) {
+                candidates.add(j);
+            }
+        }
+    }
+
+    private void update(int i) {
+        int offset = i * Quad.OVERLAP_DATA_SIZE;
+        quads.get(i).getOverlapData(overlapData, offset);
+        double key = Math.floor(overlapData[offset + 8] / bucketSize);  // the max z of the rotated bounds
+        bucketKeys[i] = Math.abs(key) < MAX_BUCKET_KEY ? (long) key : UNBUCKETED;  // false for NaN
+    }
+
+    private void add(int i) {
+        if (bucketKeys[i] == UNBUCKETED) {
+            unbucketed.add(i);
+        } else {
+            IntArrayList bucket = buckets.get(bucketKeys[i]);
+            if (bucket == null) {
+                bucket = new IntArrayList();
+                buckets.put(bucketKeys[i], bucket);
+            }
+            bucket.add(i);
+        }
+    }
+
+    private void remove(int i) {
+        IntArrayList bucket = bucketKeys[i] == UNBUCKETED ? unbucketed : buckets.get(bucketKeys[i]);
+        bucket.rem(i);
+    }
+}
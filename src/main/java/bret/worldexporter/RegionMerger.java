@@ -0,0 +1,95 @@
+package bret.worldexporter;
+
+import net.minecraft.util.math.BlockPos;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.*;
+
+// Merges faces across chunk borders. The chunks of each region of regionSize by regionSize chunks are held until every
+// chunk of the region that is exported has arrived, then their quads are optimized together and handed on as a single
+// ExportChunk per level of detail. Chunks are exported region by region (see Exporter.exportQuads), so only the few
+// regions that workers are currently in are held at a time.
+// Regions are merged on the worker thread that adds their last chunk.
+class RegionMerger {
+    private final Exporter exporter;
+    private final int regionSize;
+    // the number of chunks of each region that haven't arrived yet
+    private final Map<Long, Integer> missingChunks = new HashMap<>();
+    private final Map<Long, List<ExportChunk>> heldChunks = new HashMap<>();
+
+    // chunks are the boundaries of every chunk that will be exported
+    RegionMerger(Exporter exporter, int regionSize, Collection<Pair<BlockPos, BlockPos>> chunks) {
+        this.exporter = exporter;
+        this.regionSize = regionSize;
+        for (Pair<BlockPos, BlockPos> chunk : chunks) {
+            missingChunks.merge(getRegionKey(chunk), 1, Integer::sum);
+        }
+    }
+
+    long getRegionKey(Pair<BlockPos, BlockPos> chunk) {
+        return getRegionKey(exporter.getChunkX(chunk.getLeft()), exporter.getChunkZ(chunk.getLeft()));
+    }
+
+    private long getRegionKey(int chunkX, int chunkZ) {
+        return ExportCheckpoint.chunkKey(Math.floorDiv(chunkX, regionSize), Math.floorDiv(chunkZ, regionSize));
+    }
+
+    // Holds the chunks, whose budget is released since the held chunks are bounded by the regions in progress instead.
+    // Returns the merged chunks of the regions they completed, with their budget reserved.
+    ArrayList<ExportChunk> add(List<ExportChunk> chunks) throws InterruptedException {
+        List<List<ExportChunk>> completed = new ArrayList<>();
+        synchronized (this) {
+            for (ExportChunk chunk : chunks) {
+                long region = getRegionKey(chunk.xChunkPos, chunk.zChunkPos);
+                heldChunks.computeIfAbsent(region, k -> new ArrayList<>()).add(chunk);
+                if (missingChunks.merge(region, -1, Integer::sum) <= 0) {
+                    missingChunks.remove(region);
+                    completed.add(heldChunks.remove(region));
+                }
+            }
+        }
+        chunks.forEach(exporter.budget::release);
+        return merge(completed);
+    }
+
+    // Merges the regions that are still missing chunks (which could not be exported). Only called once every worker
+    // has finished.
+    ArrayList<ExportChunk> flush() throws InterruptedException {
+        List<List<ExportChunk>> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(heldChunks.values());
+            heldChunks.clear();
+            missingChunks.clear();
+        }
+        return merge(remaining);
+    }
+
+    private ArrayList<ExportChunk> merge(List<List<ExportChunk>> regions) throws InterruptedException {
+        ArrayList<ExportChunk> merged = new ArrayList<>();
+        for (List<ExportChunk> region : regions) {
+            // chunks arrive in whatever order the workers finish them, sorting them keeps the output the same
+            region.sort(Comparator.<ExportChunk>comparingInt(chunk -> chunk.xChunkPos).thenComparingInt(chunk -> chunk.zChunkPos));
+            int regionX = Math.floorDiv(region.get(0).xChunkPos, regionSize) * regionSize;
+            int regionZ = Math.floorDiv(region.get(0).zChunkPos, regionSize) * regionSize;
+
+            // each level of detail is kept in a chunk of its own, like it is without regions
+            Map<Integer, ArrayList<Quad>> lodQuads = new TreeMap<>();
+            for (ExportChunk chunk : region) {
+                ArrayList<Quad> quads = lodQuads.computeIfAbsent(chunk.lodLevel, k -> new ArrayList<>());
+                for (int i = 0; i < chunk.quads.size(); ++i) {
+                    quads.add(chunk.quads.getQuad(i));
+                }
+            }
+            region.clear();
+            for (Map.Entry<Integer, ArrayList<Quad>> entry : lodQuads.entrySet()) {
+                long optimizeStart = System.nanoTime();
+                ArrayList<Quad> quads = new MeshOptimizer().optimize(entry.getValue());
+                exporter.stats.addTime(ExportStats.Phase.MESH_OPTIMIZER, System.nanoTime() - optimizeStart);
+                ExportChunk chunk = new ExportChunk(QuadBuffer.of(quads), regionX, regionZ, entry.getKey(), regionSize);
+                exporter.budget.acquire(chunk);
+                merged.add(chunk);
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,104 @@
+package bret.worldexporter;
+
+import bret.worldexporter.legacylwjgl.Vector2f;
+import bret.worldexporter.legacylwjgl.Vector3f;
+import net.minecraft.client.renderer.vertex.VertexFormat;
+import net.minecraft.client.renderer.vertex.VertexFormatElement;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static bret.worldexporter.Exporter.LOGGER;
+
+// Reads vertices of one VertexFormat out of a BufferBuilder's buffer. The byte offsets of the elements that are
+// exported (a float POSITION, a ubyte COLOR and UV0) are found once per format, so reading a vertex is a few absolute
+// gets instead of a walk over all of the format's elements. The buffer's position is never changed.
+public class VertexDecoder {
+    private static final Map<VertexFormat, VertexDecoder> decoders = new ConcurrentHashMap<>();
+    private final int vertexSize;
+    // byte offsets within a vertex, -1 if the format has no supported element for it
+    private final int positionOffset;
+    private final int colorOffset;
+    private final int uvOffset;
+
+    private VertexDecoder(VertexFormat format) {
+        int offset = 0;
+        int position = -1;
+        int color = -1;
+        int uv = -1;
+        for (VertexFormatElement element : format.getElements()) {
+            switch (element.getUsage()) {
+                case POSITION:
+                    if (element.getType() == VertexFormatElement.Type.FLOAT) {
+                        position = offset;
+                    } else {
+                        LOGGER.warn("Vertex position element had no supported type, skipping: " + element);
+                    }
+                    break;
+                case COLOR:
+                    if (element.getType() == VertexFormatElement.Type.UBYTE) {
+                        color = offset;
+                    } else {
+                        LOGGER.warn("Vertex color element had no supported type, skipping: " + element);
+                    }
+                    break;
+                case UV:
+                    // ELEMENT_UV0 - texture coordinates - 2 float elements
+                    // UV1 (overlay) and UV2 (lightmap) are not exported
+                    if (element.getIndex() == 0) {
+                        uv = offset;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            offset += element.getByteSize();
+        }
+
+        this.vertexSize = offset;
+        this.positionOffset = position;
+        this.colorOffset = color;
+        this.uvOffset = uv;
+    }
+
+    public static VertexDecoder of(VertexFormat format) {
+        return decoders.computeIfAbsent(format, VertexDecoder::new);
+    }
+
+    public int getVertexSize() {
+        return vertexSize;
+    }
+
+    // returns true if any of the count vertices starting at byte index start has a NaN uv coordinate
+    public boolean hasNaNUv(ByteBuffer buffer, int start, int count) {
+        if (uvOffset == -1) return false;
+
+        for (int i = 0; i < count; ++i) {
+            int index = start + i * vertexSize + uvOffset;
+            float u = buffer.getFloat(index);
+            float v = buffer.getFloat(index + 4);
+            if (u != u || v != v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // reads the vertex starting at byte index start
+    public Vertex decode(ByteBuffer buffer, int start) {
+        Vertex vertex = new Vertex();
+        if (positionOffset != -1) {
+            int index = start + positionOffset;
+            vertex.setPosition(new Vector3f(buffer.getFloat(index), buffer.getFloat(index + 4), buffer.getFloat(index + 8)));
+        }
+        if (colorOffset != -1) {
+            vertex.setColor(buffer.getInt(start + colorOffset));
+        }
+        if (uvOffset != -1) {
+            int index = start + uvOffset;
+            vertex.setUv(new Vector2f(buffer.getFloat(index), buffer.getFloat(index + 4)));
+        }
+        return vertex;
+    }
+}
@@ -0,0 +1,308 @@
+package bret.worldexporter;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+// The cells of the export volume that can be seen from outside of it (or from a viewpoint inside it), found with a
+// flood fill through every cell that isn't a full opaque block. Blocks that neither are in nor touch a reached cell,
+// such as the walls of sealed caves, can't be seen and don't have to be exported.
+// Reached cells are kept as one bitset per chunk column, which is only created once the flood fill gets there. The
+// opacity of every column is read from the world before the fill starts, see OpacitySnapshot. The fill works through one chunk at a time, so its stack never holds more than a chunk's worth of cells.
+// Immutable once computed and safe to query from multiple threads.
+public class VisibilityMap {
+    private final int minX, minY, minZ, maxX, maxY, maxZ;
+    private final int chunkMinX, chunkMinZ, chunksX, chunksZ;
+    // whether cells outside of the volume count as reached, so that the outer faces of boundary blocks are visible.
+    // Set by the flood fill whenever it floods from the boundary, including when the viewpoint is unusable.
+    private boolean outsideReached = false;
+    // one bit per cell of each chunk column, null if no cell of it was reached
+    private final long[][] reached;
+    private long reachedCount = 0;
+
+    // start is the corner with the higher coordinates, end the one with the lower coordinates
+    private VisibilityMap(BlockPos start, BlockPos end) {
+        minX = end.getX();
+        minY = end.getY();
+        minZ = end.getZ();
+        maxX = start.getX();
+        maxY = start.getY();
+        maxZ = start.getZ();
+        chunkMinX = minX >> 4;
+        chunkMinZ = minZ >> 4;
+        chunksX = (maxX >> 4) - chunkMinX + 1;
+        chunksZ = (maxZ >> 4) - chunkMinZ + 1;
+        reached = new long[chunksX * chunksZ][];
+    }
+
+    // Floods the volume from start to end, either from all of its boundary or from viewpoint if that is an open cell
+    // inside of it. Only reads the world through opacitySource, so it can run on any thread once an OpacitySnapshot
+    // is loaded.
+    static VisibilityMap compute(BlockPos start, BlockPos end, @Nullable BlockPos viewpoint, OpacitySource opacitySource) {
+        VisibilityMap map = new VisibilityMap(start, end);
+        new Flood(map, opacitySource).run(viewpoint);
+        return map;
+    }
+
+    // Returns true if the block at pos can be seen: it or one of its neighbors was reached
+    public boolean isVisible(BlockPos pos) {
+        int x = pos.getX(), y = pos.getY(), z = pos.getZ();
+        return isReached(x, y, z) || isReached(x - 1, y, z) || isReached(x + 1, y, z) || isReached(x, y - 1, z)
+                || isReached(x, y + 1, z) || isReached(x, y, z - 1) || isReached(x, y, z + 1);
+    }
+
+    // A hash of the reached cells that decide which blocks of the chunk column are visible, which includes those of the
+    // neighboring columns
+    public long getFingerprint(int chunkX, int chunkZ) {
+        long hash = 0;
+        for (int dx = -1; dx <= 1; ++dx) {
+            for (int dz = -1; dz <= 1; ++dz) {
+                if (dx != 0 && dz != 0) continue;
+
+                int chunk = chunkIndex(chunkX + dx, chunkZ + dz);
+                long[] bits = chunk == -1 ? null : reached[chunk];
+                hash = (hash ^ (bits == null ? 0 : Arrays.hashCode(bits))) * 0x9E3779B97F4A7C15L;
+            }
+        }
+        return hash;
+    }
+
+    public long getReachedCount() {
+        return reachedCount;
+    }
+
+    private boolean isReached(int x, int y, int z) {
+        if (!contains(x, y, z)) return outsideReached;
+
+        long[] bits = reached[chunkIndex(x >> 4, z >> 4)];
+        return bits != null && get(bits, cellIndex(x, y, z));
+    }
+
+    private boolean contains(int x, int y, int z) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+    }
+
+    // -1 if the chunk column is not part of the volume
+    private int chunkIndex(int chunkX, int chunkZ) {
+        int i = chunkX - chunkMinX, j = chunkZ - chunkMinZ;
+        if (i < 0 || i >= chunksX || j < 0 || j >= chunksZ) return -1;
+        return i * chunksZ + j;
+    }
+
+    private int cellIndex(int x, int y, int z) {
+        return ((y - minY) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    private int bitsPerChunk() {
+        return (maxY - minY + 1) << 8;
+    }
+
+    private static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    // sets the bit (see cellIndex) of every full opaque block from minY to maxY in the chunk column
+    private static void loadOpacity(ClientWorld world, int chunkX, int chunkZ, int minY, int maxY, long[] bits) {
+        Chunk chunk = world.getChunkAt(new BlockPos(chunkX << 4, 0, chunkZ << 4));
+        ChunkSection[] sections = chunk.getSections();
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for (int y = minY; y <= maxY; ++y) {
+            int sectionIndex = y >> 4;
+            ChunkSection section = sectionIndex >= 0 && sectionIndex < sections.length ? sections[sectionIndex] : null;
+            if (ChunkSection.isEmpty(section)) continue;
+
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    BlockState state = section.getBlockState(x, y & 15, z);
+                    if (state.isSolidRender(world, pos.set((chunkX << 4) + x, y, (chunkZ << 4) + z))) {
+                        set(bits, ((y - minY) << 8) | (z << 4) | x);
+                    }
+                }
+            }
+        }
+    }
+
+    interface OpacitySource {
+        void load(int chunkX, int chunkZ, int minY, int maxY, long[] bits);
+    }
+
+    // The opacity of every chunk column of the volume from start to end, read from the world one column at a time (see
+    // loadColumn), so that an asynchronous export can spread the reading over several main thread tasks
+    static class OpacitySnapshot implements OpacitySource {
+        private final ClientWorld world;
+        private final int minY, maxY;
+        private final int chunkMinX, chunkMinZ, chunksZ;
+        // indexed like VisibilityMap.chunkIndex, each column is dropped once the flood fill took it
+        private final long[][] columns;
+
+        OpacitySnapshot(ClientWorld world, BlockPos start, BlockPos end) {
+            this.world = world;
+            minY = end.getY();
+            maxY = start.getY();
+            chunkMinX = end.getX() >> 4;
+            chunkMinZ = end.getZ() >> 4;
+            chunksZ = (start.getZ() >> 4) - chunkMinZ + 1;
+            columns = new long[((start.getX() >> 4) - chunkMinX + 1) * chunksZ][];
+        }
+
+        int getColumnCount() {
+            return columns.length;
+        }
+
+        // May only be called on the main thread
+        void loadColumn(int column) {
+            long[] bits = new long[(((maxY - minY + 1) << 8) + 63) >>> 6];
+            loadOpacity(world, chunkMinX + column / chunksZ, chunkMinZ + column % chunksZ, minY, maxY, bits);
+            columns[column] = bits;
+        }
+
+        @Override
+        public void load(int chunkX, int chunkZ, int minY, int maxY, long[] bits) {
+            int column = (chunkX - chunkMinX) * chunksZ + chunkZ - chunkMinZ;
+            System.arraycopy(columns[column], 0, bits, 0, bits.length);
+            columns[column] = null;
+        }
+    }
+
+    private static class Flood {
+        private final VisibilityMap map;
+        private final OpacitySource opacitySource;
+        // only needed while flooding
+        private final long[][] opaque;
+        // cells that were reached from a neighboring chunk column and still have to be flooded from
+        private final IntArrayList[] seeds;
+        private final boolean[] queued;
+        private final IntArrayList queue = new IntArrayList();
+        private final IntArrayList stack = new IntArrayList();
+
+        private Flood(VisibilityMap map, OpacitySource opacitySource) {
+            this.map = map;
+            this.opacitySource = opacitySource;
+            opaque = new long[map.reached.length][];
+            seeds = new IntArrayList[map.reached.length];
+            queued = new boolean[map.reached.length];
+        }
+
+        private void run(@Nullable BlockPos viewpoint) {
+            if (viewpoint == null || !map.contains(viewpoint.getX(), viewpoint.getY(), viewpoint.getZ())
+                    || !reach(viewpoint.getX(), viewpoint.getY(), viewpoint.getZ())) {
+                if (viewpoint != null) {
+                    Exporter.LOGGER.info("The visibility viewpoint " + viewpoint + " is blocked or outside of the export, flooding from the boundary instead.");
+                }
+                seedBoundary();
+            }
+
+            while (!queue.isEmpty()) {
+                int chunk = queue.removeInt(queue.size() - 1);
+                queued[chunk] = false;
+                stack.addAll(seeds[chunk]);
+                seeds[chunk].clear();
+                floodChunk(chunk);
+            }
+        }
+
+        private void seedBoundary() {
+            map.outsideReached = true;
+            for (int y = map.minY; y <= map.maxY; ++y) {
+                for (int z = map.minZ; z <= map.maxZ; ++z) {
+                    reach(map.minX, y, z);
+                    reach(map.maxX, y, z);
+                }
+                for (int x = map.minX; x <= map.maxX; ++x) {
+                    reach(x, y, map.minZ);
+                    reach(x, y, map.maxZ);
+                }
+            }
+            for (int x = map.minX; x <= map.maxX; ++x) {
+                for (int z = map.minZ; z <= map.maxZ; ++z) {
+                    reach(x, map.minY, z);
+                    reach(x, map.maxY, z);
+                }
+            }
+        }
+
+        // Marks the cell (inside of the volume) as reached and queues it to be flooded from, unless it is opaque or
+        // was already reached. Returns false if it is opaque.
+        private boolean reach(int x, int y, int z) {
+            int chunk = map.chunkIndex(x >> 4, z >> 4);
+            int cell = map.cellIndex(x, y, z);
+            long[] reachedBits = map.reached[chunk];
+            if (reachedBits != null && get(reachedBits, cell)) return true;
+            if (get(getOpaque(chunk), cell)) return false;
+
+            if (reachedBits == null) {
+                reachedBits = new long[(map.bitsPerChunk() + 63) >>> 6];
+                map.reached[chunk] = reachedBits;
+            }
+            set(reachedBits, cell);
+            ++map.reachedCount;
+            if (seeds[chunk] == null) {
+                seeds[chunk] = new IntArrayList();
+            }
+            seeds[chunk].add(cell);
+            if (!queued[chunk]) {
+                queued[chunk] = true;
+                queue.add(chunk);
+            }
+            return true;
+        }
+
+        // floods from the cells on the stack (which all belong to chunk) until every open cell connected to them
+        // within the chunk column is reached, handing off cells in neighboring columns to those
+        private void floodChunk(int chunk) {
+            int baseX = (map.chunkMinX + chunk / map.chunksZ) << 4;
+            int baseZ = (map.chunkMinZ + chunk % map.chunksZ) << 4;
+            long[] opaqueBits = getOpaque(chunk);
+            long[] reachedBits = map.reached[chunk];
+            while (!stack.isEmpty()) {
+                int cell = stack.removeInt(stack.size() - 1);
+                int x = baseX + (cell & 15);
+                int z = baseZ + ((cell >>> 4) & 15);
+                int y = map.minY + (cell >>> 8);
+                for (int direction = 0; direction < 6; ++direction) {
+                    int nx = x, ny = y, nz = z;
+                    switch (direction) {
+                        case 0: --nx; break;
+                        case 1: ++nx; break;
+                        case 2: --ny; break;
+                        case 3: ++ny; break;
+                        case 4: --nz; break;
+                        default: ++nz; break;
+                    }
+                    if (!map.contains(nx, ny, nz)) continue;
+
+                    if ((nx >> 4) << 4 != baseX || (nz >> 4) << 4 != baseZ) {
+                        reach(nx, ny, nz);
+                        continue;
+                    }
+                    int neighbor = map.cellIndex(nx, ny, nz);
+                    if (get(reachedBits, neighbor) || get(opaqueBits, neighbor)) continue;
+
+                    set(reachedBits, neighbor);
+                    ++map.reachedCount;
+                    stack.add(neighbor);
+                }
+            }
+        }
+
+        private long[] getOpaque(int chunk) {
+            long[] bits = opaque[chunk];
+            if (bits == null) {
+                bits = new long[(map.bitsPerChunk() + 63) >>> 6];
+                opacitySource.load(map.chunkMinX + chunk / map.chunksZ, map.chunkMinZ + chunk % map.chunksZ, map.minY, map.maxY, bits);
+                opaque[chunk] = bits;
+            }
+            return bits;
+        }
+    }
+}
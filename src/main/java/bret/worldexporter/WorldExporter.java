@@ -11,6 +11,7 @@ import net.minecraft.util.Util;
 import net.minecraft.util.text.StringTextComponent;
 import net.minecraftforge.client.event.ClientChatEvent;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.ModLoadingContext;
@@ -18,6 +19,8 @@ import net.minecraftforge.fml.common.Mod;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
@@ -28,8 +31,14 @@ public class WorldExporter {
     private static final Logger LOGGER = LogManager.getLogger(WorldExporter.MODID);
     private static final String CMD_BASE = "/worldexport";
     private static final String CMD_RADIUS = CMD_BASE + " keepradius";
+    private static final String CMD_RESUME = CMD_BASE + " resume";
+    private static final String CMD_STATUS = CMD_BASE + " status";
+    private static final String CMD_CANCEL = CMD_BASE + " cancel";
     private static final Set<HashableSUnloadChunkPacket> heldChunks = new HashSet<>();
     private static int forceChunkRadius = -1;
+    // the export running in the background, only accessed on the main thread
+    @Nullable
+    private static ExportJob runningExport = null;
 
     public WorldExporter() {
         MinecraftForge.EVENT_BUS.register(this);
@@ -92,25 +101,130 @@ public class WorldExporter {
         }
         threads = Math.max(1, Math.min(32, threads));
 
-        ObjExporter objExporter = new ObjExporter(player, radius, lower, upper, optimizeMesh, randomizeTextureOrientation, threads);
-        boolean success;
+        if (WorldExporterConfig.CLIENT.exportFormat.get() == WorldExporterConfig.ExportFormat.GLTF) {
+            GltfExporter gltfExporter = new GltfExporter(player, radius, lower, upper, optimizeMesh, randomizeTextureOrientation, threads);
+            runExport(player, gltfExporter, () -> gltfExporter.export("world") ? ' ' + gltfExporter.getStats().getSummary() : null);
+            return;
+        }
+
+        boolean incremental = WorldExporterConfig.CLIENT.incrementalExport.get();
+        if (incremental && !ObjExporter.supportsIncrementalExport()) {
+            player.sendMessage(new StringTextComponent("Incremental exports require the MULTIPLE_FILES chunkExportType, " +
+                    "exporting every chunk instead."), Util.NIL_UUID);
+            incremental = false;
+        }
+        boolean finalIncremental = incremental;
+        ObjExporter objExporter = new ObjExporter(player, radius, lower, upper, optimizeMesh, randomizeTextureOrientation, threads, incremental);
+        runExport(player, objExporter, () -> {
+            if (!objExporter.export("world", "world_materials")) return null;
+
+            String summary = ' ' + objExporter.getDedupeSummary();
+            if (finalIncremental) {
+                summary += ' ' + objExporter.getIncrementalSummary();
+            }
+            return summary + ' ' + objExporter.getStats().getSummary();
+        });
+    }
+
+    // continues the most recently interrupted OBJ export from its last checkpoint
+    private static void resume(ClientPlayerEntity player) {
+        File directory = ExportCheckpoint.findLatest(new File(Minecraft.getInstance().gameDirectory, "worldexporter"));
+        if (directory == null) {
+            player.sendMessage(new StringTextComponent("There is no interrupted export to resume."), Util.NIL_UUID);
+            return;
+        }
+
+        ExportCheckpoint checkpoint;
         try {
-            success = objExporter.export("world", "world_materials");
+            checkpoint = ExportCheckpoint.load(directory);
+        } catch (IOException e) {
+            LOGGER.error("Could not read the export checkpoint: ", e);
+            player.sendMessage(new StringTextComponent("The checkpoint of the interrupted export could not be read."), Util.NIL_UUID);
+            return;
+        }
+
+        ObjExporter objExporter = new ObjExporter(checkpoint);
+        String problem = objExporter.getResumeProblem();
+        if (problem != null) {
+            player.sendMessage(new StringTextComponent(problem), Util.NIL_UUID);
+            return;
+        }
+        runExport(player, objExporter, () -> {
+            if (!objExporter.export("world", "world_materials")) return null;
+
+            return ' ' + objExporter.getResumeSummary() + ' ' + objExporter.getDedupeSummary() + ' ' + objExporter.getStats().getSummary();
+        });
+    }
+
+    // Runs the export right away, or in the background for asynchronous exports, and tells the player how it went once
+    // it is done
+    private static void runExport(ClientPlayerEntity player, Exporter exporter, ExportAction action) {
+        if (!exporter.async) {
+            player.sendMessage(new StringTextComponent(export(exporter, action)), Util.NIL_UUID);
+            return;
+        }
+
+        runningExport = new ExportJob(exporter, () -> {
+            String result = "An error occurred when exporting the world.";
+            try {
+                result = export(exporter, action);
+            } catch (Throwable e) {
+                // the game options changed by setup() have to be restored however the export failed
+                LOGGER.error("Export failed: ", e);
+                exporter.finish();
+            } finally {
+                // the player may have left the world while the export ran
+                String message = result;
+                Minecraft.getInstance().execute(() -> {
+                    runningExport = null;
+                    ClientPlayerEntity currentPlayer = Minecraft.getInstance().player;
+                    if (currentPlayer != null) {
+                        currentPlayer.sendMessage(new StringTextComponent(message), Util.NIL_UUID);
+                    }
+                });
+            }
+        });
+        player.sendMessage(new StringTextComponent("Exporting in the background, run " + CMD_STATUS + " to see its progress."), Util.NIL_UUID);
+        runningExport.start();
+    }
+
+    // runs the export and returns the message to show once it is done
+    private static String export(Exporter exporter, ExportAction action) {
+        String summary;
+        try {
+            summary = action.export();
         } catch (OutOfMemoryError e) {
-            player.sendMessage(new StringTextComponent("Ran out of memory while exporting. " +
-                            "Allocate more memory to Minecraft or reduce the number of export threads and try again."),
-                    Util.NIL_UUID
-            );
             System.gc();
-            return;
+            return "Ran out of memory while exporting. " +
+                    "Allocate more memory to Minecraft, reduce the number of export threads, " +
+                    "or lower the exportMemoryBudget config value and try again. " +
+                    "OBJ exports can also be continued with " + CMD_RESUME + '.';
         } catch (IOException e) {
             LOGGER.error("Export failed: " + e);
-            success = false;
+            summary = null;
         }
 
         System.gc();
-        player.sendMessage(new StringTextComponent(
-                success ? "Export successful." : "An error occurred when exporting the world."), Util.NIL_UUID);
+        if (exporter.isCancelled()) {
+            return "Export cancelled, the chunks exported until then were written." +
+                    (exporter.canResume() ? " It can be continued with " + CMD_RESUME + '.' : "");
+        }
+        return summary != null ? "Export successful." + summary : "An error occurred when exporting the world.";
+    }
+
+    private static void status(ClientPlayerEntity player) {
+        String message = runningExport != null ? runningExport.getProgressMessage() : "No export is running in the background.";
+        player.sendMessage(new StringTextComponent(message), Util.NIL_UUID);
+    }
+
+    private static void cancel(ClientPlayerEntity player) {
+        if (runningExport == null) {
+            player.sendMessage(new StringTextComponent("No export is running in the background."), Util.NIL_UUID);
+            return;
+        }
+
+        runningExport.cancel();
+        player.sendMessage(new StringTextComponent("Cancelling the export, the chunks exported so far are being written."), Util.NIL_UUID);
     }
 
     private static void keepRadius(String msg, ClientWorld world, ClientPlayerEntity player) {
@@ -148,6 +262,18 @@ public class WorldExporter {
     @SubscribeEvent
     public void onUnloadEvent(WorldEvent.Unload event) {
         heldChunks.clear();
+        // a background export can't continue without the world it exports
+        if (event.getWorld().isClientSide() && runningExport != null) {
+            runningExport.cancel();
+        }
+    }
+
+    // background exports run their main thread tasks at the end of every client tick
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase == TickEvent.Phase.END && runningExport != null) {
+            runningExport.tick();
+        }
     }
 
     @SubscribeEvent
@@ -165,9 +291,39 @@ public class WorldExporter {
             return;
         }
 
+        if (msg.startsWith(CMD_STATUS)) {
+            event.setCanceled(true);
+            status(player);
+            return;
+        }
+
+        if (msg.startsWith(CMD_CANCEL)) {
+            event.setCanceled(true);
+            cancel(player);
+            return;
+        }
+
+        if (msg.startsWith(CMD_BASE) && runningExport != null) {
+            event.setCanceled(true);
+            player.sendMessage(new StringTextComponent("An export is already running, run " + CMD_STATUS + " to see its progress."), Util.NIL_UUID);
+            return;
+        }
+
+        if (msg.startsWith(CMD_RESUME)) {
+            event.setCanceled(true);
+            resume(player);
+            return;
+        }
+
         if (msg.startsWith(CMD_BASE)) {
             event.setCanceled(true);
             execute(msg, player);
         }
     }
+
+    private interface ExportAction {
+        // returns the summary to show after a successful export, or null if it failed
+        @Nullable
+        String export() throws IOException;
+    }
 }
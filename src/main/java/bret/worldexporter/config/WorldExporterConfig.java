@@ -2,12 +2,17 @@ package bret.worldexporter.config;
 
 import net.minecraftforge.common.ForgeConfigSpec;
 import net.minecraftforge.common.ForgeConfigSpec.BooleanValue;
+import net.minecraftforge.common.ForgeConfigSpec.ConfigValue;
 import net.minecraftforge.common.ForgeConfigSpec.DoubleValue;
 import net.minecraftforge.common.ForgeConfigSpec.EnumValue;
+import net.minecraftforge.common.ForgeConfigSpec.IntValue;
 import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.config.ModConfig;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.Collections;
+import java.util.List;
+
 
 // See https://github.com/Choonster-Minecraft-Mods/TestMod3/blob/1.16.x/src/main/java/choonster/testmod3/config/TestMod3Config.java
 // and https://docs.minecraftforge.net/en/1.19.x/misc/config/
@@ -25,18 +30,41 @@ public class WorldExporterConfig {
         context.registerConfig(ModConfig.Type.CLIENT, clientSpec);
     }
 
+    public enum ExportFormat {
+        OBJ,
+        GLTF
+    }
+
     public enum ChunkExportType {
         SINGLE_FILE_SINGLE_OBJECT,
         SINGLE_FILE_MULTIPLE_OBJECTS,
         MULTIPLE_FILES
     }
 
+    public enum VertexDeduplication {
+        GLOBAL,
+        PER_CHUNK
+    }
+
+    public enum TextureCacheMode {
+        OFF,
+        COPY,
+        LINK
+    }
+
+    public enum VisibilityCulling {
+        OFF,
+        BOUNDARY,
+        PLAYER
+    }
+
     public enum NormalFormat {
         OPENGL,
         DIRECTX
     }
 
     public static class Client {
+        public final EnumValue<ExportFormat> exportFormat;
         public final EnumValue<ChunkExportType> chunkExportType;
         public final EnumValue<NormalFormat> normalFormat;
         public final BooleanValue enableEntities;
@@ -51,12 +79,32 @@ public class WorldExporterConfig {
         public final BooleanValue outputInvisibleFaces;
         public final DoubleValue normalStrength;
         public final DoubleValue overlapDistance;
+        public final IntValue exportMemoryBudget;
+        public final IntValue objDecimalPrecision;
+        public final EnumValue<VertexDeduplication> vertexDeduplication;
+        public final EnumValue<TextureCacheMode> textureCacheMode;
+        public final IntValue textureCacheSize;
+        public final BooleanValue incrementalExport;
+        public final BooleanValue exportCheckpoints;
+        public final IntValue checkpointInterval;
+        public final EnumValue<VisibilityCulling> visibilityCulling;
+        public final ConfigValue<List<? extends Integer>> lodRings;
+        public final BooleanValue greedyMeshing;
+        public final IntValue regionMergeSize;
+        public final IntValue progressInterval;
+        public final BooleanValue asyncExport;
+        public final IntValue asyncTickBudget;
 
         Client(final ForgeConfigSpec.Builder builder) {
             builder.comment("Client-only settings").push("client");
 
+            exportFormat = builder
+                    .comment("The file format to export to: OBJ (with an MTL material file) or GLTF (a binary .glb file with PBR materials)")
+                    .translation("worldexporter.config.client.exportFormat")
+                    .defineEnum("exportFormat", ExportFormat.OBJ);
+
             chunkExportType = builder
-                    .comment("The chunk mode the exporter should use for outputting OBJ files")
+                    .comment("The chunk mode the exporter should use for outputting OBJ files. GLTF exports always use one node per chunk")
                     .translation("worldexporter.config.client.chunkExportType")
                     .defineEnum("chunkExportType", ChunkExportType.SINGLE_FILE_SINGLE_OBJECT);
 
@@ -126,6 +174,106 @@ public class WorldExporterConfig {
                     .translation("worldexporter.config.client.outputInvisibleFaces")
                     .define("outputInvisibleFaces", true);
 
+            exportMemoryBudget = builder
+                    .comment("Approximate memory (in MB) that exported chunks may use while they wait to be written." +
+                            " Export threads pause when it is used up. Lower this if you run out of memory during large exports")
+                    .translation("worldexporter.config.client.exportMemoryBudget")
+                    .defineInRange("exportMemoryBudget", 1024, 16, 65536);
+
+            objDecimalPrecision = builder
+                    .comment("The maximum number of decimals written for vertex positions and texture coordinates in OBJ files." +
+                            " Lower values make smaller files, but values below 4 can visibly move faces that were offset to avoid z-fighting." +
+                            " Earlier versions always wrote every digit of each float, so the default of 6 rounds coordinates that have more" +
+                            " decimals, which changes the output in the last digits")
+                    .translation("worldexporter.config.client.objDecimalPrecision")
+                    .defineInRange("objDecimalPrecision", 6, 1, 9);
+
+            vertexDeduplication = builder
+                    .comment("GLOBAL writes each distinct vertex position and texture coordinate once per OBJ file (smallest files)." +
+                            " PER_CHUNK only shares them within a chunk, which uses less memory during very large exports." +
+                            " GLOBAL switches to PER_CHUNK once it uses a quarter of exportMemoryBudget")
+                    .translation("worldexporter.config.client.vertexDeduplication")
+                    .defineEnum("vertexDeduplication", VertexDeduplication.GLOBAL);
+
+            textureCacheMode = builder
+                    .comment("Cache encoded textures in worldexporter/texturecache, so that later exports reuse them instead of encoding them again." +
+                            " COPY copies cached textures into the export. LINK hard links them, which is faster and saves disk space," +
+                            " but editing a linked texture in place also changes the cached copy. OFF disables the cache." +
+                            " The cache stays on disk between exports, up to textureCacheSize; delete the folder to clear it")
+                    .translation("worldexporter.config.client.textureCacheMode")
+                    .defineEnum("textureCacheMode", TextureCacheMode.OFF);
+
+            textureCacheSize = builder
+                    .comment("Maximum size (in MB) of the texture cache. The least recently used textures are removed once it is exceeded")
+                    .translation("worldexporter.config.client.textureCacheSize")
+                    .defineInRange("textureCacheSize", 512, 16, 65536);
+
+            incrementalExport = builder
+                    .comment("Export to worldexporter/incremental and only export the chunks that changed since the last export there." +
+                            " Only used for OBJ exports with the MULTIPLE_FILES chunkExportType. Changing any setting that affects" +
+                            " the output (including the export height range and, with relativeCoordinates, the player position) exports every chunk again")
+                    .translation("worldexporter.config.client.incrementalExport")
+                    .define("incrementalExport", false);
+
+            exportCheckpoints = builder
+                    .comment("Regularly save the progress of OBJ exports, so that an export that was interrupted by a crash can be continued" +
+                            " with /worldexport resume. Not used for incremental exports. Off by default, since every checkpoint waits for the" +
+                            " pending chunk and texture writes and saves the material tables, which slows down large exports")
+                    .translation("worldexporter.config.client.exportCheckpoints")
+                    .define("exportCheckpoints", false);
+
+            checkpointInterval = builder
+                    .comment("Minimum number of seconds between two export checkpoints. At 0, a checkpoint is saved after every batch of written chunks")
+                    .translation("worldexporter.config.client.checkpointInterval")
+                    .defineInRange("checkpointInterval", 10, 0, 3600);
+
+            visibilityCulling = builder
+                    .comment("Skip blocks and entities that can't be seen, such as sealed caves. BOUNDARY keeps everything that can be seen" +
+                            " from outside of the exported area, PLAYER only what can be seen from the player's position. OFF exports everything")
+                    .translation("worldexporter.config.client.visibilityCulling")
+                    .defineEnum("visibilityCulling", VisibilityCulling.OFF);
+
+            lodRings = builder
+                    .comment("Distances (in blocks) from the player at which chunks are exported at a lower level of detail, for example [256, 512]." +
+                            " Chunks beyond the first distance are exported in cells of 2x2x2 blocks, beyond the second in cells of 4x4x4 blocks" +
+                            " and so on, up to 4 distances. Each cell is drawn as a box with the texture of its most common top block." +
+                            " These chunks are named with a _lod suffix. Leave empty to export every chunk at full detail")
+                    .translation("worldexporter.config.client.lodRings")
+                    .defineList("lodRings", Collections.emptyList(), o -> o instanceof Integer && (Integer) o > 0);
+
+            greedyMeshing = builder
+                    .comment("When optimizing meshes, merge the faces of full blocks into the largest possible rectangles with a greedy meshing pass." +
+                            " Disable to only merge faces pairwise, which is slower and usually leaves more faces")
+                    .translation("worldexporter.config.client.greedyMeshing")
+                    .define("greedyMeshing", true);
+
+            regionMergeSize = builder
+                    .comment("When optimizing meshes, merge faces across chunk borders within regions of this many by this many chunks," +
+                            " which are then exported as one object or node named region_x_z. Larger regions merge more faces, but hold more" +
+                            " chunks in memory while they are completed. 1 only merges faces within each chunk. Not used with the MULTIPLE_FILES chunkExportType")
+                    .translation("worldexporter.config.client.regionMergeSize")
+                    .defineInRange("regionMergeSize", 1, 1, 32);
+
+            progressInterval = builder
+                    .comment("Number of seconds between two progress reports (chunks done, quads per second and the estimated time left)" +
+                            " in the action bar and the log while exporting. 0 disables progress reports")
+                    .translation("worldexporter.config.client.progressInterval")
+                    .defineInRange("progressInterval", 2, 0, 600);
+
+            asyncExport = builder
+                    .comment("Export in the background so that the game keeps running, instead of freezing it until the export is done." +
+                            " The work that needs the main thread is spread over game ticks (see asyncTickBudget). The visibility," +
+                            " the chunks to export and their entities are read when the export starts, but the export threads render" +
+                            " blocks and tile entities from the live world, so changes to them while it is exported may show up in it")
+                    .translation("worldexporter.config.client.asyncExport")
+                    .define("asyncExport", false);
+
+            asyncTickBudget = builder
+                    .comment("Milliseconds per game tick that a background export may use the main thread for, for reading textures and" +
+                            " rendering what can't be rendered on the export threads. Higher values export faster but lower the frame rate")
+                    .translation("worldexporter.config.client.asyncTickBudget")
+                    .defineInRange("asyncTickBudget", 10, 1, 1000);
+
             builder.pop();
         }
     }
@@ -0,0 +1,124 @@
+package bret.worldexporter.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// A growable byte buffer for building ASCII text (such as .obj lines) without going through Strings or a Writer
+public class AsciiBuffer {
+    public static final int MAX_DECIMALS = 9;
+    private static final long[] POW10 = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L};
+    // above this magnitude a scaled value might not fit in a long, so Float.toString is used instead
+    private static final float MAX_FIXED_VALUE = 1e9f;
+    private byte[] data;
+    private int size = 0;
+
+    public AsciiBuffer(int initialCapacity) {
+        data = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public AsciiBuffer put(char c) {
+        ensureCapacity(1);
+        data[size++] = (byte) c;
+        return this;
+    }
+
+    // the String must only contain ASCII characters
+    public AsciiBuffer put(String ascii) {
+        int length = ascii.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; ++i) {
+            data[size++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+    public AsciiBuffer put(int value) {
+        if (value == Integer.MIN_VALUE) return put(Integer.toString(value));
+
+        ensureCapacity(11);
+        if (value < 0) {
+            data[size++] = '-';
+            value = -value;
+        }
+        // write the digits in reverse, then flip them in place
+        int start = size;
+        do {
+            data[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = size - 1; i < j; ++i, --j) {
+            byte temp = data[i];
+            data[i] = data[j];
+            data[j] = temp;
+        }
+        return this;
+    }
+
+    // Writes the float rounded to at most the given number of decimals (trailing zeros are dropped) without
+    // allocating. NaN, infinities and very large values fall back to Float.toString.
+    public AsciiBuffer put(float value, int decimals) {
+        if (value != value || Math.abs(value) >= MAX_FIXED_VALUE) return put(Float.toString(value));
+
+        decimals = Math.max(0, Math.min(MAX_DECIMALS, decimals));
+        long scale = POW10[decimals];
+        long scaled = Math.round((double) value * scale);
+        if (scaled == 0) return put('0');
+
+        ensureCapacity(32);
+        if (scaled < 0) {
+            data[size++] = '-';
+            scaled = -scaled;
+        }
+        putDigits(scaled / scale, 1);
+
+        long fraction = scaled % scale;
+        if (fraction != 0) {
+            int digits = decimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                --digits;
+            }
+            data[size++] = '.';
+            putDigits(fraction, digits);
+        }
+        return this;
+    }
+
+    // writes a non-negative value, left padded with zeros to at least minDigits digits
+    private void putDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            ++digits;
+        }
+        digits = Math.max(digits, minDigits);
+        for (int i = size + digits - 1; i >= size; --i) {
+            data[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(data, 0, size);
+    }
+
+    // writes the bytes in [from, to) to the stream
+    public void writeTo(OutputStream out, int from, int to) throws IOException {
+        out.write(data, from, to - from);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+        }
+    }
+}
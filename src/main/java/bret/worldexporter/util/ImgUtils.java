@@ -83,6 +83,52 @@ public class ImgUtils {
         return false;
     }
 
+    // returns true if any pixel is neither fully opaque nor fully transparent
+    public static boolean imageHasPartialTransparency(BufferedImage image) {
+        int[] pixels;
+        try {
+            pixels = getPixelData(image);
+        } catch (InterruptedException e) {
+            return true;
+        }
+        for (int pixel : pixels) {
+            int alpha = pixel >>> 24;
+            if (alpha != 0 && alpha != 255) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns an opaque copy of the image with each pixel's rgb values multiplied by its [0, 1] factor and its alpha.
+    // Used for emissive maps in formats that ignore the alpha channel of emissive textures.
+    @Nullable
+    public static BufferedImage scaleRgb(BufferedImage image, float[] factors) {
+        if (image.getWidth() * image.getHeight() != factors.length) {
+            throw new RuntimeException("scaleRgb requires pixel count of image to equal length of factors");
+        }
+
+        int[] imagePixels;
+        try {
+            imagePixels = getPixelData(image);
+        } catch (InterruptedException e) {
+            return null;
+        }
+
+        for (int i = 0; i < imagePixels.length; ++i) {
+            int pixel = imagePixels[i];
+            float factor = Math.max(0.0f, Math.min(1.0f, factors[i])) * (pixel >>> 24) / 255.0f;
+            int r = Math.round(((pixel >>> 16) & 0xFF) * factor);
+            int g = Math.round(((pixel >>> 8) & 0xFF) * factor);
+            int b = Math.round((pixel & 0xFF) * factor);
+            imagePixels[i] = (r << 16) | (g << 8) | b;
+        }
+
+        BufferedImage scaledImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        scaledImage.setRGB(0, 0, image.getWidth(), image.getHeight(), imagePixels, 0, image.getWidth());
+        return scaledImage;
+    }
+
     public static int countTransparentPixels(BufferedImage image) {
         int count = 0;
         int[] pixels;
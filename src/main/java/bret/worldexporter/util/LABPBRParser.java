@@ -157,6 +157,21 @@ public class LABPBRParser {
         return getGrayscaleBufferedImage(roughnessData, width);
     }
 
+    // glTF packs both maps into one image: roughness in the green channel and metalness in the blue channel
+    public static BufferedImage getMetallicRoughnessImage(float[] metalData, float[] roughnessData, int width) {
+        BufferedImage image = new BufferedImage(width, metalData.length / width, BufferedImage.TYPE_INT_RGB);
+        int[] packed = new int[metalData.length];
+        for (int i = 0; i < packed.length; ++i) {
+            int pixel = 0xFF << 16;  // r is unused
+            pixel |= clamp(Math.round(roughnessData[i] * 255.0f)) << 8;  // g
+            pixel |= clamp(Math.round(metalData[i] * 255.0f));           // b
+            packed[i] = pixel;
+        }
+
+        image.setRGB(0, 0, width, metalData.length / width, packed, 0, width);
+        return image;
+    }
+
     public static boolean hasEmissiveGrayscale(BufferedImage image) {
         return !allPixelsMatch(image, NO_EMISSIVE, 0x000000FF);
     }
@@ -0,0 +1,133 @@
+package bret.worldexporter.util;
+
+import java.util.Arrays;
+
+// An open addressing hash map from two or three floats to a non-zero int, without boxing keys or values.
+// Floats are compared by their bits, except that 0.0 and -0.0 are the same key (matching Vector3f.equals).
+public class PackedFloatIntMap {
+    private static final float LOAD_FACTOR = 0.6f;
+    private final int initialCapacity;
+    private long[] keysXY;
+    private int[] keysZ;
+    private int[] values;  // a value of 0 marks an empty slot
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public PackedFloatIntMap(int expectedSize) {
+        initialCapacity = capacityFor(expectedSize);
+        allocate(initialCapacity);
+    }
+
+    // returns 0 if the key is not present
+    public int get(float x, float y) {
+        return get(x, y, 0.0f);
+    }
+
+    // returns 0 if the key is not present
+    public int get(float x, float y, float z) {
+        long xy = pack(x, y);
+        int zBits = bits(z);
+        for (int slot = hash(xy, zBits) & mask; ; slot = (slot + 1) & mask) {
+            int value = values[slot];
+            if (value == 0) return 0;
+            if (keysXY[slot] == xy && keysZ[slot] == zBits) return value;
+        }
+    }
+
+    public void put(float x, float y, int value) {
+        put(x, y, 0.0f, value);
+    }
+
+    public void put(float x, float y, float z, int value) {
+        if (value == 0) throw new IllegalArgumentException("PackedFloatIntMap values must be non-zero");
+
+        long xy = pack(x, y);
+        int zBits = bits(z);
+        int slot = hash(xy, zBits) & mask;
+        while (values[slot] != 0) {
+            if (keysXY[slot] == xy && keysZ[slot] == zBits) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keysXY[slot] = xy;
+        keysZ[slot] = zBits;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            rehash(values.length << 1);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // the memory used by the key and value arrays, in bytes
+    public long memoryBytes() {
+        return values.length * 16L;
+    }
+
+    public void clear() {
+        size = 0;
+        if (values.length > initialCapacity) {
+            // give back the memory of a map that grew large instead of clearing every slot
+            allocate(initialCapacity);
+        } else {
+            Arrays.fill(values, 0);
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeysXY = keysXY;
+        int[] oldKeysZ = keysZ;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldValues.length; ++i) {
+            if (oldValues[i] == 0) continue;
+
+            int slot = hash(oldKeysXY[i], oldKeysZ[i]) & mask;
+            while (values[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keysXY[slot] = oldKeysXY[i];
+            keysZ[slot] = oldKeysZ[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keysXY = new long[capacity];
+        keysZ = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int needed = (int) Math.min(1 << 30, (long) Math.ceil(Math.max(16, expectedSize) / LOAD_FACTOR));
+        return Integer.highestOneBit(needed - 1) << 1;
+    }
+
+    private static int bits(float value) {
+        // adding 0.0f turns -0.0f into 0.0f and leaves every other value unchanged
+        return Float.floatToIntBits(value + 0.0f);
+    }
+
+    private static long pack(float x, float y) {
+        return ((long) bits(x) << 32) | (bits(y) & 0xFFFFFFFFL);
+    }
+
+    // murmur3 finalizer over the combined key bits
+    private static int hash(long xy, int z) {
+        long h = xy * 0x9E3779B97F4A7C15L + z;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
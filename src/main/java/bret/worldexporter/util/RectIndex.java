@@ -0,0 +1,158 @@
+package bret.worldexporter.util;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A static quadtree over axis aligned rectangles (such as the uv bounds of a texture atlas' sprites) that finds the
+// rectangle containing a given rectangle. Every rectangle is stored in the smallest node whose area contains it, so a
+// query only checks the rectangles on the path to the query's min corner. For rectangles that don't overlap each other
+// this is logarithmic in their number. The index is immutable once built and safe to query from multiple threads.
+public class RectIndex<T> {
+    private static final int MAX_LEAF_SIZE = 8;
+    private static final int MAX_DEPTH = 20;
+    private final List<T> values;
+    // minX, minY, maxX, maxY of each rectangle
+    private final float[] rects;
+    private final Node root;
+
+    private RectIndex(List<T> values, float[] rects) {
+        this.values = values;
+        this.rects = rects;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        IntArrayList all = new IntArrayList(values.size());
+        for (int i = 0; i < values.size(); ++i) {
+            // NaN comparisons are false, so a rectangle with a NaN coordinate doesn't affect the bounds
+            if (rects[i * 4] < minX) minX = rects[i * 4];
+            if (rects[i * 4 + 1] < minY) minY = rects[i * 4 + 1];
+            if (rects[i * 4 + 2] > maxX) maxX = rects[i * 4 + 2];
+            if (rects[i * 4 + 3] > maxY) maxY = rects[i * 4 + 3];
+            all.add(i);
+        }
+        root = new Node(rects, minX, minY, maxX, maxY, all, 0);
+    }
+
+    // Returns the value of the first added rectangle that contains (or is equal to) the given rectangle, or null if
+    // there is none
+    @Nullable
+    public T findContaining(float minX, float minY, float maxX, float maxY) {
+        int found = root.findContaining(minX, minY, maxX, maxY, Integer.MAX_VALUE);
+        return found == Integer.MAX_VALUE ? null : values.get(found);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public static class Builder<T> {
+        private final List<T> values = new ArrayList<>();
+        private float[] rects = new float[64];
+
+        // rectangles with NaN coordinates are never found
+        public Builder<T> add(float minX, float minY, float maxX, float maxY, T value) {
+            int offset = values.size() * 4;
+            if (offset + 4 > rects.length) {
+                rects = Arrays.copyOf(rects, rects.length * 2);
+            }
+            rects[offset] = minX;
+            rects[offset + 1] = minY;
+            rects[offset + 2] = maxX;
+            rects[offset + 3] = maxY;
+            values.add(value);
+            return this;
+        }
+
+        public RectIndex<T> build() {
+            return new RectIndex<>(new ArrayList<>(values), Arrays.copyOf(rects, values.size() * 4));
+        }
+    }
+
+    private static class Node {
+        private final float[] rects;
+        private final float midX;
+        private final float midY;
+        // the rectangles that don't fit into a single child
+        private final int[] items;
+        // null for a leaf, otherwise ordered: low x low y, high x low y, low x high y, high x high y
+        private final Node[] children;
+
+        private Node(float[] rects, float minX, float minY, float maxX, float maxY, IntArrayList indices, int depth) {
+            this.rects = rects;
+            midX = (minX + maxX) * 0.5f;
+            midY = (minY + maxY) * 0.5f;
+            if (indices.size() <= MAX_LEAF_SIZE || depth >= MAX_DEPTH || !(midX > minX && midX < maxX) || !(midY > minY && midY < maxY)) {
+                items = indices.toIntArray();
+                children = null;
+                return;
+            }
+
+            IntArrayList own = new IntArrayList();
+            IntArrayList[] quadrants = {new IntArrayList(), new IntArrayList(), new IntArrayList(), new IntArrayList()};
+            for (int c = 0; c < indices.size(); ++c) {
+                int i = indices.getInt(c);
+                int quadrant = quadrantOf(i);
+                if (quadrant == -1) {
+                    own.add(i);
+                } else {
+                    quadrants[quadrant].add(i);
+                }
+            }
+
+            items = own.toIntArray();
+            children = new Node[]{
+                    new Node(rects, minX, minY, midX, midY, quadrants[0], depth + 1),
+                    new Node(rects, midX, minY, maxX, midY, quadrants[1], depth + 1),
+                    new Node(rects, minX, midY, midX, maxY, quadrants[2], depth + 1),
+                    new Node(rects, midX, midY, maxX, maxY, quadrants[3], depth + 1)
+            };
+        }
+
+        // the child that fully contains rectangle i, or -1 if it crosses a split line (or has a NaN coordinate)
+        private int quadrantOf(int i) {
+            int offset = i * 4;
+            int quadrant = 0;
+            if (rects[offset + 2] <= midX) {
+                // low x
+            } else if (rects[offset] >= midX) {
+                quadrant |= 1;
+            } else {
+                return -1;
+            }
+            if (rects[offset + 3] <= midY) {
+                // low y
+            } else if (rects[offset + 1] >= midY) {
+                quadrant |= 2;
+            } else {
+                return -1;
+            }
+            return quadrant;
+        }
+
+        // returns the smaller of best and the lowest index of a rectangle in this subtree that contains the query
+        private int findContaining(float minX, float minY, float maxX, float maxY, int best) {
+            for (int i : items) {
+                if (i < best) {
+                    int offset = i * 4;
+                    if (minX >= rects[offset] && minY >= rects[offset + 1] && maxX <= rects[offset + 2] && maxY <= rects[offset + 3]) {
+                        best = i;
+                    }
+                }
+            }
+            if (children == null) return best;
+
+            // a containing rectangle also contains the query's min corner, so only the children whose (closed) area
+            // contains that corner can hold one. A corner on a split line has to check both sides.
+            boolean lowX = minX <= midX, highX = minX >= midX;
+            boolean lowY = minY <= midY, highY = minY >= midY;
+            if (lowX && lowY) best = children[0].findContaining(minX, minY, maxX, maxY, best);
+            if (highX && lowY) best = children[1].findContaining(minX, minY, maxX, maxY, best);
+            if (lowX && highY) best = children[2].findContaining(minX, minY, maxX, maxY, best);
+            if (highX && highY) best = children[3].findContaining(minX, minY, maxX, maxY, best);
+            return best;
+        }
+    }
+}
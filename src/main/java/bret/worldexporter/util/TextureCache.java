@@ -0,0 +1,218 @@
+package bret.worldexporter.util;
+
+import javax.annotation.Nullable;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static bret.worldexporter.Exporter.LOGGER;
+
+// A content addressed cache of encoded PNG textures that is kept between exports. Each entry is stored as <hash>.png,
+// where the hash covers the image type, size and every pixel sample, so an image that is tinted or derived with
+// different parameters gets its own entry. Writing an image that is already cached links or copies the cached file
+// instead of encoding it again. The cache is capped in size and evicts the least recently used entries, using each
+// file's last modified time as its last use so that the order carries over to later exports.
+// All methods may be called from multiple threads.
+public class TextureCache {
+    private static final String EXTENSION = ".png";
+    private final Path directory;
+    private final long maxBytes;
+    private final boolean link;
+    // access ordered: the least recently used entry comes first
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    // link hard links cached files into the export where possible instead of copying them
+    public TextureCache(File directory, long maxBytes, boolean link) throws IOException {
+        this.directory = directory.toPath();
+        this.maxBytes = maxBytes;
+        this.link = link;
+        Files.createDirectories(this.directory);
+        loadEntries();
+        evict();
+    }
+
+    // Writes image as a PNG to outputFile, reusing the cached encoding of an identical image if there is one. Returns
+    // the number of bytes written, which is 0 if outputFile was linked to the cached file.
+    public long write(BufferedImage image, File outputFile) throws IOException {
+        String hash = hash(image);
+        if (hash == null) {
+            ImageIO.write(image, "png", outputFile);
+            return outputFile.length();
+        }
+
+        Path output = outputFile.toPath();
+        Path cached = directory.resolve(hash + EXTENSION);
+        if (use(hash)) {
+            try {
+                Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+                return place(cached, output) ? 0 : outputFile.length();
+            } catch (IOException e) {
+                // evicted by another export in the meantime or otherwise unreadable, so encode it again
+                forget(hash);
+            }
+        }
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", encoded)) {
+            throw new IOException("No PNG writer available for image type " + image.getType());
+        }
+        byte[] bytes = encoded.toByteArray();
+        Files.write(output, bytes);
+
+        // written to a temporary file first so that other threads and exports never see a partial entry
+        Path temp = Files.createTempFile(directory, hash, ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            LOGGER.warn("Could not add texture to the texture cache: " + cached, e);
+            return bytes.length;
+        }
+        add(hash, bytes.length);
+        return bytes.length;
+    }
+
+    // returns true if output was linked to the cached file instead of copied
+    private boolean place(Path cached, Path output) throws IOException {
+        Files.deleteIfExists(output);
+        if (link) {
+            try {
+                Files.createLink(output, cached);
+                return true;
+            } catch (IOException | UnsupportedOperationException e) {
+                // different file stores or no hard link support, fall back to copying
+            }
+        }
+        Files.copy(cached, output, StandardCopyOption.REPLACE_EXISTING);
+        return false;
+    }
+
+    private void loadEntries() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, Long> modified = new HashMap<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> {
+                String name = path.getFileName().toString();
+                try {
+                    if (name.endsWith(".tmp")) {
+                        // left behind by an export that was interrupted
+                        Files.deleteIfExists(path);
+                    } else if (name.endsWith(EXTENSION)) {
+                        modified.put(path, Files.getLastModifiedTime(path).toMillis());
+                        files.add(path);
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Could not read texture cache entry: " + path, e);
+                }
+            });
+        }
+
+        files.sort(Comparator.comparingLong(modified::get));
+        synchronized (entrySizes) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long size = file.toFile().length();
+                entrySizes.put(name.substring(0, name.length() - EXTENSION.length()), size);
+                totalBytes += size;
+            }
+        }
+    }
+
+    // returns true and marks the entry as recently used if it is cached
+    private boolean use(String hash) {
+        synchronized (entrySizes) {
+            return entrySizes.get(hash) != null;
+        }
+    }
+
+    private void add(String hash, long size) {
+        synchronized (entrySizes) {
+            Long previous = entrySizes.put(hash, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+        }
+        evict();
+    }
+
+    private void forget(String hash) {
+        synchronized (entrySizes) {
+            Long size = entrySizes.remove(hash);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+    }
+
+    private void evict() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (entrySizes) {
+            Iterator<Map.Entry<String, Long>> iterator = entrySizes.entrySet().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                totalBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+
+        for (String hash : evicted) {
+            try {
+                Files.deleteIfExists(directory.resolve(hash + EXTENSION));
+            } catch (IOException e) {
+                LOGGER.warn("Could not remove texture cache entry: " + hash, e);
+            }
+        }
+    }
+
+    // Returns null for image types whose encoding depends on more than their samples (custom and indexed color
+    // models), those are never cached
+    @Nullable
+    private static String hash(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_CUSTOM:
+            case BufferedImage.TYPE_BYTE_BINARY:
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                return null;
+            default:
+                break;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        Raster raster = image.getRaster();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int[] row = new int[width * raster.getNumBands()];
+        ByteBuffer bytes = ByteBuffer.allocate(Math.max(12, row.length * 4));
+        bytes.putInt(image.getType()).putInt(width).putInt(height);
+        digest.update(bytes.array(), 0, 12);
+        for (int y = 0; y < height; ++y) {
+            raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, row);
+            bytes.clear();
+            bytes.asIntBuffer().put(row);
+            digest.update(bytes.array(), 0, row.length * 4);
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package bret.worldexporter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// ChunkFingerprints.deleteStaleChunkFiles on the output of relativeCoordinates exports by a player outside of chunk
+// (0, 0), whose chunk file names are relative to the player's chunk
+public class ChunkFingerprintsTest {
+    private static final String SETTINGS = "settings";
+    private static final String OBJ_BASE_FILENAME = "world";
+    // in chunk (5, -3)
+    private static final int PLAYER_X = 85;
+    private static final int PLAYER_Z = -37;
+
+    @TempDir
+    File directory;
+
+    // exports the chunks within radius chunks of the player the way an incremental export does: every chunk is
+    // fingerprinted under the position it is exported with and written to the file named after it
+    private ChunkFingerprints export(int radius) throws IOException {
+        ChunkFingerprints fingerprints = ChunkFingerprints.load(directory, SETTINGS);
+        for (int dx = -radius; dx <= radius; ++dx) {
+            for (int dz = -radius; dz <= radius; ++dz) {
+                int chunkX = ExportChunk.chunkPos(PLAYER_X + dx * 16, PLAYER_X, true);
+                int chunkZ = ExportChunk.chunkPos(PLAYER_Z + dz * 16, PLAYER_Z, true);
+                if (fingerprints.update(chunkX, chunkZ, 1)) {
+                    writeChunkFile(chunkX, chunkZ, 0);
+                }
+            }
+        }
+        fingerprints.retainUpdated();
+        fingerprints.deleteStaleChunkFiles(OBJ_BASE_FILENAME);
+        fingerprints.save();
+        return fingerprints;
+    }
+
+    private File chunkFile(int chunkX, int chunkZ, int lodLevel) {
+        String name = new ExportChunk(null, chunkX, chunkZ, lodLevel).getFileName();
+        if (lodLevel != 0) {
+            // named like the files written before the level of detail was left out of the file name
+            name += "_lod" + lodLevel;
+        }
+        return new File(directory, OBJ_BASE_FILENAME + '_' + name + ".obj");
+    }
+
+    private void writeChunkFile(int chunkX, int chunkZ, int lodLevel) throws IOException {
+        Files.write(chunkFile(chunkX, chunkZ, lodLevel).toPath(), new byte[]{'v'});
+    }
+
+    @Test
+    public void keepsTheFilesOfExportedChunks() throws IOException {
+        export(2);
+        ChunkFingerprints fingerprints = export(2);
+        for (int chunkX = -2; chunkX <= 2; ++chunkX) {
+            for (int chunkZ = -2; chunkZ <= 2; ++chunkZ) {
+                assertTrue(fingerprints.contains(chunkX, chunkZ));
+                assertTrue(chunkFile(chunkX, chunkZ, 0).isFile(), "chunk " + chunkX + ", " + chunkZ + " was deleted");
+            }
+        }
+        assertEquals(0, fingerprints.deleteStaleChunkFiles(OBJ_BASE_FILENAME));
+    }
+
+    @Test
+    public void deletesTheFilesOfChunksOutsideOfASmallerRadius() throws IOException {
+        export(2);
+        export(1);
+        for (int chunkX = -2; chunkX <= 2; ++chunkX) {
+            for (int chunkZ = -2; chunkZ <= 2; ++chunkZ) {
+                boolean inside = Math.abs(chunkX) <= 1 && Math.abs(chunkZ) <= 1;
+                assertEquals(inside, chunkFile(chunkX, chunkZ, 0).isFile(), "chunk " + chunkX + ", " + chunkZ);
+            }
+        }
+    }
+
+    @Test
+    public void deletesOnlyStaleChunkFiles() throws IOException {
+        ChunkFingerprints fingerprints = export(1);
+        writeChunkFile(0, 1, 2);
+        File materials = new File(directory, "world_materials.mtl");
+        File otherExport = new File(directory, "other_chunk_5_5.obj");
+        Files.write(materials.toPath(), new byte[0]);
+        Files.write(otherExport.toPath(), new byte[0]);
+
+        assertEquals(1, fingerprints.deleteStaleChunkFiles(OBJ_BASE_FILENAME));
+        assertFalse(chunkFile(0, 1, 2).exists());
+        assertTrue(chunkFile(0, 1, 0).isFile());
+        assertTrue(materials.isFile());
+        assertTrue(otherExport.isFile());
+    }
+}
@@ -0,0 +1,121 @@
+package bret.worldexporter;
+
+import bret.worldexporter.legacylwjgl.Vector2f;
+import bret.worldexporter.legacylwjgl.Vector3f;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.util.ResourceLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+// Exporter.removeDuplicateQuads against the pairwise isEquivalentTo comparison it replaced, on random quads drawn from
+// small pools of values so that many of them are equivalent or only differ in a single property
+public class DuplicateQuadsTest {
+    private static final float[] COORDINATES = {0f, -0f, 0.5f, 1f, 1.0000001f};
+    private static final float[] UV_COORDINATES = {0f, 0.25f, 1f};
+    private static final int[] COLORS = {-1, 0xFF336699};
+    // the last location is equal to the first but a different instance, which isEquivalentTo treats as different
+    private static final ResourceLocation[] RESOURCES = {new ResourceLocation("minecraft", "block/stone"),
+            new ResourceLocation("minecraft", "block/dirt"), new ResourceLocation("minecraft", "block/stone")};
+
+    // the implementation before QuadKey, which keeps the first quad of each set of equivalent quads
+    private static ArrayList<Quad> removeDuplicatesPairwise(List<Quad> quads) {
+        boolean[] added = new boolean[quads.size()];
+        ArrayList<Quad> uniqueQuads = new ArrayList<>();
+        for (int i = 0; i < quads.size(); ++i) {
+            if (added[i]) continue;
+
+            Quad q1 = quads.get(i);
+            uniqueQuads.add(q1);
+            added[i] = true;
+            for (int j = i + 1; j < quads.size(); ++j) {
+                if (!added[j] && q1.isEquivalentTo(quads.get(j))) {
+                    added[j] = true;
+                }
+            }
+        }
+        return uniqueQuads;
+    }
+
+    private static Quad randomQuad(Random random) {
+        RenderType type = random.nextBoolean() ? RenderType.solid() : RenderType.cutout();
+        Quad quad = new Quad(type, RESOURCES[random.nextInt(RESOURCES.length)]);
+        int count = random.nextInt(10) == 0 ? 3 : 4;
+        boolean hasUv = random.nextInt(5) != 0;
+        for (int i = 0; i < count; ++i) {
+            Vertex vertex = new Vertex();
+            vertex.setPosition(new Vector3f(coordinate(random), coordinate(random), coordinate(random)));
+            vertex.setColor(COLORS[random.nextInt(COLORS.length)]);
+            if (hasUv) {
+                vertex.setUv(new Vector2f(UV_COORDINATES[random.nextInt(UV_COORDINATES.length)], UV_COORDINATES[random.nextInt(UV_COORDINATES.length)]));
+            }
+            quad.addVertex(vertex);
+        }
+        quad.setLightValue(random.nextInt(8) == 0 ? 15 : 0);
+        return quad;
+    }
+
+    private static float coordinate(Random random) {
+        return random.nextInt(200) == 0 ? Float.NaN : COORDINATES[random.nextInt(COORDINATES.length)];
+    }
+
+    // the same quad with its vertices shuffled, or with one property changed
+    private static Quad variant(Quad quad, Random random) {
+        List<Vertex> vertices = new ArrayList<>();
+        for (int i = 0; i < quad.getCount(); ++i) {
+            vertices.add(new Vertex(quad.getVertices()[i]));
+        }
+        Collections.shuffle(vertices, random);
+
+        int change = random.nextInt(6);
+        ResourceLocation resource = change == 0 ? RESOURCES[random.nextInt(RESOURCES.length)] : quad.getResource();
+        RenderType type = change == 1 ? RenderType.solid() : quad.getType();
+        if (change == 2) {
+            vertices.get(0).setColor(COLORS[random.nextInt(COLORS.length)]);
+        } else if (change == 3) {
+            vertices.get(0).setPosition(new Vector3f(coordinate(random), coordinate(random), coordinate(random)));
+        }
+
+        Quad copy = new Quad(type, resource);
+        vertices.forEach(copy::addVertex);
+        copy.setLightValue(change == 4 ? 15 - quad.getLightValue() : quad.getLightValue());
+        return copy;
+    }
+
+    @Test
+    public void matchesPairwiseComparison() {
+        Random random = new Random(42L);
+        for (int trial = 0; trial < 2000; ++trial) {
+            List<ArrayList<Quad>> blocks = new ArrayList<>();
+            List<ArrayList<Quad>> expected = new ArrayList<>();
+            for (int block = 0; block < 4; ++block) {
+                ArrayList<Quad> quads = new ArrayList<>();
+                int size = random.nextInt(24);
+                for (int i = 0; i < size; ++i) {
+                    quads.add(!quads.isEmpty() && random.nextInt(3) == 0 ? variant(quads.get(random.nextInt(quads.size())), random) : randomQuad(random));
+                }
+                // the same quad instance can be in a list more than once
+                if (!quads.isEmpty() && random.nextInt(10) == 0) {
+                    quads.add(quads.get(0));
+                }
+                expected.add(removeDuplicatesPairwise(quads));
+                blocks.add(quads);
+            }
+
+            Exporter.removeDuplicateQuads(blocks);
+            for (int block = 0; block < blocks.size(); ++block) {
+                ArrayList<Quad> actual = blocks.get(block);
+                assertEquals(expected.get(block).size(), actual.size(), "number of quads kept in trial " + trial);
+                for (int i = 0; i < actual.size(); ++i) {
+                    assertSame(expected.get(block).get(i), actual.get(i), "quad " + i + " kept in trial " + trial);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package bret.worldexporter;
+
+import bret.worldexporter.legacylwjgl.Matrix3f;
+import bret.worldexporter.legacylwjgl.Vector3f;
+import bret.worldexporter.util.VectorUtils;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.util.ResourceLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Quad.overlaps, which projects quads facing along an axis and rotates any other quad in place, against the
+// implementation that rotated copies of both quads with VectorUtils.getRotationMatrix
+public class QuadOverlapTest {
+    private static final float OVERLAP_DISTANCE = 0.01f;
+    private static final Vector3f DESIRED_NORM = new Vector3f(0, 0, 1);
+    private static final ResourceLocation RESOURCE = new ResourceLocation("minecraft", "block/stone");
+    // plane offsets of nearby faces, some within OVERLAP_DISTANCE of each other
+    private static final float[] PLANE_OFFSETS = {0f, 0.001f, 0.005f, 0.02f, 0.5f, 1f};
+
+    // the implementation before getOverlapData
+    private static float overlapsByRotatedCopies(Quad first, Quad second) {
+        Vector3f thisNorm = first.getNormal();
+        Vector3f secondNorm = second.getNormal();
+        float normalDistanceSq = thisNorm.distanceSq(secondNorm);
+        if (normalDistanceSq > 0.0001f && normalDistanceSq < 2 - 0.0001f) {
+            return Float.POSITIVE_INFINITY;
+        }
+
+        Quad thisCopy = new Quad(first);
+        Quad secondCopy = new Quad(second);
+        Matrix3f rotateByThis = VectorUtils.getRotationMatrix(thisNorm, DESIRED_NORM);
+        Matrix3f rotateBySecond = VectorUtils.getRotationMatrix(secondNorm, DESIRED_NORM);
+        for (int i = 0; i < 4; ++i) {
+            Vector3f vertPosThis = thisCopy.getVertices()[i].getPosition();
+            Vector3f vertPosSecond = secondCopy.getVertices()[i].getPosition();
+            Matrix3f.transform(rotateByThis, vertPosThis, vertPosThis);
+            Matrix3f.transform(rotateBySecond, vertPosSecond, vertPosSecond);
+        }
+
+        Vector3f[] minMaxPos = thisCopy.minMaxPositions();
+        Vector3f[] minMaxPosSecond = secondCopy.minMaxPositions();
+        float distance = minMaxPos[1].z - minMaxPosSecond[1].z;
+        if (Math.abs(distance) > OVERLAP_DISTANCE) {
+            return Float.POSITIVE_INFINITY;
+        }
+
+        if ((minMaxPos[1].x - minMaxPosSecond[0].x > OVERLAP_DISTANCE) && (minMaxPos[0].x - minMaxPosSecond[1].x < -OVERLAP_DISTANCE)
+                && (minMaxPos[1].y - minMaxPosSecond[0].y > OVERLAP_DISTANCE) && (minMaxPos[0].y - minMaxPosSecond[1].y) < -OVERLAP_DISTANCE) {
+            return distance;
+        } else {
+            return Float.POSITIVE_INFINITY;
+        }
+    }
+
+    private static Quad quad(float[]... positions) {
+        Quad quad = new Quad(RenderType.solid(), RESOURCE);
+        for (float[] position : positions) {
+            Vertex vertex = new Vertex();
+            vertex.setPosition(new Vector3f(position[0], position[1], position[2]));
+            quad.addVertex(vertex);
+        }
+        return quad;
+    }
+
+    // a rectangle in the plane of the given axis (0 = x, 1 = y, 2 = z) at offset, facing either way along the axis
+    private static Quad axisQuad(Random random, int axis, float offset) {
+        float u0 = random.nextInt(16) / 16f, v0 = random.nextInt(16) / 16f;
+        float u1 = u0 + (1 + random.nextInt(16)) / 16f, v1 = v0 + (1 + random.nextInt(16)) / 16f;
+        float[][] corners = {{u0, v0}, {u1, v0}, {u1, v1}, {u0, v1}};
+        float[][] positions = new float[4][];
+        boolean flip = random.nextBoolean();
+        for (int i = 0; i < 4; ++i) {
+            float[] corner = corners[flip ? 3 - i : i];
+            float[] position = new float[3];
+            position[axis] = offset;
+            position[(axis + 1) % 3] = corner[0];
+            position[(axis + 2) % 3] = corner[1];
+            positions[i] = position;
+        }
+        return quad(positions);
+    }
+
+    // a unit square around the origin, rotated by random angles and moved to offset
+    private static Quad rotatedQuad(Random random, float offset) {
+        Matrix3f rotation = VectorUtils.getRotationMatrix(DESIRED_NORM,
+                new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).normalise(null));
+        float[][] corners = {{-0.5f, -0.5f}, {0.5f, -0.5f}, {0.5f, 0.5f}, {-0.5f, 0.5f}};
+        float[][] positions = new float[4][];
+        for (int i = 0; i < 4; ++i) {
+            Vector3f position = new Vector3f(corners[i][0], corners[i][1], 0);
+            Matrix3f.transform(rotation, position, position);
+            positions[i] = new float[]{position.x + offset, position.y + offset, position.z + offset};
+        }
+        return quad(positions);
+    }
+
+    private static void assertSameOverlap(Quad first, Quad second) {
+        float expected = overlapsByRotatedCopies(first, second);
+        float actual = first.overlaps(second, OVERLAP_DISTANCE);
+        assertEquals(expected, actual, 0, "overlap of " + describe(first) + " and " + describe(second));
+    }
+
+    private static String describe(Quad quad) {
+        StringBuilder builder = new StringBuilder();
+        for (Vertex vertex : quad.getVertices()) {
+            builder.append(vertex.getPosition());
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void axisAlignedQuadsMatchRotatedCopies() {
+        Random random = new Random(42L);
+        int overlapping = 0;
+        for (int trial = 0; trial < 20_000; ++trial) {
+            int axis = random.nextInt(3);
+            Quad first = axisQuad(random, axis, PLANE_OFFSETS[random.nextInt(PLANE_OFFSETS.length)]);
+            // mostly quads in the same plane, and some facing along another axis
+            int secondAxis = random.nextInt(4) == 0 ? random.nextInt(3) : axis;
+            Quad second = axisQuad(random, secondAxis, PLANE_OFFSETS[random.nextInt(PLANE_OFFSETS.length)]);
+            assertSameOverlap(first, second);
+            assertSameOverlap(second, first);
+            if (first.overlaps(second, OVERLAP_DISTANCE) != Float.POSITIVE_INFINITY) {
+                ++overlapping;
+            }
+        }
+        // make sure that both outcomes are covered
+        assertTrue(overlapping > 1000, "only " + overlapping + " overlapping pairs");
+    }
+
+    @Test
+    public void rotatedQuadsMatchRotatedCopies() {
+        Random random = new Random(7L);
+        List<Quad> quads = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            Quad quad = rotatedQuad(random, PLANE_OFFSETS[random.nextInt(PLANE_OFFSETS.length)]);
+            quads.add(quad);
+            // a copy moved slightly along the normal overlaps the original
+            Quad moved = new Quad(quad);
+            Vector3f normal = quad.getNormal();
+            moved.translate(new Vector3f(normal.x * 0.005f, normal.y * 0.005f, normal.z * 0.005f));
+            quads.add(moved);
+        }
+        for (int i = 0; i < 100; ++i) {
+            quads.add(axisQuad(random, random.nextInt(3), PLANE_OFFSETS[random.nextInt(PLANE_OFFSETS.length)]));
+        }
+
+        for (Quad first : quads) {
+            for (Quad second : quads) {
+                assertSameOverlap(first, second);
+            }
+        }
+    }
+}
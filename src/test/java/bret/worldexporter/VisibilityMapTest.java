@@ -0,0 +1,166 @@
+package bret.worldexporter;
+
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The chunk by chunk flood fill of VisibilityMap against a plain breadth-first search over the whole volume, on random
+// volumes that span several chunk columns (including negative ones) with random opaque blocks
+public class VisibilityMapTest {
+    private static final int VOLUMES = 300;
+
+    // a random volume, opaque[x][y][z] relative to its lowest corner
+    private static class Volume {
+        final BlockPos start;
+        final BlockPos end;
+        final boolean[][][] opaque;
+
+        Volume(Random random) {
+            int sizeX = 1 + random.nextInt(40), sizeY = 1 + random.nextInt(12), sizeZ = 1 + random.nextInt(40);
+            end = new BlockPos(random.nextInt(80) - 40, random.nextInt(8), random.nextInt(80) - 40);
+            start = new BlockPos(end.getX() + sizeX - 1, end.getY() + sizeY - 1, end.getZ() + sizeZ - 1);
+            opaque = new boolean[sizeX][sizeY][sizeZ];
+            double density = 0.2 + random.nextDouble() * 0.6;
+            for (boolean[][] plane : opaque) {
+                for (boolean[] row : plane) {
+                    for (int z = 0; z < row.length; ++z) {
+                        row[z] = random.nextDouble() < density;
+                    }
+                }
+            }
+        }
+
+        boolean contains(int x, int y, int z) {
+            return x >= 0 && x < opaque.length && y >= 0 && y < opaque[0].length && z >= 0 && z < opaque[0][0].length;
+        }
+
+        boolean isOpaque(int x, int y, int z) {
+            return opaque[x][y][z];
+        }
+
+        VisibilityMap compute(BlockPos viewpoint) {
+            return VisibilityMap.compute(start, end, viewpoint, (chunkX, chunkZ, minY, maxY, bits) -> {
+                for (int y = minY; y <= maxY; ++y) {
+                    for (int z = 0; z < 16; ++z) {
+                        for (int x = 0; x < 16; ++x) {
+                            int rx = (chunkX << 4) + x - end.getX(), ry = y - end.getY(), rz = (chunkZ << 4) + z - end.getZ();
+                            if (contains(rx, ry, rz) && isOpaque(rx, ry, rz)) {
+                                int cell = ((y - minY) << 8) | (z << 4) | x;
+                                bits[cell >>> 6] |= 1L << cell;
+                            }
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    // the cells reached by a breadth-first search from the boundary, or from viewpoint (relative to the lowest corner)
+    // if it is an open cell of the volume
+    private static boolean[][][] flood(Volume volume, int[] viewpoint) {
+        int sizeX = volume.opaque.length, sizeY = volume.opaque[0].length, sizeZ = volume.opaque[0][0].length;
+        boolean[][][] reached = new boolean[sizeX][sizeY][sizeZ];
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        if (viewpoint != null && volume.contains(viewpoint[0], viewpoint[1], viewpoint[2])
+                && !volume.isOpaque(viewpoint[0], viewpoint[1], viewpoint[2])) {
+            queue.add(viewpoint);
+        } else {
+            for (int x = 0; x < sizeX; ++x) {
+                for (int y = 0; y < sizeY; ++y) {
+                    for (int z = 0; z < sizeZ; ++z) {
+                        if (x == 0 || y == 0 || z == 0 || x == sizeX - 1 || y == sizeY - 1 || z == sizeZ - 1) {
+                            queue.add(new int[]{x, y, z});
+                        }
+                    }
+                }
+            }
+        }
+
+        int[][] directions = {{-1, 0, 0}, {1, 0, 0}, {0, -1, 0}, {0, 1, 0}, {0, 0, -1}, {0, 0, 1}};
+        while (!queue.isEmpty()) {
+            int[] cell = queue.poll();
+            int x = cell[0], y = cell[1], z = cell[2];
+            if (reached[x][y][z] || volume.isOpaque(x, y, z)) continue;
+
+            reached[x][y][z] = true;
+            for (int[] direction : directions) {
+                int nx = x + direction[0], ny = y + direction[1], nz = z + direction[2];
+                if (volume.contains(nx, ny, nz) && !reached[nx][ny][nz]) {
+                    queue.add(new int[]{nx, ny, nz});
+                }
+            }
+        }
+        return reached;
+    }
+
+    private static void assertMatches(Volume volume, int[] viewpoint, boolean outsideReached) {
+        BlockPos viewpointPos = viewpoint == null ? null
+                : new BlockPos(volume.end.getX() + viewpoint[0], volume.end.getY() + viewpoint[1], volume.end.getZ() + viewpoint[2]);
+        VisibilityMap map = volume.compute(viewpointPos);
+        boolean[][][] reached = flood(volume, viewpoint);
+
+        long reachedCount = 0;
+        for (int x = 0; x < reached.length; ++x) {
+            for (int y = 0; y < reached[0].length; ++y) {
+                for (int z = 0; z < reached[0][0].length; ++z) {
+                    if (reached[x][y][z]) ++reachedCount;
+
+                    boolean visible = false;
+                    for (int[] cell : new int[][]{{x, y, z}, {x - 1, y, z}, {x + 1, y, z}, {x, y - 1, z}, {x, y + 1, z}, {x, y, z - 1}, {x, y, z + 1}}) {
+                        visible |= volume.contains(cell[0], cell[1], cell[2]) ? reached[cell[0]][cell[1]][cell[2]] : outsideReached;
+                    }
+                    BlockPos pos = new BlockPos(volume.end.getX() + x, volume.end.getY() + y, volume.end.getZ() + z);
+                    assertEquals(visible, map.isVisible(pos), "visibility of " + pos + " from " + viewpointPos);
+                }
+            }
+        }
+        assertEquals(reachedCount, map.getReachedCount());
+    }
+
+    @Test
+    public void boundaryFloodMatchesBreadthFirstSearch() {
+        Random random = new Random(16);
+        for (int i = 0; i < VOLUMES; ++i) {
+            assertMatches(new Volume(random), null, true);
+        }
+    }
+
+    @Test
+    public void viewpointFloodMatchesBreadthFirstSearch() {
+        Random random = new Random(17);
+        for (int i = 0; i < VOLUMES; ++i) {
+            Volume volume = new Volume(random);
+            int[] viewpoint = {random.nextInt(volume.opaque.length), random.nextInt(volume.opaque[0].length), random.nextInt(volume.opaque[0][0].length)};
+            // a blocked viewpoint falls back to flooding from the boundary, which reaches the outside as well
+            assertMatches(volume, viewpoint, volume.isOpaque(viewpoint[0], viewpoint[1], viewpoint[2]));
+        }
+    }
+
+    @Test
+    public void unusableViewpointKeepsTheOuterFacesVisible() {
+        Random random = new Random(18);
+        for (int i = 0; i < VOLUMES; ++i) {
+            Volume volume = new Volume(random);
+            int[] outside = {-1, 0, 0};
+            assertMatches(volume, outside, true);
+        }
+
+        // a solid volume has no open cell, yet all of its outer blocks can be seen from outside of it
+        Volume solid = new Volume(new Random(19));
+        for (boolean[][] plane : solid.opaque) {
+            for (boolean[] row : plane) {
+                Arrays.fill(row, true);
+            }
+        }
+        VisibilityMap map = solid.compute(solid.end);
+        assertTrue(map.isVisible(solid.end));
+        assertTrue(map.isVisible(solid.start));
+        assertEquals(0, map.getReachedCount());
+    }
+}
@@ -0,0 +1,81 @@
+package bret.worldexporter.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AsciiBufferTest {
+    private static String format(float value, int decimals) throws IOException {
+        AsciiBuffer buffer = new AsciiBuffer(16);
+        buffer.put(value, decimals);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    // the written value must parse back to the float rounded to the given number of decimals
+    private static void assertRoundTrip(float value, int decimals) throws IOException {
+        String text = format(value, decimals);
+        double scale = Math.pow(10, decimals);
+        double expected = Math.round((double) value * scale) / scale;
+        assertEquals(expected, Double.parseDouble(text), 0, value + " with " + decimals + " decimals was written as " + text);
+    }
+
+    @Test
+    public void writesFixedPrecision() throws IOException {
+        assertEquals("0", format(0f, 6));
+        assertEquals("1", format(1f, 6));
+        assertEquals("0.5", format(0.5f, 6));
+        assertEquals("-0.5", format(-0.5f, 6));
+        assertEquals("12.25", format(12.25f, 6));
+        assertEquals("0.000001", format(0.000001f, 6));
+        assertEquals("-3.125", format(-3.125f, 3));
+        assertEquals("-3", format(-3.125f, 0));
+    }
+
+    @Test
+    public void roundingCarriesIntoTheIntegerPart() throws IOException {
+        assertEquals("1", format(0.9999995f, 6));
+        assertEquals("-1", format(-0.9999995f, 6));
+        assertEquals("10", format(9.99999f, 4));
+        assertEquals("100", format(99.999f, 2));
+        assertRoundTrip(0.9999995f, 6);
+        assertRoundTrip(1.9999999f, 6);
+    }
+
+    @Test
+    public void negativeZeroIsWrittenAsZero() throws IOException {
+        assertEquals("0", format(-0f, 6));
+        // values that round to zero don't keep their sign either
+        assertEquals("0", format(-0.0000001f, 6));
+    }
+
+    @Test
+    public void largeMagnitudesFallBackToFloatToString() throws IOException {
+        for (float value : new float[]{1e9f, -1e9f, 3.4028235e38f, -1.5e20f}) {
+            String text = format(value, 6);
+            assertEquals(Float.toString(value), text);
+            assertEquals(value, Float.parseFloat(text), 0);
+        }
+        assertEquals("NaN", format(Float.NaN, 6));
+        assertEquals("Infinity", format(Float.POSITIVE_INFINITY, 6));
+        assertEquals("-Infinity", format(Float.NEGATIVE_INFINITY, 6));
+        assertRoundTrip(999_999_936f, 6);
+        assertRoundTrip(-30_000_000.5f, 6);
+    }
+
+    @Test
+    public void randomValuesRoundTrip() throws IOException {
+        Random random = new Random(42L);
+        for (int i = 0; i < 100_000; ++i) {
+            // mostly coordinates within a world, and some uvs between 0 and 1
+            float value = i % 4 == 0 ? random.nextFloat() : (random.nextFloat() - 0.5f) * (float) Math.pow(10, random.nextInt(9));
+            assertRoundTrip(value, 1 + random.nextInt(AsciiBuffer.MAX_DECIMALS));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package bret.worldexporter.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// RectIndex on synthetic atlases: sprites laid out edge to edge like in a texture atlas, queried with uv bounds
+public class RectIndexTest {
+    // a 16 by 16 grid of sprites covering 0 to 1, named by their column and row
+    private static RectIndex<String> gridAtlas() {
+        RectIndex.Builder<String> builder = new RectIndex.Builder<>();
+        for (int row = 0; row < 16; ++row) {
+            for (int column = 0; column < 16; ++column) {
+                float[] sprite = {column / 16f, row / 16f, (column + 1) / 16f, (row + 1) / 16f};
+
+                builder.add(sprite[0], sprite[1], sprite[2], sprite[3], column + "," + row);
+            }
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void findsTheSpriteContainingAQuery() {
+        RectIndex<String> index = gridAtlas();
+        assertEquals(256, index.size());
+        // a whole sprite, and a part of one
+        assertEquals("3,5", index.findContaining(3 / 16f, 5 / 16f, 4 / 16f, 6 / 16f));
+        assertEquals("3,5", index.findContaining(3.25f / 16, 5.5f / 16, 3.75f / 16, 5.75f / 16));
+        // a single point inside a sprite
+        assertEquals("15,0", index.findContaining(15.5f / 16, 0.5f / 16, 15.5f / 16, 0.5f / 16));
+    }
+
+    @Test
+    public void queriesOnSpriteEdgesAreContained() {
+        RectIndex<String> index = gridAtlas();
+        // touching the right and top edges of sprite 7,7, which lie on the root's split lines
+        assertEquals("7,7", index.findContaining(7.5f / 16, 7.5f / 16, 8 / 16f, 8 / 16f));
+        // touching the left and bottom edges of sprite 8,8 on the other side of them
+        assertEquals("8,8", index.findContaining(8 / 16f, 8 / 16f, 8.5f / 16, 8.5f / 16));
+        // the corners of the atlas
+        assertEquals("0,0", index.findContaining(0, 0, 0.5f / 16, 0.5f / 16));
+        assertEquals("15,15", index.findContaining(15.5f / 16, 15.5f / 16, 1, 1));
+    }
+
+    @Test
+    public void sharedBordersFindTheFirstSprite() {
+        RectIndex<String> index = gridAtlas();
+        // a line on the border between two sprites is contained by both, the first added one is found
+        assertEquals("7,3", index.findContaining(8 / 16f, 3.25f / 16, 8 / 16f, 3.75f / 16));
+        assertEquals("7,7", index.findContaining(8 / 16f, 8 / 16f, 8 / 16f, 8 / 16f));
+
+        // an equal rectangle added later is never found
+        RectIndex<String> duplicates = new RectIndex.Builder<String>()
+                .add(0, 0, 0.5f, 0.5f, "first")
+                .add(0, 0, 0.5f, 0.5f, "second")
+                .build();
+        assertEquals("first", duplicates.findContaining(0.1f, 0.1f, 0.2f, 0.2f));
+    }
+
+    @Test
+    public void queriesOutsideOfEverySpriteMiss() {
+        RectIndex<String> index = gridAtlas();
+        // crossing the border between two sprites
+        assertNull(index.findContaining(7.5f / 16, 3.25f / 16, 8.5f / 16, 3.75f / 16));
+        assertNull(index.findContaining(7.5f / 16, 7.5f / 16, 8.5f / 16, 8.5f / 16));
+        // outside of the atlas
+        assertNull(index.findContaining(-0.1f, 0.5f, -0.05f, 0.6f));
+        assertNull(index.findContaining(0.9f, 0.9f, 1.1f, 0.95f));
+        assertNull(index.findContaining(Float.NaN, 0, 0.1f, 0.1f));
+        assertNull(new RectIndex.Builder<String>().build().findContaining(0, 0, 1, 1));
+    }
+
+    @Test
+    public void matchesALinearScan() {
+        Random random = new Random(42L);
+        List<float[]> sprites = new ArrayList<>();
+        RectIndex.Builder<Integer> builder = new RectIndex.Builder<>();
+        // sprites of different sizes at random places, which may overlap each other
+        for (int i = 0; i < 500; ++i) {
+            float size = (1 << random.nextInt(5)) / 64f;
+            float x = random.nextInt(64) / 64f, y = random.nextInt(64) / 64f;
+            float[] sprite = {x, y, x + size, y + size};
+            sprites.add(sprite);
+            builder.add(sprite[0], sprite[1], sprite[2], sprite[3], i);
+        }
+        RectIndex<Integer> index = builder.build();
+
+        for (int query = 0; query < 20_000; ++query) {
+            // queries snapped to a grid often land on sprite edges
+            float minX = random.nextInt(256) / 256f, minY = random.nextInt(256) / 256f;
+            float maxX = minX + random.nextInt(16) / 256f, maxY = minY + random.nextInt(16) / 256f;
+            Integer expected = null;
+            for (int i = 0; i < sprites.size(); ++i) {
+                float[] sprite = sprites.get(i);
+                if (minX >= sprite[0] && minY >= sprite[1] && maxX <= sprite[2] && maxY <= sprite[3]) {
+                    expected = i;
+                    break;
+                }
+            }
+            assertEquals(expected, index.findContaining(minX, minY, maxX, maxY), "query " + minX + ", " + minY + ", " + maxX + ", " + maxY);
+        }
+    }
+}